@@ -15,6 +15,9 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileVacuum;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
@@ -361,13 +364,14 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) != Type.STRING_TYPE
+                            && td.getFieldType(i) != Type.VARCHAR_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            Type.STRING_LEN, td.getFieldType(i));
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -386,7 +390,8 @@ public class Parser {
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
-        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId));
+        // INSERT ... SELECT may produce any number of tuples, so use the bulk path
+        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId, s.getValues() == null));
         return insertQ;
     }
 
@@ -463,6 +468,32 @@ public class Parser {
         }
     }
 
+    /**
+     * Compacts a heap file table in the background of other transactions;
+     * see {@link HeapFileVacuum}.
+     */
+    public void handleVacuum(String tableName) {
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(tableName));
+            if (!(file instanceof HeapFile)) {
+                System.out.println("Only heap file tables can be vacuumed");
+                return;
+            }
+            if (inUserTrans) {
+                System.out.println("VACUUM cannot run inside a transaction");
+                return;
+            }
+            HeapFileVacuum vacuum = new HeapFileVacuum((HeapFile) file);
+            vacuum.run();
+            System.out.println("Vacuumed " + tableName + ": " + vacuum);
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + tableName);
+        } catch (DbException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -567,7 +598,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "vacuum" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -667,6 +698,12 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (cmd.toLowerCase().startsWith("vacuum ")) {
+                        handleVacuum(cmd.substring(7, cmd.length() - 1).trim());
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
@@ -1,8 +1,12 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PaxHeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -150,9 +154,10 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [storage]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String storage = line.substring(line.indexOf(")") + 1).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
@@ -164,6 +169,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -180,7 +187,23 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (storage.isEmpty() || storage.equalsIgnoreCase("heap"))
+                    tabHf = new HeapFile(tabFile, t);
+                else if (storage.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(tabFile, t);
+                else if (storage.equalsIgnoreCase("compressed"))
+                    tabHf = new CompressedHeapFile(tabFile, t);
+                else if (storage.equalsIgnoreCase("pax"))
+                    tabHf = new PaxHeapFile(tabFile, t);
+                else if (storage.equalsIgnoreCase("column"))
+                    tabHf = new ColumnFile(tabFile, t);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -6,11 +6,15 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
  * Types are static objects defined by this class; hence, the Type
  * constructor is private.
+ * <p>
+ * Values of both STRING_TYPE and VARCHAR_TYPE are StringFields of at most
+ * STRING_LEN characters; the types differ only in how they are stored.
  */
 public enum Type implements Serializable {
     INT_TYPE() {
@@ -28,6 +32,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +55,37 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * The largest a VARCHAR can take, which is what fixed-width layouts
+         * such as HeapPage reserve for it; they store it exactly like a
+         * STRING_TYPE. Slotted pages store only the characters actually used,
+         * see {@link simpledb.storage.SlottedPage}.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return new StringField(((StringField) STRING_TYPE.parse(dis)).getValue(), STRING_LEN, this);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new StringField(((StringField) STRING_TYPE.parse(buf, offset)).getValue(), STRING_LEN, this);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +104,14 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from buf at the given absolute offset, in the format written by
+   *   {@link Field#serialize(ByteBuffer, int)}. The position of buf is not
+   *   changed.
+   * @param buf The buffer to read from
+   * @param offset The offset of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -22,6 +23,8 @@ public class Aggregate extends Operator {
     private Aggregator.Op aop;
     private Aggregator aggregator;
     private OpIterator iterator;
+    /** the schema of the output, bound when the child is set */
+    private TupleDesc td;
 
     /**
      * Constructor.
@@ -44,6 +47,7 @@ public class Aggregate extends Operator {
         this.aop = aop;
         this.iterator = null;
         this.aggregator = null;
+        bindTupleDesc();
     }
 
     /**
@@ -148,7 +152,10 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        return td;
+    }
 
+    private void bindTupleDesc() {
         if (gfield == Aggregator.NO_GROUPING) {
             Type fieldType = child.getTupleDesc().getFieldType(afield);
             Type[] typeAr = new Type[] { fieldType };
@@ -156,7 +163,7 @@ public class Aggregate extends Operator {
             String fieldName = child.getTupleDesc().getFieldName(afield);
             String[] stringAr = new String[] { aop.toString() + " " + fieldName };
 
-            return new TupleDesc(typeAr, stringAr);
+            td = new TupleDesc(typeAr, stringAr);
         } else {
             Type aFieldType = child.getTupleDesc().getFieldType(afield);
             Type gFieldType = child.getTupleDesc().getFieldType(gfield);
@@ -166,7 +173,7 @@ public class Aggregate extends Operator {
             String gFieldName = child.getTupleDesc().getFieldName(gfield);
 
             String[] stringAr = new String[] { gFieldName, aop.toString() + " " + aFieldName };
-            return new TupleDesc(typeAr, stringAr);
+            td = new TupleDesc(typeAr, stringAr);
         }
     }
 
@@ -189,6 +196,7 @@ public class Aggregate extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.child = children[0];
+        bindTupleDesc();
     }
 
     // Utilty method to instantiate an Aggregator
@@ -203,21 +211,22 @@ public class Aggregate extends Operator {
 
         if (td.getFieldType(afield) == Type.INT_TYPE) {
             return new IntegerAggregator(gfield, gbFieldType, afield, aop);
-        } else if (td.getFieldType(afield) == Type.STRING_TYPE) {
+        } else if (td.getFieldType(afield) == Type.STRING_TYPE
+                || td.getFieldType(afield) == Type.VARCHAR_TYPE) {
             return new StringAggregator(gfield, gbFieldType, afield, aop);
         } else {
             throw new DbException("Unsupported field type");
         }
     }
 
-    // Utility method to fill up the aggregator with tuples from the child
+    // Utility method to fill up the aggregator with batches from the child
     private void fillUpAggregatorIterator() throws DbException, TransactionAbortedException {
         if (aggregator == null) {
             throw new DbException("aggregator is null");
         }
-        while (this.child.hasNext()) {
-            Tuple nextTuple = this.child.next();
-            aggregator.mergeTupleIntoGroup(nextTuple);
+        TupleBatch batch;
+        while ((batch = this.child.nextBatch()) != null) {
+            aggregator.mergeBatchIntoGroup(batch);
         }
     }
 }
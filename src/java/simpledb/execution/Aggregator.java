@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,18 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges the selected rows of a batch into the aggregate, as
+     * mergeTupleIntoGroup would merge each of them.
+     *
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(i));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -0,0 +1,268 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin joins two children on any predicate, like Join, but
+ * reads the outer child (child1) a block at a time: it buffers as many
+ * outer tuples as fit in a memory budget and scans the inner child once per
+ * block, rather than once per outer tuple.
+ * <p>
+ * When the join fields are ints and the predicate compares them by order
+ * (=, <, <=, >, >=), the block can also be sorted on the outer join field.
+ * The outer tuples that match an inner tuple are then a contiguous run of
+ * the block, found by binary search, instead of every tuple of the block
+ * being tested.
+ * <p>
+ * The output tuples are the concatenation of an outer and an inner tuple,
+ * as for Join, but in the order of the inner scan within each block.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages' worth of outer tuples buffered per block by default */
+    public static final int DEFAULT_BLOCK_PAGES = 64;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+    private final int blockBytes;
+    private final boolean sortBlock;
+
+    /** the current block of outer tuples */
+    private transient Tuple[] block;
+    private transient int blockSize;
+    /** the outer join field of each tuple of the block, if it is sorted */
+    private transient int[] keys;
+    private transient boolean sorted;
+    /** the current inner tuple, and the range of the block left to match it against */
+    private transient Tuple inner;
+    private transient int pos, end;
+
+    /**
+     * Constructor. Joins the children with blocks of
+     * {@link #DEFAULT_BLOCK_PAGES} pages, sorting them when the predicate
+     * allows.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES * BufferPool.getPageSize(), true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param blockBytes
+     *            the memory budget of a block of outer tuples, in bytes of
+     *            stored tuples; a block holds at least one tuple
+     * @param sortBlock
+     *            whether to sort each block to match range predicates by
+     *            binary search
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                               int blockBytes, boolean sortBlock) {
+        this.pred = p;
+        this.blockBytes = blockBytes;
+        this.sortBlock = sortBlock;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of outer tuples of the given schema in a block of
+     *         the given number of bytes
+     */
+    public static int blockTuples(TupleDesc outer, int blockBytes) {
+        return Math.max(1, blockBytes / outer.getSize());
+    }
+
+    /**
+     * @return true if blocks are sorted to match the predicate by binary search
+     */
+    private boolean sortable() {
+        if (!sortBlock
+                || child1.getTupleDesc().getFieldType(pred.getField1()) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(pred.getField2()) != Type.INT_TYPE) {
+            return false;
+        }
+        switch (pred.getOperator()) {
+            case EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        block = new Tuple[blockTuples(child1.getTupleDesc(), blockBytes)];
+        sorted = sortable();
+        loadBlock();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        block = null;
+        keys = null;
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        loadBlock();
+    }
+
+    /**
+     * Reads the next block of outer tuples, sorting it if the predicate
+     * allows.
+     *
+     * @return false if the outer child has no more tuples
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        Arrays.fill(block, 0, blockSize, null);
+        blockSize = 0;
+        inner = null;
+        while (blockSize < block.length && child1.hasNext()) {
+            block[blockSize++] = child1.next();
+        }
+        if (sorted && blockSize > 0) {
+            int f1 = pred.getField1();
+            Arrays.sort(block, 0, blockSize, Comparator.comparingInt(t -> t.getInt(f1)));
+            keys = new int[blockSize];
+            for (int i = 0; i < blockSize; i++) {
+                keys[i] = block[i].getInt(f1);
+            }
+        }
+        return blockSize > 0;
+    }
+
+    /** @return the first index of the block whose key is at least v (or more than v if strict) */
+    private int search(int v, boolean strict) {
+        int lo = 0, hi = blockSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < v || (strict && keys[mid] == v)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Sets the range of the block to match the current inner tuple against:
+     * the run of tuples that satisfy the predicate if the block is sorted,
+     * or the whole block.
+     */
+    private void matchRange() {
+        pos = 0;
+        end = blockSize;
+        if (!sorted) {
+            return;
+        }
+        int v = inner.getInt(pred.getField2());
+        switch (pred.getOperator()) {
+            case EQUALS:
+                pos = search(v, false);
+                end = search(v, true);
+                break;
+            case GREATER_THAN:
+                pos = search(v, true);
+                break;
+            case GREATER_THAN_OR_EQ:
+                pos = search(v, false);
+                break;
+            case LESS_THAN:
+                end = search(v, false);
+                break;
+            case LESS_THAN_OR_EQ:
+                end = search(v, true);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next outer tuple of the current block that matches
+     * the current inner tuple, moving on to the next inner tuple and, at the
+     * end of the inner child, to the next block.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (blockSize > 0) {
+            while (inner != null && pos < end) {
+                Tuple outer = block[pos++];
+                if (sorted || pred.filter(outer, inner)) {
+                    Tuple t = new Tuple(td);
+                    t.copyFields(outer, 0);
+                    t.copyFields(inner, outer.getTupleDesc().numFields());
+                    return t;
+                }
+            }
+            if (child2.hasNext()) {
+                inner = child2.next();
+                matchRange();
+            } else {
+                // the inner child is done: move on to the next block
+                child2.rewind();
+                loadBlock();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a child of an operator through the DbFileIterator interface, so that
+ * operators can treat it like a {@link SpillFile} or a sorted run. The child
+ * is opened and closed by the operator, not by this iterator.
+ */
+class ChildIterator implements DbFileIterator {
+    private final OpIterator child;
+
+    ChildIterator(OpIterator child) {
+        this.child = child;
+    }
+
+    public void open() {
+        // the child is opened by the operator
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        // the child is closed by the operator
+    }
+}
@@ -0,0 +1,311 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts tuples that may not fit in memory. Tuples are added to
+ * an in-memory buffer of bounded size; whenever it fills up, it is sorted and
+ * written to a temporary file as a run. Reading the result merges the runs
+ * with a priority queue. If no run was written, the buffer is read as it is;
+ * otherwise what is left in it is written as a last run first, so that the
+ * merge does not hold the buffer and the read-ahead of the runs at once.
+ * <p>
+ * Each run being merged is read {@link #READ_AHEAD_PAGES} pages at a time,
+ * so the memory budget bounds how many runs are merged at once. When there
+ * are more runs than that, consecutive runs are first merged into longer
+ * ones, in as many passes as it takes.
+ * <p>
+ * The size of the buffer is counted in bytes of stored tuples (see
+ * {@link TupleDesc#getSize()}), like the memory budget of a
+ * {@link BlockNestedLoopJoin}. The sort is stable: tuples that compare equal
+ * come out in the order they were added.
+ */
+public class ExternalSort {
+
+    /** Pages' worth of tuples sorted in memory by default */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /** Pages read ahead from each run during a merge */
+    public static final int READ_AHEAD_PAGES = 4;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int maxTuples;
+    private final int readAhead;
+    private final int fanIn;
+
+    private final List<Tuple> buffer = new ArrayList<>();
+    private final List<SpillFile> runs = new ArrayList<>();
+    private boolean sorted;
+
+    private int runsSpilled, mergePasses, peakTuples;
+    private long bytesSpilled;
+
+    /**
+     * Creates an empty sort with a buffer of {@link #DEFAULT_MEMORY_PAGES}
+     * pages.
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator) {
+        this(td, comparator, DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Creates an empty sort.
+     *
+     * @param td the schema of the tuples to sort
+     * @param comparator the order to sort them in
+     * @param memoryBytes the size of the in-memory buffer, in bytes of stored
+     *        tuples; the buffer holds at least one tuple, and at least two
+     *        runs are merged at once
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, int memoryBytes) {
+        this.td = td;
+        this.comparator = comparator;
+        this.maxTuples = Math.max(1, memoryBytes / td.getSize());
+        this.readAhead = READ_AHEAD_PAGES * BufferPool.getPageSize();
+        this.fanIn = Math.max(2, memoryBytes / readAhead);
+    }
+
+    /**
+     * Adds a tuple to the sort, spilling the buffer to a run if it is full.
+     * Tuples cannot be added once the result has been read.
+     */
+    public void add(Tuple t) throws DbException {
+        if (sorted) {
+            throw new IllegalStateException("tuples added to a sort that has been read");
+        }
+        if (buffer.size() == maxTuples) {
+            spill();
+        }
+        buffer.add(t);
+        peakTuples = Math.max(peakTuples, buffer.size());
+    }
+
+    /**
+     * Adds every tuple of an open iterator to the sort.
+     */
+    public void addAll(OpIterator child) throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            add(child.next());
+        }
+    }
+
+    /**
+     * @return the number of sorted runs spilled to disk so far, not counting
+     *         those written by merge passes
+     */
+    public int numRuns() {
+        return runsSpilled;
+    }
+
+    /**
+     * @return the number of passes that merged runs into longer runs before
+     *         the final merge
+     */
+    public int numMergePasses() {
+        return mergePasses;
+    }
+
+    /**
+     * @return the number of bytes written to disk, by spilled runs and by
+     *         merge passes
+     */
+    public long getBytesSpilled() {
+        return bytesSpilled;
+    }
+
+    /**
+     * @return the most bytes of stored tuples held in the in-memory buffer
+     *         at once
+     */
+    public long getPeakMemoryBytes() {
+        return (long) peakTuples * td.getSize();
+    }
+
+    private void spill() throws DbException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : buffer) {
+            run.add(t);
+        }
+        runs.add(run);
+        runsSpilled++;
+        bytesSpilled += run.diskBytes();
+        buffer.clear();
+    }
+
+    /**
+     * Merges groups of up to fanIn consecutive runs into single runs, until
+     * at most fanIn runs are left. Merging consecutive runs keeps the sort
+     * stable.
+     */
+    private void mergeRuns() throws DbException {
+        while (runs.size() > fanIn) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile run = new SpillFile(td);
+                MergeIterator it = new MergeIterator(group, false);
+                try {
+                    it.open();
+                    while (it.hasNext()) {
+                        run.add(it.next());
+                    }
+                } catch (TransactionAbortedException e) {
+                    throw new DbException("merge of sorted runs aborted: " + e);
+                } finally {
+                    it.close();
+                }
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+                merged.add(run);
+                bytesSpilled += run.diskBytes();
+            }
+            runs.clear();
+            runs.addAll(merged);
+            mergePasses++;
+        }
+    }
+
+    /**
+     * Returns an iterator over the sorted tuples. No more tuples can be
+     * added afterwards; the iterator can be rewound, and more iterators can
+     * be made, until the sort is closed.
+     */
+    public DbFileIterator iterator() throws DbException {
+        if (!sorted) {
+            if (runs.isEmpty()) {
+                buffer.sort(comparator);
+            } else if (!buffer.isEmpty()) {
+                spill();
+            }
+            mergeRuns();
+            sorted = true;
+        }
+        return new MergeIterator(runs, runs.isEmpty());
+    }
+
+    /**
+     * Deletes the runs on disk and drops the buffer.
+     */
+    public void close() {
+        for (SpillFile run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    /** the head tuple of a run, or of the buffer, during a merge */
+    private static class Source {
+        final int index;
+        final DbFileIterator run;
+        final Iterator<Tuple> it;
+        Tuple head;
+
+        Source(int index, DbFileIterator run) {
+            this.index = index;
+            this.run = run;
+            this.it = null;
+        }
+
+        Source(int index, Iterator<Tuple> it) {
+            this.index = index;
+            this.run = null;
+            this.it = it;
+        }
+    }
+
+    /**
+     * Merges runs, and the buffer after them if withBuffer, reading each
+     * run {@link #READ_AHEAD_PAGES} pages at a time.
+     */
+    private class MergeIterator extends AbstractDbFileIterator {
+        private final List<SpillFile> inputs;
+        private final boolean withBuffer;
+        private PriorityQueue<Source> queue;
+        private final List<Source> sources = new ArrayList<>();
+
+        MergeIterator(List<SpillFile> inputs, boolean withBuffer) {
+            this.inputs = inputs;
+            this.withBuffer = withBuffer;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            // ties go to the earlier run, which holds the earlier tuples
+            queue = new PriorityQueue<>((a, b) -> {
+                int c = comparator.compare(a.head, b.head);
+                return c != 0 ? c : Integer.compare(a.index, b.index);
+            });
+            for (SpillFile run : inputs) {
+                DbFileIterator it = run.iterator(readAhead);
+                sources.add(new Source(sources.size(), it));
+                it.open();
+            }
+            if (withBuffer) {
+                sources.add(new Source(sources.size(), buffer.iterator()));
+            }
+            for (Source s : sources) {
+                advance(s);
+            }
+        }
+
+        /** Reads the next tuple of a source and queues it, if there is one. */
+        private void advance(Source s) throws DbException, TransactionAbortedException {
+            if (s.it != null) {
+                s.head = s.it.hasNext() ? s.it.next() : null;
+            } else {
+                s.head = s.run.hasNext() ? s.run.next() : null;
+            }
+            if (s.head != null) {
+                queue.add(s);
+            }
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (queue == null) {
+                return null;
+            }
+            Source s = queue.poll();
+            if (s == null) {
+                return null;
+            }
+            Tuple t = s.head;
+            advance(s);
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            for (Source s : sources) {
+                if (s.run != null) {
+                    s.run.close();
+                }
+            }
+            sources.clear();
+            queue = null;
+        }
+    }
+}
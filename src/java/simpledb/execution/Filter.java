@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -29,6 +30,17 @@ public class Filter extends Operator {
         // some code goes here
         this.childOp = child;
         this.predicate = p;
+        pushPageFilter();
+    }
+
+    /**
+     * Lets a scan directly below this filter skip pages that cannot hold a
+     * tuple satisfying the predicate.
+     */
+    private void pushPageFilter() {
+        if (childOp instanceof SeqScan) {
+            ((SeqScan) childOp).addPageFilter(predicate);
+        }
     }
 
     public Predicate getPredicate() {
@@ -83,6 +95,25 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Operator.fetchNextBatch implementation. Narrows the batches of the
+     * child operator to the rows that pass the predicate, skipping batches
+     * in which none do.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    @Override
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = childOp.nextBatch()) != null) {
+            predicate.filter(batch);
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -93,6 +124,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         childOp = children[0];
+        pushPageFilter();
     }
 
 }
@@ -2,27 +2,58 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds a hash table on child1 and
+ * probes it with child2 (see {@link JoinHashTable}; joins on int fields use
+ * an open-addressing table of ints). When child1 does not fit in the memory budget of
+ * the join, both children are split into {@link #PARTITIONS} partitions by
+ * a hash of the join key: one partition of child1 stays in the hash table
+ * and is joined while child2 is read, and the others are spilled to
+ * temporary files with the matching partitions of child2 and joined one at
+ * a time afterwards. A spilled partition that is still too big is split
+ * again with another hash, up to {@link #MAX_DEPTH} times; one that cannot
+ * be split, such as a single key with too many tuples, is joined a
+ * memory-sized chunk at a time.
+ * <p>
+ * While child1 is read, its join keys are added to a {@link JoinKeyFilter},
+ * which is then pushed into the scan of child2, if child2 is a SeqScan or
+ * Filters over one. The scan drops the child2 tuples that cannot match
+ * before decoding them, so they are neither probed nor spilled; see
+ * {@link #getRowsFiltered}.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Pages' worth of child1 tuples kept in the hash table by default */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+    /** Number of partitions the children are split into when they are spilled */
+    public static final int PARTITIONS = 16;
+    /** Number of times a partition is split again before it is joined in chunks */
+    public static final int MAX_DEPTH = 3;
+
     private final JoinPredicate pred;
+    private final int memoryBytes;
     private OpIterator child1, child2;
-    private final TupleDesc comboTD;
+    private TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
-     * on
-     * 
+     * on, and keeps up to {@link #DEFAULT_MEMORY_PAGES} pages' worth of child1
+     * in memory.
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,7 +62,19 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBytes
+     *            the memory budget of the hash table, in bytes of stored
+     *            child1 tuples; the table holds at least one tuple
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryBytes) {
         this.pred = p;
+        this.memoryBytes = memoryBytes;
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
@@ -44,7 +87,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,48 +97,398 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    /**
+     * @return the number of partitions spilled to disk since the join was
+     *         opened or rewound, counting those split again
+     */
+    public int numSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the number of bytes written to disk by spilled partitions,
+     *         of both children, since the join was opened or rewound
+     */
+    public long getBytesSpilled() {
+        return bytesSpilled;
+    }
+
+    /**
+     * @return the number of child2 tuples the scan of child2 dropped since
+     *         the join was opened, because the filter on the keys of child1
+     *         rejected their key
+     */
+    public long getRowsFiltered() {
+        return rowsFiltered + (keyFilter == null ? 0 : keyFilter.getRejected());
+    }
+
+    /** the scan of child2 the key filter is pushed into, or null */
+    private transient SeqScan probeScan;
+    /** the filter on the keys of child1 pushed into probeScan, or null */
+    private transient JoinKeyFilter keyFilter;
+    /** the rows dropped by the key filters of previous builds */
+    private transient long rowsFiltered;
+
+    /**
+     * @return the scan below op and any Filters over it, or null if op is
+     *         not such a scan
+     */
+    private static SeqScan scanOf(OpIterator op) {
+        while (op instanceof Filter) {
+            op = ((Filter) op).getChildren()[0];
+        }
+        return op instanceof SeqScan ? (SeqScan) op : null;
+    }
+
+    /**
+     * Pushes a new filter on the keys of child1 into the scan of child2 in
+     * place of the last one.
+     */
+    private void pushKeyFilter(JoinKeyFilter filter) {
+        if (keyFilter != null) {
+            probeScan.removeKeyFilter(keyFilter);
+            rowsFiltered += keyFilter.getRejected();
+            keyFilter = null;
+        }
+        if (probeScan.addKeyFilter(pred.getField2(), filter)) {
+            keyFilter = filter;
+        }
+    }
+
+    /** the hash table on child1, or the part of it that fits in memory */
+    private transient JoinHashTable table;
+
+    /** A partition of both children, spilled to disk */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int depth;
+
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    /** the number of child1 tuples the hash table holds */
+    private transient int maxTuples;
+    /** true if child1 did not fit in memory */
+    private transient boolean partitioned;
+    /** while child1 and child2 are read, the spilled partitions of each */
+    private transient SpillFile[] buildSpill, probeSpill;
+    /** while child1 and child2 are read, the partition in the hash table, or -1 */
+    private transient int memPartition;
+    private transient int memTuples;
+    /** the spilled partitions left to join */
+    private transient Deque<Partition> pending;
+    /** the partition being joined, or null while child2 is read */
+    private transient Partition current;
+    /** the tuples of the current partition left to load, if it is joined in chunks */
+    private transient DbFileIterator buildIt;
+    /** the probe tuples of the current pass */
+    private transient DbFileIterator probeIt;
+    private transient int spilledPartitions;
+    private transient long bytesSpilled;
+
+    /**
+     * @return the partition of the join key of a tuple, which is field f of
+     *         it, at the given depth of splitting; each depth hashes the key
+     *         differently
+     */
+    static int partition(Tuple t, int f, int depth) {
+        int key = t.isInt(f) ? t.getInt(f) : t.getField(f).hashCode();
+        int h = key * 0x9E3779B9 + depth * 0x85EBCA6B;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+        return Math.floorMod(h, PARTITIONS);
+    }
+
+    /**
+     * Reads child1 into the hash table, partitioning it if it does not fit,
+     * and gets ready to probe with child2.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        table.clear();
+        pending = new ArrayDeque<>();
+        partitioned = false;
+        spilledPartitions = 0;
+        bytesSpilled = 0;
+        JoinKeyFilter filter = probeScan == null ? null : new JoinKeyFilter(maxTuples);
+        int n = 0;
         while (child1.hasNext()) {
             t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (filter != null) {
+                filter.add(t1, pred.getField1());
+            }
+            if (partitioned) {
+                addBuild(t1);
+            } else if (n < maxTuples) {
+                table.add(t1);
+                n++;
+            } else {
+                startPartitioning();
+                addBuild(t1);
+            }
+        }
+        if (filter != null) {
+            pushKeyFilter(filter);
+        }
+        probeIt = new ChildIterator(child2);
+        match = -1;
+    }
+
+    /**
+     * Splits the tuples in the hash table into partitions, keeping the first
+     * in memory, when child1 turns out not to fit.
+     */
+    private void startPartitioning() throws DbException {
+        partitioned = true;
+        buildSpill = new SpillFile[PARTITIONS];
+        probeSpill = new SpillFile[PARTITIONS];
+        memPartition = 0;
+        memTuples = 0;
+        Tuple[] loaded = new Tuple[table.size()];
+        for (int r = 0; r < loaded.length; r++) {
+            loaded[r] = table.row(r);
+        }
+        table.clear();
+        for (Tuple t : loaded) {
+            addBuild(t);
+        }
+    }
+
+    private void addBuild(Tuple t) throws DbException {
+        int part = partition(t, pred.getField1(), 0);
+        if (part == memPartition) {
+            if (memTuples < maxTuples) {
+                table.add(t);
+                memTuples++;
+                return;
+            }
+            // the partition in memory does not fit either: spill it too
+            memPartition = -1;
+            for (int r = 0; r < table.size(); r++) {
+                spill(buildSpill, part, table.row(r), child1.getTupleDesc());
+            }
+            table.clear();
+        }
+        spill(buildSpill, part, t, child1.getTupleDesc());
+    }
+
+    private void spill(SpillFile[] files, int part, Tuple t, TupleDesc td) throws DbException {
+        if (files[part] == null) {
+            files[part] = new SpillFile(td);
+            if (files == buildSpill) {
+                spilledPartitions++;
+            }
+        }
+        bytesSpilled += files[part].add(t);
+    }
+
+    /**
+     * Moves on to the next pass over probe tuples once the current one is
+     * done: the next chunk of the current partition, or the next spilled
+     * partition, splitting those that do not fit in memory.
+     *
+     * @return false if there is nothing left to join
+     */
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        if (!partitioned) {
+            // child1 is all in the hash table, which rewind() reuses
+            return false;
+        }
+        if (buildIt != null && buildIt.hasNext()) {
+            loadChunk();
+            probeIt.rewind();
+            return true;
+        }
+        endPass();
+        while (!pending.isEmpty()) {
+            Partition p = pending.poll();
+            current = p;
+            probeIt = p.probe.iterator();
+            probeIt.open();
+            if (p.build.size() <= maxTuples) {
+                DbFileIterator it = p.build.iterator();
+                it.open();
+                while (it.hasNext()) {
+                    table.add(it.next());
+                }
+                it.close();
+                return true;
+            } else if (p.depth < MAX_DEPTH) {
+                split(p);
+                endPass();
+            } else {
+                buildIt = p.build.iterator();
+                buildIt.open();
+                loadChunk();
                 return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finishes a pass: queues the partitions spilled while child2 was read,
+     * or deletes the partition that has been joined.
+     */
+    private void endPass() {
+        table.clear();
+        if (probeSpill != null) {
+            for (int part = 0; part < PARTITIONS; part++) {
+                if (buildSpill[part] != null && probeSpill[part] != null) {
+                    pending.add(new Partition(buildSpill[part], probeSpill[part], 0));
+                } else if (buildSpill[part] != null) {
+                    buildSpill[part].delete();
+                }
+            }
+            buildSpill = probeSpill = null;
+        }
+        if (current != null) {
+            probeIt.close();
+            if (buildIt != null) {
+                buildIt.close();
+                buildIt = null;
+            }
+            current.delete();
+            current = null;
+        }
+    }
+
+    /** Loads the next memory-sized chunk of the current partition. */
+    private void loadChunk() throws DbException, TransactionAbortedException {
+        table.clear();
+        for (int n = 0; n < maxTuples && buildIt.hasNext(); n++) {
+            table.add(buildIt.next());
+        }
+    }
+
+    /**
+     * Splits a partition that does not fit in memory with the hash of the
+     * next depth, queueing the parts.
+     */
+    private void split(Partition p) throws DbException, TransactionAbortedException {
+        SpillFile[] build = new SpillFile[PARTITIONS];
+        SpillFile[] probe = new SpillFile[PARTITIONS];
+        DbFileIterator it = p.build.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int part = partition(t, pred.getField1(), p.depth + 1);
+            if (build[part] == null) {
+                build[part] = new SpillFile(child1.getTupleDesc());
+                spilledPartitions++;
+            }
+            bytesSpilled += build[part].add(t);
+        }
+        it.close();
+        while (probeIt.hasNext()) {
+            Tuple t = probeIt.next();
+            int part = partition(t, pred.getField2(), p.depth + 1);
+            if (build[part] != null) {
+                if (probe[part] == null) {
+                    probe[part] = new SpillFile(child2.getTupleDesc());
+                }
+                bytesSpilled += probe[part].add(t);
+            }
+        }
+        for (int part = 0; part < PARTITIONS; part++) {
+            if (build[part] != null && probe[part] != null) {
+                // a part that did not shrink holds keys that do not split:
+                // join it in chunks rather than splitting it again
+                int depth = build[part].size() == p.build.size() ? MAX_DEPTH : p.depth + 1;
+                pending.addFirst(new Partition(build[part], probe[part], depth));
+            } else if (build[part] != null) {
+                build[part].delete();
+            }
         }
-        return cnt > 0;
+    }
 
+    /** Deletes every spilled partition. */
+    private void deleteSpills() {
+        if (buildSpill != null) {
+            for (int part = 0; part < PARTITIONS; part++) {
+                if (buildSpill[part] != null) {
+                    buildSpill[part].delete();
+                }
+                if (probeSpill[part] != null) {
+                    probeSpill[part].delete();
+                }
+            }
+            buildSpill = probeSpill = null;
+        }
+        if (current != null) {
+            probeIt.close();
+            if (buildIt != null) {
+                buildIt.close();
+                buildIt = null;
+            }
+            current.delete();
+            current = null;
+        }
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.delete();
+            }
+            pending.clear();
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        maxTuples = Math.max(1, memoryBytes / child1.getTupleDesc().getSize());
+        table = JoinHashTable.create(child1.getTupleDesc(), pred.getField1(),
+                child2.getTupleDesc(), pred.getField2());
+        rowsFiltered = 0;
+        keyFilter = null;
+        probeScan = child1.getTupleDesc().getFieldType(pred.getField1())
+                == child2.getTupleDesc().getFieldType(pred.getField2()) ? scanOf(child2) : null;
+        build();
         super.open();
     }
 
     public void close() {
         super.close();
+        deleteSpills();
+        if (keyFilter != null) {
+            // keyFilter still counts the rows it filtered
+            probeScan.removeKeyFilter(keyFilter);
+        }
+        probeScan = null;
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.match=-1;
+        this.probeIt=null;
+        this.table=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        match = -1;
+        if (!partitioned) {
+            // the hash table still holds all of child1
+            child2.rewind();
+            return;
+        }
+        deleteSpills();
         child1.rewind();
         child2.rewind();
+        build();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /** the next tuple of the table matching t2, or -1 */
+    transient private int match = -1;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -111,52 +504,97 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        t1 = table.row(match);
+        match = table.next(match);
 
         int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
 
         // set fields in combined tuple
         Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+        t.copyFields(t1, 0);
+        t.copyFields(t2, td1n);
         return t;
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (match >= 0) {
+                return processList();
+            }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            // loop around the probe tuples
+            while (probeIt.hasNext()) {
+                t2 = probeIt.next();
+                if (probeSpill != null) {
+                    // child2 is being read: spill the tuples of spilled partitions
+                    int part = partition(t2, pred.getField2(), 0);
+                    if (part != memPartition) {
+                        if (buildSpill[part] != null)
+                            spill(probeSpill, part, t2, child2.getTupleDesc());
+                        continue;
+                    }
+                }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                match = table.find(t2, pred.getField2());
+                if (match < 0)
+                    continue;
 
-            return processList();
+                return processList();
+            }
 
+            // the probe tuples are done: move on to the next pass
+            if (!nextPass()) {
+                return null;
+            }
         }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Operator.fetchNextBatch implementation. Probes the hash table with a
+     * batch of child2 at a time and returns the joined rows of each batch
+     * that has a match as one batch, which may hold more rows than the
+     * probe batch did. A partitioned join is read a tuple at a time.
+     */
+    @Override
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        if (partitioned || match >= 0) {
+            // finish the matches of a tuple returned by next() first
+            return super.fetchNextBatch();
+        }
+        int td1n = child1.getTupleDesc().numFields();
+        TupleBatch probe;
+        while ((probe = child2.nextBatch()) != null) {
+            TupleBatch joined = null;
+            for (int i = 0; i < probe.size(); i++) {
+                int row = probe.row(i);
+                int r = table.find(probe, pred.getField2(), row);
+                if (r < 0)
+                    continue;
+                if (joined == null)
+                    joined = new TupleBatch(comboTD, probe.size());
+                for (; r >= 0; r = table.next(r)) {
+                    Tuple built = table.row(r);
+                    int out = joined.addRow();
+                    for (int j = 0; j < td1n; j++) {
+                        if (joined.isInt(j))
+                            joined.setInt(j, out, built.getInt(j));
+                        else
+                            joined.setField(j, out, built.getField(j));
+                    }
+                    joined.copyRow(probe, row, out, td1n);
+                }
+            }
+            if (joined != null)
+                return joined;
         }
-
         return null;
     }
 
@@ -169,6 +607,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
-    
+
 }
@@ -0,0 +1,132 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * A Misra-Gries summary of a stream of int keys, which finds the keys that
+ * make up a large share of the stream in a fixed number of counters.
+ * <p>
+ * With k counters, every key that occurs more than n / (k + 1) times in a
+ * stream of n keys has a counter, whose count is at most n / (k + 1) below
+ * the true count. Summaries of parts of a stream can be merged into a
+ * summary of the whole with the same guarantee, so parts can be summarized
+ * on different threads.
+ */
+class HeavyHitters {
+
+    private final int[] keys;
+    private final int[] counts;
+    private int size;
+    private long n;
+
+    /**
+     * @param counters the number of keys the summary keeps counts for
+     */
+    HeavyHitters(int counters) {
+        this.keys = new int[counters];
+        this.counts = new int[counters];
+    }
+
+    /**
+     * Adds one occurrence of a key. When all counters are taken by other
+     * keys, every count goes down by one instead, and keys whose count gets
+     * to zero lose their counter.
+     */
+    void add(int key) {
+        n++;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                counts[i]++;
+                return;
+            }
+        }
+        if (size < keys.length) {
+            keys[size] = key;
+            counts[size++] = 1;
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (--counts[i] > 0) {
+                keys[kept] = keys[i];
+                counts[kept++] = counts[i];
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Adds the counts of another summary, with as many counters as this one.
+     * If more keys than counters are left, the count of the first key that
+     * does not fit is taken off every count, and the keys whose count gets
+     * to zero are dropped.
+     */
+    void merge(HeavyHitters other) {
+        n += other.n;
+        int[] allKeys = Arrays.copyOf(keys, size + other.size);
+        int[] allCounts = Arrays.copyOf(counts, size + other.size);
+        int total = size;
+        for (int j = 0; j < other.size; j++) {
+            int i = 0;
+            while (i < size && keys[i] != other.keys[j]) {
+                i++;
+            }
+            if (i < size) {
+                allCounts[i] += other.counts[j];
+            } else {
+                allKeys[total] = other.keys[j];
+                allCounts[total++] = other.counts[j];
+            }
+        }
+        int cut = 0;
+        if (total > keys.length) {
+            int[] sorted = Arrays.copyOf(allCounts, total);
+            Arrays.sort(sorted);
+            cut = sorted[total - keys.length - 1];
+        }
+        size = 0;
+        for (int i = 0; i < total; i++) {
+            if (allCounts[i] > cut) {
+                keys[size] = allKeys[i];
+                counts[size++] = allCounts[i] - cut;
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys added, to this summary or those merged
+     *         into it
+     */
+    long count() {
+        return n;
+    }
+
+    /**
+     * @return the count of a key, at most n / (k + 1) below its true count,
+     *         or 0 if it has no counter
+     */
+    int estimate(int key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return counts[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the keys whose count is at least threshold, sorted
+     */
+    int[] heavy(long threshold) {
+        int[] heavy = new int[size];
+        int m = 0;
+        for (int i = 0; i < size; i++) {
+            if (counts[i] >= threshold) {
+                heavy[m++] = keys[i];
+            }
+        }
+        heavy = Arrays.copyOf(heavy, m);
+        Arrays.sort(heavy);
+        return heavy;
+    }
+}
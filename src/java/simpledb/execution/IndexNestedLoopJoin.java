@@ -0,0 +1,283 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins each outer tuple (of child1) with the inner
+ * tuples that match it, found by looking its join key up in the B+ tree of
+ * the inner table rather than by scanning the inner child.
+ * <p>
+ * The inner child (child2) must be a SeqScan of a BTreeFile keyed on the
+ * join field, possibly below Filters (see {@link #canProbe}). It is never
+ * read: the join probes {@link BTreeFile#indexIterator} with an
+ * {@link IndexPredicate} on the outer key, and applies the predicates of the
+ * Filters to the tuples found. The predicate can be = or a range (<, <=, >,
+ * >=); a probe reads the root-to-leaf path of the tree and the leaves that
+ * hold matches.
+ * <p>
+ * The matches of recent keys are cached, up to a memory budget, so outer
+ * tuples with a repeated key, such as the runs of a sorted outer, probe the
+ * index once.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages' worth of inner tuples cached by default */
+    public static final int DEFAULT_CACHE_PAGES = 16;
+
+    private final JoinPredicate pred;
+    private final int cacheBytes;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+
+    /** the index of the inner table, the transaction to read it in, and the filters on it */
+    private transient BTreeFile file;
+    private transient TransactionId tid;
+    private transient List<Predicate> filters;
+    /** the matches of recent keys, least recently used first */
+    private transient LinkedHashMap<Field, Tuple[]> cache;
+    private transient int cachedTuples, maxCachedTuples;
+    /** the current outer tuple, its matches, and the next one to return */
+    private transient Tuple outer;
+    private transient Tuple[] matches;
+    private transient int pos;
+    private transient int probes, cacheHits;
+
+    /**
+     * Constructor. Caches up to {@link #DEFAULT_CACHE_PAGES} pages' worth of
+     * matches.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The scan of the right(inner) relation, whose index is probed
+     * @throws IllegalArgumentException
+     *             if child2 cannot be probed on the join field, or the
+     *             predicate is not = or a range
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_CACHE_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param cacheBytes
+     *            the memory budget of the cache of matches, in bytes of
+     *            stored inner tuples; 0 disables the cache
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int cacheBytes) {
+        if (innerOp(p.getOperator()) == null) {
+            throw new IllegalArgumentException("index joins need = or a range predicate, not " + p.getOperator());
+        }
+        this.pred = p;
+        this.cacheBytes = cacheBytes;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return true if inner is a scan of all the fields of a BTreeFile keyed
+     *         on the given field, possibly below Filters, so that an
+     *         IndexNestedLoopJoin can probe it on that field
+     */
+    public static boolean canProbe(OpIterator inner, int field) {
+        SeqScan scan = scanOf(inner);
+        if (scan == null) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field
+                && f.getTupleDesc().numFields() == scan.getTupleDesc().numFields();
+    }
+
+    private static SeqScan scanOf(OpIterator op) {
+        while (op instanceof Filter) {
+            op = ((Filter) op).getChildren()[0];
+        }
+        return op instanceof SeqScan ? (SeqScan) op : null;
+    }
+
+    /**
+     * @return the operator that finds the inner keys k2 with k1 op k2 for an
+     *         outer key k1, as in k2 innerOp k1, or null if there is none
+     */
+    private static Predicate.Op innerOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            default:
+                return null;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of index lookups since the join was opened
+     */
+    public int getIndexProbes() {
+        return probes;
+    }
+
+    /**
+     * @return the number of outer tuples whose matches were cached since
+     *         the join was opened
+     */
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        cache = new LinkedHashMap<>(16, 0.75f, true);
+        cachedTuples = 0;
+        maxCachedTuples = cacheBytes / file.getTupleDesc().getSize();
+        probes = cacheHits = 0;
+        matches = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        cache = null;
+        outer = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the cached matches are still those of the inner table
+        child1.rewind();
+        matches = null;
+    }
+
+    /**
+     * @return the inner tuples that match an outer key, from the cache or
+     *         from the index
+     */
+    private Tuple[] probe(Field key) throws DbException, TransactionAbortedException {
+        Tuple[] found = cache.get(key);
+        if (found != null) {
+            cacheHits++;
+            return found;
+        }
+        probes++;
+        List<Tuple> list = new ArrayList<>();
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(innerOp(pred.getOperator()), key));
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (passesFilters(t)) {
+                list.add(t);
+            }
+        }
+        it.close();
+        found = list.toArray(new Tuple[0]);
+        // a key without matches still takes a cache entry, so count it as one tuple
+        if (cost(found) <= maxCachedTuples) {
+            cache.put(key, found);
+            cachedTuples += cost(found);
+            Iterator<Tuple[]> lru = cache.values().iterator();
+            while (cachedTuples > maxCachedTuples) {
+                cachedTuples -= cost(lru.next());
+                lru.remove();
+            }
+        }
+        return found;
+    }
+
+    private static int cost(Tuple[] matches) {
+        return Math.max(1, matches.length);
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (Predicate p : filters) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next match of the current outer tuple, moving on to
+     * the next outer tuple and probing for its matches when they run out.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches == null || pos == matches.length) {
+            if (!child1.hasNext()) {
+                return null;
+            }
+            outer = child1.next();
+            matches = probe(outer.getField(pred.getField1()));
+            pos = 0;
+        }
+        Tuple t = new Tuple(td);
+        t.copyFields(outer, 0);
+        t.copyFields(matches[pos++], outer.getTupleDesc().numFields());
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!canProbe(children[1], pred.getField2())) {
+            throw new IllegalArgumentException("the inner child is not a scan of a B+ tree keyed on the join field");
+        }
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        SeqScan scan = scanOf(child2);
+        this.file = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        this.tid = scan.getTransactionId();
+        this.filters = new ArrayList<>();
+        for (OpIterator op = child2; op instanceof Filter; op = ((Filter) op).getChildren()[0]) {
+            filters.add(((Filter) op).getPredicate());
+        }
+    }
+}
@@ -11,6 +11,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -40,9 +42,27 @@ public class Insert extends Operator {
     TupleDesc tupleDesc;
     boolean isFetched = false;
     int count = 0;
+    boolean bulk;
+
+    /** Number of tuples handed to the buffer pool at once in bulk mode */
+    public static final int BULK_BATCH = 4096;
 
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
+        this(t, child, tableId, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bulk
+     *            if true, tuples are passed to the buffer pool in batches
+     *            (see {@link BufferPool#insertTuples}) so that each page is
+     *            filled in one go and the table grows by whole extents. Meant
+     *            for large inserts such as INSERT ... SELECT.
+     */
+    public Insert(TransactionId t, OpIterator child, int tableId, boolean bulk)
+            throws DbException {
         // some code goes here
 
         // Insert: This operator adds the tuples it reads from its child operator to the tableid specified in its constructor.
@@ -50,6 +70,7 @@ public class Insert extends Operator {
         this.tid = t;
         this.child = child;
         this.tableId = tableId;
+        this.bulk = bulk;
 
 //        These operators return the number of affected tuples.
 //        This is implemented by returning a single tuple
@@ -102,9 +123,13 @@ public class Insert extends Operator {
         if (!isFetched) {
             int count = 0;
             try {
-                while (child.hasNext()) {
-                    Database.getBufferPool().insertTuple(this.tid, tableId, child.next());
-                    count += 1;
+                if (bulk) {
+                    count = insertBatches();
+                } else {
+                    while (child.hasNext()) {
+                        Database.getBufferPool().insertTuple(this.tid, tableId, child.next());
+                        count += 1;
+                    }
                 }
             } catch (DbException | IOException e) {
                 e.printStackTrace();
@@ -118,6 +143,25 @@ public class Insert extends Operator {
         }
     }
 
+    /**
+     * Inserts the child's tuples BULK_BATCH at a time.
+     *
+     * @return the number of inserted tuples
+     */
+    private int insertBatches() throws DbException, IOException, TransactionAbortedException {
+        int count = 0;
+        List<Tuple> batch = new ArrayList<>(BULK_BATCH);
+        while (child.hasNext()) {
+            batch.add(child.next());
+            if (batch.size() == BULK_BATCH || !child.hasNext()) {
+                Database.getBufferPool().insertTuples(this.tid, tableId, batch);
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        return count;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
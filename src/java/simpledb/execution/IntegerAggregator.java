@@ -8,6 +8,7 @@ import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 import simpledb.storage.TupleDesc;
 
@@ -72,9 +73,24 @@ public class IntegerAggregator implements Aggregator {
             groupByField = null;
         }
 
-        // find the updated aggregate value
-        Integer aggregateVal = ((IntField) tup.getField(afield)).getValue();
+        merge(groupByField, tup.getInt(afield));
+    }
+
+    /**
+     * Merges the selected rows of a batch into the aggregate, reading the
+     * aggregate field straight from its int vector.
+     */
+    @Override
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int[] values = batch.intColumn(afield);
+        for (int i = 0; i < batch.size(); i++) {
+            int row = batch.row(i);
+            Field groupByField = gbfield != Aggregator.NO_GROUPING ? batch.getField(gbfield, row) : null;
+            merge(groupByField, values[row]);
+        }
+    }
 
+    private void merge(Field groupByField, int aggregateVal) {
         Integer defaultVal;
         if (this.op == Op.MIN || this.op == Op.MAX) {
             defaultVal = aggregateVal;
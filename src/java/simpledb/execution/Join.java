@@ -16,6 +16,8 @@ public class Join extends Operator {
     private JoinPredicate predicate;
     private OpIterator[] children;
     private Tuple next;
+    /** the merged schema of the children, bound when they are set */
+    private TupleDesc td;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -35,8 +37,7 @@ public class Join extends Operator {
     }
 
     public JoinPredicate getJoinPredicate() {
-        // some code goes here
-        return null;
+        return predicate;
     }
 
     /**
@@ -65,9 +66,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        TupleDesc t1 = children[0].getTupleDesc();
-        TupleDesc t2 = children[1].getTupleDesc();
-        return TupleDesc.merge(t1, t2);
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -117,14 +116,9 @@ public class Join extends Operator {
             while (children[1].hasNext()) {
                 Tuple t2 = children[1].next();
                 if (predicate.filter(t1, t2)) {
-                    Tuple t = new Tuple(getTupleDesc());
-                    int i = 0;
-                    for (; i < t1.getTupleDesc().numFields(); i++) {
-                        t.setField(i, t1.getField(i));
-                    }
-                    for (int j = 0; j < t2.getTupleDesc().numFields(); j++) {
-                        t.setField(i + j, t2.getField(j));
-                    }
+                    Tuple t = new Tuple(td);
+                    t.copyFields(t1, 0);
+                    t.copyFields(t2, t1.getTupleDesc().numFields());
                     return t;
                 }
             }
@@ -144,6 +138,7 @@ public class Join extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.children = children;
+        this.td = TupleDesc.merge(children[0].getTupleDesc(), children[1].getTupleDesc());
     }
 
     private boolean loadNextTuple(OpIterator child)
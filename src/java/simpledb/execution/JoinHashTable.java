@@ -0,0 +1,221 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The hash table of the build side of a {@link HashEquiJoin}, keyed on the
+ * join field of the build tuples.
+ * <p>
+ * Tuples are numbered in the order they are added and kept in an array;
+ * the tuples with the same key are chained through a parallel array of
+ * tuple numbers. {@link #find} returns the last tuple added with a key,
+ * {@link #next} the one added before it with the same key, and -1 ends the
+ * chain, so probing walks arrays instead of a list per key.
+ * <p>
+ * Tables on int fields ({@link #create}) keep their keys in an
+ * open-addressing table of ints, so building and probing them allocates
+ * nothing but larger arrays as they grow. Other tables map Field keys to
+ * chains with a HashMap.
+ */
+abstract class JoinHashTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    protected final int field;
+    private Tuple[] rows = new Tuple[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY];
+    private int size;
+
+    protected JoinHashTable(int field) {
+        this.field = field;
+    }
+
+    /**
+     * @return an empty table for a join of build tuples on buildField with
+     *         probe tuples on probeField: an int table if both fields are
+     *         ints, a Field table otherwise
+     */
+    static JoinHashTable create(TupleDesc build, int buildField, TupleDesc probe, int probeField) {
+        if (build.getFieldType(buildField) == Type.INT_TYPE && probe.getFieldType(probeField) == Type.INT_TYPE) {
+            return new IntTable(buildField);
+        }
+        return new FieldTable(buildField);
+    }
+
+    /**
+     * @return the number of tuples in the table
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the tuple with the given number
+     */
+    Tuple row(int r) {
+        return rows[r];
+    }
+
+    /**
+     * @return the number of the tuple added before tuple r with the same
+     *         key, or -1 if there is none
+     */
+    int next(int r) {
+        return next[r];
+    }
+
+    void add(Tuple t) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        rows[size] = t;
+        next[size] = link(t, size);
+        size++;
+    }
+
+    void clear() {
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        clearKeys();
+    }
+
+    /**
+     * Makes tuple r the last tuple of the key of t.
+     *
+     * @return the tuple that was the last of the key, or -1 if there was none
+     */
+    protected abstract int link(Tuple t, int r);
+
+    protected abstract void clearKeys();
+
+    /**
+     * @return the last tuple whose key equals field probeField of t, or -1
+     */
+    abstract int find(Tuple t, int probeField);
+
+    /**
+     * @return the last tuple whose key equals field probeField of a row of
+     *         a batch, or -1
+     */
+    abstract int find(TupleBatch batch, int probeField, int row);
+
+    /** A table on int keys, probed by linear probing. */
+    static class IntTable extends JoinHashTable {
+        private int[] keys = new int[INITIAL_CAPACITY];
+        /** one more than the last tuple of the key in the same slot, or 0 for an empty slot */
+        private int[] heads = new int[INITIAL_CAPACITY];
+        private int distinct;
+
+        IntTable(int field) {
+            super(field);
+        }
+
+        private int slot(int key) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (keys.length - 1);
+        }
+
+        @Override
+        protected int link(Tuple t, int r) {
+            int key = t.getInt(field);
+            int s = slot(key);
+            while (heads[s] != 0 && keys[s] != key) {
+                s = (s + 1) & (keys.length - 1);
+            }
+            int prev = heads[s] - 1;
+            keys[s] = key;
+            heads[s] = r + 1;
+            if (prev < 0 && ++distinct * 2 > keys.length) {
+                grow();
+            }
+            return prev;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldHeads = heads;
+            keys = new int[oldKeys.length * 2];
+            heads = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldHeads[i] != 0) {
+                    int s = slot(oldKeys[i]);
+                    while (heads[s] != 0) {
+                        s = (s + 1) & (keys.length - 1);
+                    }
+                    keys[s] = oldKeys[i];
+                    heads[s] = oldHeads[i];
+                }
+            }
+        }
+
+        @Override
+        protected void clearKeys() {
+            Arrays.fill(heads, 0);
+            distinct = 0;
+        }
+
+        /**
+         * @return the last tuple with the given key, or -1
+         */
+        int find(int key) {
+            int s = slot(key);
+            while (heads[s] != 0) {
+                if (keys[s] == key) {
+                    return heads[s] - 1;
+                }
+                s = (s + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        @Override
+        int find(Tuple t, int probeField) {
+            return find(t.getInt(probeField));
+        }
+
+        @Override
+        int find(TupleBatch batch, int probeField, int row) {
+            return find(batch.getInt(probeField, row));
+        }
+    }
+
+    /** A table on keys of any type. */
+    static class FieldTable extends JoinHashTable {
+        private final Map<Field, Integer> heads = new HashMap<>();
+
+        FieldTable(int field) {
+            super(field);
+        }
+
+        @Override
+        protected int link(Tuple t, int r) {
+            Integer prev = heads.put(t.getField(field), r);
+            return prev == null ? -1 : prev;
+        }
+
+        @Override
+        protected void clearKeys() {
+            heads.clear();
+        }
+
+        @Override
+        int find(Tuple t, int probeField) {
+            Integer r = heads.get(t.getField(probeField));
+            return r == null ? -1 : r;
+        }
+
+        @Override
+        int find(TupleBatch batch, int probeField, int row) {
+            Integer r = heads.get(batch.getField(probeField, row));
+            return r == null ? -1 : r;
+        }
+    }
+}
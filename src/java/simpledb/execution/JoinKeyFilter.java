@@ -0,0 +1,148 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+/**
+ * A filter on the join keys of the build side of a {@link HashEquiJoin}:
+ * a Bloom filter over the keys and, for int keys, their smallest and largest
+ * value. The join pushes it into the scan of its probe side (see
+ * {@link SeqScan#addKeyFilter}), which drops the tuples whose key cannot be
+ * a build key before it decodes them, and skips the pages whose keys are all
+ * out of range.
+ * <p>
+ * The filter never rejects a key that was added, but may accept one that
+ * was not. Once too many of its bits are set to tell keys apart, which
+ * happens when far more keys are added than it was sized for, only the
+ * range of int keys is checked.
+ */
+public class JoinKeyFilter {
+
+    private static final int BITS_PER_KEY = 8;
+    private static final int HASHES = 3;
+    private static final int MIN_BITS = 1 << 10;
+    private static final int MAX_BITS = 1 << 26;
+
+    private final long[] bits;
+    private final int mask;
+    private int bitsSet;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private long rejected;
+
+    /**
+     * Creates an empty filter, which rejects every key.
+     *
+     * @param expectedKeys the number of keys the filter is sized for
+     */
+    public JoinKeyFilter(int expectedKeys) {
+        long wanted = Math.max(MIN_BITS, Math.min(MAX_BITS, (long) expectedKeys * BITS_PER_KEY));
+        int numBits = Integer.highestOneBit((int) wanted);
+        if (numBits < wanted) {
+            numBits <<= 1;
+        }
+        this.bits = new long[numBits >>> 6];
+        this.mask = numBits - 1;
+    }
+
+    /**
+     * Adds the key of a tuple, which is field f of it.
+     */
+    public void add(Tuple t, int f) {
+        if (t.getTupleDesc().getFieldType(f) == Type.INT_TYPE) {
+            add(t.getInt(f));
+        } else {
+            addHash(t.getField(f).hashCode());
+        }
+    }
+
+    public void add(int key) {
+        min = Math.min(min, key);
+        max = Math.max(max, key);
+        addHash(key);
+    }
+
+    private void addHash(int key) {
+        long h = hash(key);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            long bit = 1L << b;
+            if ((bits[b >>> 6] & bit) == 0) {
+                bits[b >>> 6] |= bit;
+                bitsSet++;
+            }
+        }
+    }
+
+    private boolean mayContainHash(int key) {
+        if (bitsSet * 2L > mask) {
+            // more than half the bits are set: the filter rejects too few keys to be worth checking
+            return true;
+        }
+        long h = hash(key);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            if ((bits[b >>> 6] & (1L << b)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(int key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Returns false if the int key was not added, and true if it may have
+     * been. Rejected keys are counted; see {@link #getRejected}.
+     */
+    public boolean mayContain(int key) {
+        if (key < min || key > max || !mayContainHash(key)) {
+            rejected++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns false if the key was not added, and true if it may have been.
+     * Rejected keys are counted; see {@link #getRejected}.
+     */
+    public boolean mayContain(Field key) {
+        if (key instanceof IntField) {
+            return mayContain(((IntField) key).getValue());
+        }
+        if (!mayContainHash(key.hashCode())) {
+            rejected++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the smallest int key added, or Integer.MAX_VALUE if none was
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest int key added, or Integer.MIN_VALUE if none was
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of keys mayContain has rejected
+     */
+    public long getRejected() {
+        return rejected;
+    }
+}
@@ -45,6 +45,9 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.isInt(field1) && t2.isInt(field2)) {
+            return Predicate.compare(op, Integer.compare(t1.getInt(field1), t2.getInt(field2)));
+        }
         Field f1 = t1.getField(field1);
         Field f2 = t2.getField(field2);
         return f1.compare(op, f2);
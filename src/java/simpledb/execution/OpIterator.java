@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,28 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next rows from the operator as a batch of column vectors;
+   * see {@link TupleBatch}. Operators that can work on whole batches
+   * override this; by default the batch is filled from next(), so every
+   * operator can feed an operator that reads batches. A caller should read
+   * an opened iterator through either this method or next(), not both.
+   *
+   * @return a batch of at least one selected row, or null if there are no
+   *         more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    if (!hasNext()) {
+      return null;
+    }
+    TupleBatch batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+    while (batch.numRows() < TupleBatch.DEFAULT_SIZE && hasNext()) {
+      batch.addTuple(next());
+    }
+    return batch;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.NoSuchElementException;
@@ -38,6 +39,29 @@ public abstract class Operator implements OpIterator {
         return result;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+
+        if (next != null)
+            return OpIterator.super.nextBatch();
+        return fetchNextBatch();
+    }
+
+    /**
+     * Returns the next batch of rows, or null if the iteration is finished.
+     * Operator uses this method to implement <code>nextBatch</code>. The
+     * default fills the batch from <code>fetchNext</code>; operators that
+     * can work on the batches of their children override it.
+     *
+     * @return a batch of at least one selected row, or null if the
+     *         iteration is finished.
+     */
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        return OpIterator.super.nextBatch();
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -2,28 +2,34 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. The tuples
+ * of the child are sorted with an {@link ExternalSort}, which spills sorted
+ * runs to disk when they do not fit in its memory budget.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
     private final boolean asc;
+    private final int memoryBytes;
+    private transient ExternalSort sort;
+    private transient DbFileIterator it;
 
     /**
-     * Creates a new OrderBy node over the tuples from the iterator.
+     * Creates a new OrderBy node over the tuples from the iterator, sorting
+     * up to {@link ExternalSort#DEFAULT_MEMORY_PAGES} pages' worth of tuples
+     * in memory.
      * 
      * @param orderbyField
      *            the field to which the sort is applied.
@@ -33,11 +39,23 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, ExternalSort.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     *
+     * @param memoryBytes
+     *            the memory budget of the sort, in bytes of stored tuples
+     *            (see {@link ExternalSort})
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int memoryBytes) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBytes = memoryBytes;
     }
     
     public boolean isASC()
@@ -59,24 +77,54 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs spilled to disk by the last open
+     */
+    public int numSpilledRuns() {
+        return sort == null ? 0 : sort.numRuns();
+    }
+
+    /**
+     * @return the number of bytes written to disk by the last open
+     */
+    public long getBytesSpilled() {
+        return sort == null ? 0 : sort.getBytesSpilled();
+    }
+
+    /**
+     * @return the most bytes of tuples the last open held in memory at once
+     */
+    public long getPeakMemoryBytes() {
+        return sort == null ? 0 : sort.getPeakMemoryBytes();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        // sort the tuples, spilling runs to disk if they do not fit in memory
+        sort = new ExternalSort(td, new TupleComparator(orderByField, asc), memoryBytes);
+        sort.addAll(child);
+        it = sort.iterator();
+        it.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        // the sort keeps its statistics once its runs are deleted
+        if (sort != null) {
+            sort.close();
+        }
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (it != null) {
+            it.rewind();
+        }
     }
 
     /**
@@ -86,7 +134,8 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -104,25 +153,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,578 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelHashJoin is an equality join that builds and probes hash tables
+ * on several threads of a ForkJoinPool.
+ * <p>
+ * The children are read on the calling thread, a chunk of
+ * {@link #CHUNK_SIZE} tuples at a time, and the chunks are handed to the
+ * workers. Both children are radix partitioned on the top bits of a hash of
+ * the join key: each chunk is scattered into partitions with a histogram
+ * and a prefix sum, and child1 gets one {@link JoinHashTable} per
+ * partition, built in parallel. There are enough partitions that each table
+ * stays small, so a chunk of child2, scattered the same way, probes the
+ * tables one partition at a time with the table in cache. Joined tuples are
+ * handed back in batches through a bounded queue, so the workers run at
+ * most a few chunks ahead of the consumer.
+ * <p>
+ * A key with more child1 tuples than a partition should hold, which would
+ * leave one worker building a table much bigger than the others, is found
+ * with a {@link HeavyHitters} summary of each chunk of child1, merged into
+ * one. The tuples of such a heavy key are dealt round robin to as many
+ * partitions as it has fair shares of child1, starting at its own, so its
+ * list of matches is split among them; a child2 tuple with a heavy key
+ * probes each of them. The probes of a heavy key thus take about one table
+ * lookup per fair share of matches it returns.
+ * <p>
+ * All of child1 is kept in memory: unlike {@link HashEquiJoin}, this join
+ * does not spill. Tuples come out in no particular order.
+ */
+public class ParallelHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of threads the join runs on by default: one per processor */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    /** Number of pages both inputs should add up to for the threads to pay off */
+    public static final int MIN_PARALLEL_PAGES = 64;
+    /** Number of tuples read from a child, or joined tuples handed to the consumer, at once */
+    static final int CHUNK_SIZE = 256;
+    /** Number of partitions per worker, at least, to even out the load */
+    private static final int PARTITIONS_PER_WORKER = 4;
+    /** Number of child1 tuples per partition to aim for, so that a table fits in cache */
+    private static final int PARTITION_TUPLES = 1 << 12;
+    private static final int MAX_RADIX_BITS = 12;
+    /** Number of counters of the summaries that find heavy keys */
+    private static final int SKETCH_COUNTERS = 32;
+
+    private final JoinPredicate pred;
+    private final int parallelism;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    private transient ForkJoinPool pool;
+    /** the number of top bits of the key hash that pick the partition */
+    private transient int bits;
+    /** the codes of the heavy keys (see keyCode), sorted, and the number of partitions each is dealt to */
+    private transient int[] heavyKeys, heavySpread;
+    private transient JoinHashTable[] tables;
+    private transient BlockingQueue<List<Tuple>> batches;
+    /** the number of chunks of child2 handed to workers and not joined yet */
+    private transient AtomicInteger inFlight;
+    private transient boolean probeDone;
+    private transient volatile boolean cancelled;
+    private transient volatile Exception failure;
+    private transient Iterator<Tuple> current;
+
+    /**
+     * Constructor. Runs on {@link #DEFAULT_PARALLELISM} threads.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be =
+     * @param child1
+     *            Iterator for the left(outer) relation to join, which is
+     *            hashed
+     * @param child2
+     *            Iterator for the right(inner) relation to join, which
+     *            probes
+     */
+    public ParallelHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param parallelism
+     *            the number of threads to join with
+     */
+    public ParallelHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int parallelism) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("hash joins need an = predicate, not " + p.getOperator());
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.pred = p;
+        this.parallelism = parallelism;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return the number of threads this join runs on
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the number of partitions child1 was split into when the join
+     *         was opened
+     */
+    public int numPartitions() {
+        return tables == null ? 0 : tables.length;
+    }
+
+    /**
+     * @return the number of keys of child1 found to be heavy when the join
+     *         was opened
+     */
+    public int numHeavyKeys() {
+        return heavyKeys == null ? 0 : heavyKeys.length;
+    }
+
+    /**
+     * @return the number of child1 tuples in the biggest partition
+     */
+    public int maxPartitionTuples() {
+        int max = 0;
+        for (int p = 0; tables != null && p < tables.length; p++) {
+            max = Math.max(max, tables[p].size());
+        }
+        return max;
+    }
+
+    /**
+     * @return the code of the join key of a tuple, which is field f of it:
+     *         the key itself for ints, its hash code otherwise. Keys with
+     *         the same code are partitioned, and found heavy, together.
+     */
+    private static int keyCode(Tuple t, int f) {
+        return t.isInt(f) ? t.getInt(f) : t.getField(f).hashCode();
+    }
+
+    /**
+     * @return the partition of a key code: the top bits of its hash
+     */
+    private int partition(int code) {
+        return bits == 0 ? 0 : (code * 0x9E3779B9) >>> (32 - bits);
+    }
+
+    /**
+     * @return the index of a key code in heavyKeys, or a negative number if
+     *         it is not heavy
+     */
+    private int heavyIndex(int code) {
+        return heavyKeys.length == 0 ? -1 : Arrays.binarySearch(heavyKeys, code);
+    }
+
+    /**
+     * @return the number of radix bits for n child1 tuples: enough
+     *         partitions for every worker and for small tables
+     */
+    private int radixBits(int n) {
+        int bits = 0;
+        while (bits < MAX_RADIX_BITS && ((1 << bits) < parallelism * PARTITIONS_PER_WORKER
+                || ((long) n >> bits) > PARTITION_TUPLES)) {
+            bits++;
+        }
+        return bits;
+    }
+
+    /** A chunk of tuples grouped by partition */
+    private static class Scattered {
+        final Tuple[] tuples;
+        /** the tuples of partition p are tuples[start[p]] to tuples[start[p + 1] - 1] */
+        final int[] start;
+
+        Scattered(Tuple[] tuples, int[] start) {
+            this.tuples = tuples;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Groups a chunk by the partition of field f of its tuples: counts the
+     * tuples of each partition, then places them at the offsets the counts
+     * add up to. Tuples of child1 with a heavy key are dealt among the
+     * partitions of the key by their position in child1; tuples of child2
+     * with a heavy key are placed after the last partition, to probe every
+     * partition of the key.
+     *
+     * @param first the position in child1 of the first tuple of the chunk,
+     *        or -1 for a chunk of child2
+     */
+    private Scattered scatter(Tuple[] chunk, int f, int first) {
+        int[] parts = new int[chunk.length];
+        int[] start = new int[(1 << bits) + 2];
+        for (int i = 0; i < chunk.length; i++) {
+            int code = keyCode(chunk[i], f);
+            int h = heavyIndex(code);
+            if (h < 0) {
+                parts[i] = partition(code);
+            } else if (first < 0) {
+                parts[i] = 1 << bits;
+            } else {
+                parts[i] = (partition(code) + (first + i) % heavySpread[h]) & ((1 << bits) - 1);
+            }
+            start[parts[i] + 1]++;
+        }
+        for (int p = 1; p < start.length; p++) {
+            start[p] += start[p - 1];
+        }
+        int[] next = Arrays.copyOf(start, start.length - 1);
+        Tuple[] tuples = new Tuple[chunk.length];
+        for (int i = 0; i < chunk.length; i++) {
+            tuples[next[parts[i]]++] = chunk[i];
+        }
+        return new Scattered(tuples, start);
+    }
+
+    /**
+     * @return the next chunk of tuples of a child, empty at its end
+     */
+    private static Tuple[] readChunk(OpIterator child) throws DbException, TransactionAbortedException {
+        Tuple[] chunk = new Tuple[CHUNK_SIZE];
+        int n = 0;
+        while (n < CHUNK_SIZE && child.hasNext()) {
+            chunk[n++] = child.next();
+        }
+        return n == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, n);
+    }
+
+    /** Runs tasks on the pool and waits for all of them. */
+    private void runAll(List<RecursiveAction> tasks) {
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Reads child1 and builds the table of each partition: the chunks are
+     * summarized to find heavy keys and scattered in parallel, then the
+     * tables are built in parallel.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        List<Tuple[]> chunks = new ArrayList<>();
+        int n = 0;
+        for (Tuple[] chunk = readChunk(child1); chunk.length > 0; chunk = readChunk(child1)) {
+            chunks.add(chunk);
+            n += chunk.length;
+        }
+        bits = radixBits(n);
+        findHeavyKeys(chunks);
+
+        Scattered[] scattered = new Scattered[chunks.size()];
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int c = 0; c < scattered.length; c++) {
+            final int chunk = c;
+            tasks.add(action(() -> scattered[chunk] = scatter(chunks.get(chunk), pred.getField1(),
+                    chunk * CHUNK_SIZE)));
+        }
+        runAll(tasks);
+        chunks.clear();
+
+        tables = new JoinHashTable[1 << bits];
+        tasks.clear();
+        for (int p = 0; p < tables.length; p++) {
+            final int part = p;
+            tasks.add(action(() -> {
+                JoinHashTable table = JoinHashTable.create(child1.getTupleDesc(), pred.getField1(),
+                        child2.getTupleDesc(), pred.getField2());
+                for (Scattered s : scattered) {
+                    for (int i = s.start[part]; i < s.start[part + 1]; i++) {
+                        table.add(s.tuples[i]);
+                    }
+                }
+                tables[part] = table;
+            }));
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Finds the keys of child1 with more tuples than a partition's fair
+     * share of the tuples of child1, summarizing the chunks in parallel,
+     * and how many partitions each of them is dealt to.
+     */
+    private void findHeavyKeys(List<Tuple[]> chunks) {
+        heavyKeys = heavySpread = new int[0];
+        if (bits == 0) {
+            return;
+        }
+        HeavyHitters[] sketches = new HeavyHitters[chunks.size()];
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int c = 0; c < sketches.length; c++) {
+            final int chunk = c;
+            tasks.add(action(() -> {
+                HeavyHitters sketch = new HeavyHitters(SKETCH_COUNTERS);
+                for (Tuple t : chunks.get(chunk)) {
+                    sketch.add(keyCode(t, pred.getField1()));
+                }
+                sketches[chunk] = sketch;
+            }));
+        }
+        runAll(tasks);
+        HeavyHitters all = new HeavyHitters(SKETCH_COUNTERS);
+        for (HeavyHitters sketch : sketches) {
+            all.merge(sketch);
+        }
+        int fairShare = (int) Math.max(1, all.count() >> bits);
+        heavyKeys = all.heavy(fairShare + 1);
+        heavySpread = new int[heavyKeys.length];
+        for (int h = 0; h < heavyKeys.length; h++) {
+            heavySpread[h] = Math.min(1 << bits, (all.estimate(heavyKeys[h]) + fairShare - 1) / fairShare);
+        }
+    }
+
+    private static RecursiveAction action(Runnable r) {
+        return new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                r.run();
+            }
+        };
+    }
+
+    /**
+     * A task that joins a chunk of child2 with the tables, one partition at
+     * a time, and hands the joined tuples to the consumer.
+     */
+    private class ProbeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Tuple[] chunk;
+
+        ProbeTask(Tuple[] chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                probe();
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void probe() throws InterruptedException {
+            Scattered s = scatter(chunk, pred.getField2(), -1);
+            int td1n = child1.getTupleDesc().numFields();
+            List<Tuple> batch = new ArrayList<>(CHUNK_SIZE);
+            for (int p = 0; p < tables.length && !cancelled; p++) {
+                JoinHashTable table = tables[p];
+                if (table.size() == 0) {
+                    continue;
+                }
+                for (int i = s.start[p]; i < s.start[p + 1]; i++) {
+                    Tuple t2 = s.tuples[i];
+                    for (int r = table.find(t2, pred.getField2()); r >= 0; r = table.next(r)) {
+                        batch = add(batch, table.row(r), t2, td1n);
+                    }
+                }
+            }
+            // the tuples with a heavy key probe every partition of the key
+            int heavy = 1 << bits;
+            for (int i = s.start[heavy]; i < s.start[heavy + 1] && !cancelled; i++) {
+                Tuple t2 = s.tuples[i];
+                int code = keyCode(t2, pred.getField2());
+                int h = heavyIndex(code);
+                for (int k = 0; k < heavySpread[h]; k++) {
+                    JoinHashTable table = tables[(partition(code) + k) & (heavy - 1)];
+                    for (int r = table.find(t2, pred.getField2()); r >= 0; r = table.next(r)) {
+                        batch = add(batch, table.row(r), t2, td1n);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                put(batch);
+            }
+        }
+
+        /**
+         * Adds the join of t1 and t2 to a batch, handing the batch to the
+         * consumer if it is full.
+         *
+         * @return the batch to add the next joined tuple to
+         */
+        private List<Tuple> add(List<Tuple> batch, Tuple t1, Tuple t2, int td1n) throws InterruptedException {
+            Tuple t = new Tuple(comboTD);
+            t.copyFields(t1, 0);
+            t.copyFields(t2, td1n);
+            batch.add(t);
+            if (batch.size() == CHUNK_SIZE) {
+                put(batch);
+                return new ArrayList<>(CHUNK_SIZE);
+            }
+            return batch;
+        }
+
+        private void put(List<Tuple> batch) throws InterruptedException {
+            while (!cancelled && !batches.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                // the consumer is behind; wait for room
+            }
+        }
+    }
+
+    private void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+        }
+        cancelled = true;
+    }
+
+    /**
+     * Hands chunks of child2 to the workers until enough are in flight to
+     * keep every worker busy, or child2 is done.
+     */
+    private void feed() throws DbException, TransactionAbortedException {
+        while (!probeDone && inFlight.get() < parallelism * 2) {
+            Tuple[] chunk = readChunk(child2);
+            if (chunk.length == 0) {
+                probeDone = true;
+                return;
+            }
+            inFlight.incrementAndGet();
+            pool.execute(new ProbeTask(chunk));
+        }
+    }
+
+    /**
+     * Waits for the next batch of joined tuples from the workers, feeding
+     * them child2 meanwhile.
+     *
+     * @return the batch, or null if every tuple of child2 has been joined
+     */
+    private List<Tuple> takeBatch() throws DbException, TransactionAbortedException {
+        try {
+            while (true) {
+                feed();
+                List<Tuple> batch = batches.poll(10, TimeUnit.MILLISECONDS);
+                boolean done = probeDone && inFlight.get() == 0;
+                if (batch == null && done) {
+                    // everything the workers put is visible once they are done
+                    batch = batches.poll();
+                }
+                if (failure != null) {
+                    throw new DbException("parallel hash join failed: " + failure);
+                }
+                if (batch != null || done) {
+                    return batch;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted waiting for join workers");
+        }
+    }
+
+    /** Cancels the probe tasks in flight and waits for them to stop. */
+    private void stopProbe() {
+        cancelled = true;
+        while (inFlight.get() > 0) {
+            batches.clear();
+            Thread.yield();
+        }
+        batches.clear();
+        cancelled = false;
+        probeDone = false;
+        current = null;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        failure = null;
+        cancelled = false;
+        probeDone = false;
+        current = null;
+        inFlight = new AtomicInteger();
+        batches = new ArrayBlockingQueue<>(parallelism * 2);
+        pool = new ForkJoinPool(parallelism);
+        build();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (pool != null) {
+            stopProbe();
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            pool = null;
+        }
+        batches = null;
+        tables = null;
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the tables still hold all of child1
+        stopProbe();
+        child2.rewind();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next tuple of the current batch from the workers, or
+     * of the next one.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (current == null || !current.hasNext()) {
+            List<Tuple> batch = takeBatch();
+            if (batch == null) {
+                return null;
+            }
+            current = batch.iterator();
+        }
+        return current.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,262 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FilePartition;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParallelSeqScan is a sequential scan that reads the pages of a table on
+ * several threads. It splits the table's {@link FilePartition} into ranges
+ * and scans them as tasks of a ForkJoinPool, all under the scan's
+ * transaction, so page locks are taken exactly as a SeqScan would take
+ * them. Tuples are handed to the caller in batches through a bounded queue,
+ * so the workers run at most a few batches ahead of the consumer.
+ * <p>
+ * Tuples come out in no particular order: each range is scanned in order,
+ * but the ranges are interleaved. Files that cannot be split are scanned on
+ * a single worker.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples handed from a worker to the consumer at once */
+    static final int BATCH_SIZE = 256;
+    /** Number of ranges per worker the table is split into, to even out the load */
+    private static final int RANGES_PER_WORKER = 4;
+
+    private final TransactionId tid;
+    private final int parallelism;
+
+    private transient ForkJoinPool pool;
+    private transient BlockingQueue<List<Tuple>> batches;
+    private transient ScanTask root;
+    private transient volatile boolean cancelled;
+    private transient volatile Exception failure;
+    private transient Iterator<Tuple> current;
+
+    /**
+     * Creates a parallel sequential scan over the specified table as a part
+     * of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (see {@link SeqScan#SeqScan}).
+     * @param parallelism
+     *            the number of threads to scan with.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int parallelism) {
+        super(tid, tableid, tableAlias);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.tid = tid;
+        this.parallelism = parallelism;
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableid, int parallelism) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid), parallelism);
+    }
+
+    /**
+     * @return the number of threads this scan reads with
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        FilePartition whole = Database.getCatalog().getDatabaseFile(getTableId()).partition(tid);
+        int pages = whole.estimatePages();
+        int target = pages < 0 ? Integer.MAX_VALUE
+                : Math.max(1, pages / (parallelism * RANGES_PER_WORKER));
+
+        cancelled = false;
+        failure = null;
+        current = null;
+        batches = new ArrayBlockingQueue<>(parallelism * 2);
+        pool = new ForkJoinPool(parallelism);
+        root = new ScanTask(whole, target);
+        pool.execute(root);
+    }
+
+    /**
+     * A task that splits its partition until it is at most target pages,
+     * forking the parts it splits off, and then scans what is left.
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FilePartition partition;
+        private final int target;
+
+        ScanTask(FilePartition partition, int target) {
+            this.partition = partition;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> forked = new ArrayList<>();
+            FilePartition prefix;
+            while (partition.estimatePages() > target && (prefix = partition.trySplit()) != null) {
+                ScanTask task = new ScanTask(prefix, target);
+                task.fork();
+                forked.add(task);
+            }
+            try {
+                scan();
+            } catch (Exception e) {
+                fail(e);
+            }
+            for (ScanTask task : forked) {
+                task.join();
+            }
+        }
+
+        private void scan() throws DbException, TransactionAbortedException, InterruptedException {
+            DbFileIterator it = partition.iterator();
+            it.open();
+            try {
+                List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
+                while (!cancelled && it.hasNext()) {
+                    batch.add(it.next());
+                    if (batch.size() == BATCH_SIZE) {
+                        put(batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    put(batch);
+                }
+            } finally {
+                it.close();
+            }
+        }
+
+        private void put(List<Tuple> batch) throws InterruptedException {
+            while (!cancelled && !batches.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                // the consumer is behind; wait for room
+            }
+        }
+    }
+
+    private void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+        }
+        cancelled = true;
+    }
+
+    /**
+     * Waits for the next batch from the workers.
+     *
+     * @return the batch, or null if every partition has been scanned
+     */
+    private List<Tuple> takeBatch() throws DbException, TransactionAbortedException {
+        try {
+            while (true) {
+                List<Tuple> batch = batches.poll(10, TimeUnit.MILLISECONDS);
+                if (batch == null && root.isDone()) {
+                    // everything the workers put is visible once they are done
+                    batch = batches.poll();
+                }
+                if (failure != null) {
+                    Exception e = failure;
+                    if (e instanceof TransactionAbortedException) {
+                        throw (TransactionAbortedException) e;
+                    }
+                    throw new DbException("parallel scan failed: " + e);
+                }
+                if (batch != null || root.isDone()) {
+                    return batch;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted waiting for scan workers");
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (pool == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        while (current == null || !current.hasNext()) {
+            List<Tuple> batch = takeBatch();
+            if (batch == null) {
+                return false;
+            }
+            current = batch.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Returns the rest of the current batch from the workers, or the next
+     * one, as a TupleBatch.
+     */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            return null;
+        }
+        TupleBatch batch = new TupleBatch(getTupleDesc(), BATCH_SIZE);
+        while (current.hasNext()) {
+            batch.addTuple(current.next());
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        if (pool == null) {
+            return;
+        }
+        cancelled = true;
+        batches.clear();
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        pool = null;
+        batches = null;
+        root = null;
+        current = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -1,7 +1,9 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -103,12 +105,67 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (this.operand instanceof IntField && t.isInt(this.field)) {
+            return compare(this.op, Integer.compare(t.getInt(this.field), ((IntField) this.operand).getValue()));
+        }
         if (t.getField(this.field).compare(this.op, this.operand)) {
             return true;
         }
         return false;
     }
 
+    /**
+     * Narrows the selection of a batch to the rows that satisfy this
+     * predicate, as {@link #filter(Tuple)} would decide for each of them.
+     * Int fields compared to an int operand are compared without creating
+     * Fields.
+     *
+     * @param b
+     *          The batch to filter
+     */
+    public void filter(TupleBatch b) {
+        int[] selected = new int[b.size()];
+        int n = 0;
+        if (b.isInt(this.field) && this.operand instanceof IntField) {
+            int[] values = b.intColumn(this.field);
+            int c = ((IntField) this.operand).getValue();
+            for (int i = 0; i < b.size(); i++) {
+                int row = b.row(i);
+                if (compare(this.op, Integer.compare(values[row], c))) {
+                    selected[n++] = row;
+                }
+            }
+        } else {
+            for (int i = 0; i < b.size(); i++) {
+                int row = b.row(i);
+                if (b.getField(this.field, row).compare(this.op, this.operand)) {
+                    selected[n++] = row;
+                }
+            }
+        }
+        b.select(selected, n);
+    }
+
+    /** @return whether a comparison with the given result satisfies op, as in IntField.compare */
+    static boolean compare(Op op, int cmp) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+        }
+        return false;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
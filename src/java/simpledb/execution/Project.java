@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -76,11 +77,33 @@ public class Project extends Operator {
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            int field = outFieldIds.get(i);
+            if (t.isInt(field)) {
+                newTuple.setInt(i, t.getInt(field));
+            } else {
+                newTuple.setField(i, t.getField(field));
+            }
         }
         return newTuple;
     }
 
+    /**
+     * Operator.fetchNextBatch implementation. Projects the batches of the
+     * child operator without copying their values.
+     *
+     * @see TupleBatch#project
+     */
+    @Override
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = child.nextBatch();
+        if (batch == null) return null;
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = outFieldIds.get(i);
+        }
+        return batch.project(fields, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -4,11 +4,13 @@ import simpledb.optimizer.LogicalPlan;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.DbException;
+import simpledb.common.Debug;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.ToLongFunction;
 
 /**
  * Query is a wrapper class to manage the execution of queries. It takes a query
@@ -120,6 +122,57 @@ public class Query implements Serializable {
             cnt++;
         }
         System.out.println("\n " + cnt + " rows.");
+        Debug.log("%d pages skipped by zone maps.", getPagesSkipped(op));
+        Debug.log("%d rows filtered by join key filters.", getRowsFiltered(op));
+        Debug.log("%d bytes spilled to disk by sorts and joins.", getBytesSpilled(op));
         this.close();
     }
+
+    /**
+     * @return the number of pages the scans in the plan rooted at op skipped
+     *         because of their page filters
+     */
+    public static int getPagesSkipped(OpIterator op) {
+        return (int) sum(op, o -> o instanceof SeqScan ? ((SeqScan) o).getPagesSkipped() : 0);
+    }
+
+    /**
+     * @return the number of rows the hash joins in the plan rooted at op
+     *         dropped from the scans of their probe side with key filters
+     */
+    public static long getRowsFiltered(OpIterator op) {
+        return sum(op, o -> o instanceof HashEquiJoin ? ((HashEquiJoin) o).getRowsFiltered() : 0);
+    }
+
+    /**
+     * @return the number of bytes the sorts and hash joins in the plan rooted
+     *         at op wrote to disk because their input did not fit in memory
+     */
+    public static long getBytesSpilled(OpIterator op) {
+        return sum(op, o -> {
+            if (o instanceof OrderBy) {
+                return ((OrderBy) o).getBytesSpilled();
+            } else if (o instanceof SortMergeJoin) {
+                return ((SortMergeJoin) o).getBytesSpilled();
+            } else if (o instanceof HashEquiJoin) {
+                return ((HashEquiJoin) o).getBytesSpilled();
+            }
+            return 0;
+        });
+    }
+
+    /**
+     * @return the sum of count over the operators of the plan rooted at op
+     */
+    private static long sum(OpIterator op, ToLongFunction<OpIterator> count) {
+        long total = count.applyAsLong(op);
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                if (child != null) {
+                    total += sum(child, count);
+                }
+            }
+        }
+        return total;
+    }
 }
@@ -3,8 +3,12 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -41,6 +45,10 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator tupleIterator;
+    /** the fields the scan returns, or null for all of them */
+    private int[] fields;
+    /** the schema of the returned tuples, bound when the table is set */
+    private TupleDesc td;
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
@@ -48,6 +56,35 @@ public class SeqScan implements OpIterator {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
         this.tupleIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        bindTupleDesc();
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the fields of the
+     * table, in the order given. A ColumnFile reads only those columns (see
+     * {@link ColumnFile#iterator(TransactionId, int[])}) and a HeapFile
+     * decodes only those fields (see {@link HeapFile#iterator(TransactionId, int[])}).
+     *
+     * @param fields
+     *            the fields of the table to return
+     * @throws IllegalArgumentException
+     *             if the table is stored in another kind of file, or a
+     *             field does not exist
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.fields = fields.clone();
+        if (file instanceof ColumnFile) {
+            this.tupleIterator = ((ColumnFile) file).iterator(tid, this.fields);
+        } else if (file instanceof HeapFile) {
+            this.tupleIterator = ((HeapFile) file).iterator(tid, this.fields);
+        } else {
+            throw new IllegalArgumentException("only column and heap files can be scanned by field");
+        }
+        bindTupleDesc();
     }
 
     /**
@@ -60,6 +97,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableid);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -85,12 +136,69 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        bindTupleDesc();
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Lets the scan skip the pages of a heap file on which, according to
+     * the file's zone map, no tuple satisfies p; see
+     * {@link HeapFile.HeapFileIterator#addPageFilter}. The scan still
+     * returns tuples that do not satisfy p, so p must also be applied
+     * above it. Scans of other files ignore page filters.
+     */
+    public void addPageFilter(Predicate p) {
+        if (this.tupleIterator instanceof HeapFile.HeapFileIterator) {
+            if (this.fields != null) {
+                // the zone map is by field of the table
+                p = new Predicate(this.fields[p.getField()], p.getOp(), p.getOperand());
+            }
+            ((HeapFile.HeapFileIterator) this.tupleIterator).addPageFilter(p);
+        }
+    }
+
+    /**
+     * Makes the scan of a heap file drop the tuples whose value of a field
+     * the filter rejects before it decodes them; see
+     * {@link HeapFile.HeapFileIterator#addKeyFilter}. Scans of other files
+     * ignore key filters.
+     *
+     * @param field the field of the tuples the scan returns to test
+     * @return true if the filter was added
+     */
+    public boolean addKeyFilter(int field, JoinKeyFilter filter) {
+        if (this.tupleIterator instanceof HeapFile.HeapFileIterator) {
+            ((HeapFile.HeapFileIterator) this.tupleIterator).addKeyFilter(
+                    this.fields != null ? this.fields[field] : field, filter);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stops applying a filter added with {@link #addKeyFilter}.
+     */
+    public void removeKeyFilter(JoinKeyFilter filter) {
+        if (this.tupleIterator instanceof HeapFile.HeapFileIterator) {
+            ((HeapFile.HeapFileIterator) this.tupleIterator).removeKeyFilter(filter);
+        }
+    }
+
+    /**
+     * @return the number of pages the scan skipped because of page filters
+     *         and the ranges of key filters, since it was last opened or
+     *         rewound
+     */
+    public int getPagesSkipped() {
+        if (this.tupleIterator instanceof HeapFile.HeapFileIterator) {
+            return ((HeapFile.HeapFileIterator) this.tupleIterator).getPagesSkipped();
+        }
+        return 0;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         this.tupleIterator.open();
@@ -108,7 +216,18 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        return this.td;
+    }
+
+    /**
+     * Builds the TupleDesc getTupleDesc returns, once per table and alias
+     * rather than once per call.
+     */
+    private void bindTupleDesc() {
         TupleDesc original = Database.getCatalog().getTupleDesc(this.tableid);
+        if (this.fields != null) {
+            original = original.project(this.fields);
+        }
         Type[] types = new Type[original.numFields()];
         String[] names = new String[original.numFields()];
 
@@ -116,7 +235,7 @@ public class SeqScan implements OpIterator {
             types[i] = original.getFieldType(i);
             names[i] = this.tableAlias + "." + original.getFieldName(i);
         }
-        return new TupleDesc(types, names);
+        this.td = new TupleDesc(types, names);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -132,6 +251,18 @@ public class SeqScan implements OpIterator {
         return nextTuple;
     }
 
+    /**
+     * Returns the tuples of a heap file a page at a time, decoded straight
+     * into column vectors; see {@link HeapFile.HeapFileIterator#nextBatch}.
+     * Scans of other files fill batches from next().
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.tupleIterator instanceof HeapFile.HeapFileIterator) {
+            return ((HeapFile.HeapFileIterator) this.tupleIterator).nextBatch(getTupleDesc());
+        }
+        return OpIterator.super.nextBatch();
+    }
+
     public void close() {
         // some code goes here
         this.tupleIterator.close();
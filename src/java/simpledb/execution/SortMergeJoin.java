@@ -0,0 +1,280 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children by reading both in ascending order of
+ * their join fields. Children that are not already in that order, such as
+ * scans of a BTreeFile on its key, are sorted first with an
+ * {@link ExternalSort}, which spills to disk when they do not fit in memory.
+ * <p>
+ * As the inner child (child2) is read in order, the outer tuples that match
+ * the current inner tuple form a window of the sorted outer child whose ends
+ * only move forward: outer tuples enter the window when they come within
+ * its upper bound and leave it, for good, when they fall below its lower
+ * bound. Only the window is kept in memory. This handles equality joins
+ * with runs of duplicate keys on either side, and band joins on int fields,
+ * which match outer tuples within a fixed distance of the inner key. Range
+ * joins (&lt;, &lt;=, &gt;, &gt;=) are not supported: their windows are
+ * open-ended, and would hold most of the outer child in memory.
+ * <p>
+ * The output tuples are the concatenation of an outer and an inner tuple,
+ * as for Join, in ascending order of the inner join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final int band;
+    private final boolean sorted1, sorted2;
+    private final int sortBytes;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+
+    private transient ExternalSort sort1, sort2;
+    private transient DbFileIterator in1, in2;
+    /** the outer tuples that may match the current and later inner tuples, from windowStart on */
+    private transient List<Tuple> window;
+    private transient int windowStart;
+    /** the next outer tuple, read but not yet in the window */
+    private transient Tuple nextOuter;
+    private transient Tuple inner;
+    private transient int pos;
+
+    /**
+     * Constructor. Sorts both children.
+     *
+     * @param p
+     *            The predicate to use to join the children; an equality
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, 0, false, false,
+                ExternalSort.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param band
+     *            for a join on int fields, the distance within which the
+     *            keys match: an outer key x matches an inner key v if
+     *            v - band &lt;= x &lt;= v + band. Must be 0 for other joins.
+     * @param sorted1
+     *            true if child1 already returns its tuples in ascending
+     *            order of its join field, so it need not be sorted
+     * @param sorted2
+     *            true if child2 already returns its tuples in ascending
+     *            order of its join field
+     * @param sortBytes
+     *            the memory budget of the sort of each child, in bytes of
+     *            stored tuples (see {@link ExternalSort})
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality, or the band is not 0
+     *             for a join on fields other than int fields
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int band,
+                         boolean sorted1, boolean sorted2, int sortBytes) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("sort-merge join cannot evaluate " + p.getOperator());
+        }
+        if (band < 0 || (band > 0 && (child1.getTupleDesc().getFieldType(p.getField1()) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(p.getField2()) != Type.INT_TYPE))) {
+            throw new IllegalArgumentException("band joins are equality joins on int fields");
+        }
+        this.pred = p;
+        this.band = band;
+        this.sorted1 = sorted1;
+        this.sorted2 = sorted2;
+        this.sortBytes = sortBytes;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of bytes the sorts of the children wrote to disk
+     *         in the last open
+     */
+    public long getBytesSpilled() {
+        return (sort1 == null ? 0 : sort1.getBytesSpilled()) + (sort2 == null ? 0 : sort2.getBytesSpilled());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        if (sorted1) {
+            in1 = new ChildIterator(child1);
+        } else {
+            sort1 = sort(child1, pred.getField1());
+            in1 = sort1.iterator();
+        }
+        if (sorted2) {
+            in2 = new ChildIterator(child2);
+        } else {
+            sort2 = sort(child2, pred.getField2());
+            in2 = sort2.iterator();
+        }
+        in1.open();
+        in2.open();
+        window = new ArrayList<>();
+        windowStart = 0;
+        super.open();
+    }
+
+    private ExternalSort sort(OpIterator child, int field) throws DbException, TransactionAbortedException {
+        ExternalSort sort = new ExternalSort(child.getTupleDesc(), new TupleComparator(field, true), sortBytes);
+        sort.addAll(child);
+        return sort;
+    }
+
+    public void close() {
+        super.close();
+        if (in1 != null) {
+            in1.close();
+            in2.close();
+        }
+        if (sort1 != null) {
+            sort1.close();
+        }
+        if (sort2 != null) {
+            sort2.close();
+        }
+        child2.close();
+        child1.close();
+        // the sorts keep their statistics once their runs are deleted
+        in1 = in2 = null;
+        window = null;
+        nextOuter = inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        in1.rewind();
+        in2.rewind();
+        window.clear();
+        windowStart = 0;
+        nextOuter = inner = null;
+    }
+
+    /**
+     * Compares the outer join field of an outer tuple with the inner join
+     * field of an inner tuple, plus delta.
+     *
+     * @return a negative number, zero or a positive number as the outer key
+     *         is less than, equal to or greater than the inner key plus delta
+     */
+    private int compare(Tuple outer, Tuple inner, int delta) {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        if (outer.isInt(f1) && inner.isInt(f2)) {
+            return Long.compare(outer.getInt(f1), (long) inner.getInt(f2) + delta);
+        }
+        if (outer.getField(f1).compare(Predicate.Op.LESS_THAN, inner.getField(f2))) {
+            return -1;
+        }
+        return outer.getField(f1).compare(Predicate.Op.EQUALS, inner.getField(f2)) ? 0 : 1;
+    }
+
+    /**
+     * @return true if an outer tuple is below the window of an inner tuple,
+     *         and so matches no inner tuple from it on
+     */
+    private boolean belowWindow(Tuple outer, Tuple inner) {
+        return compare(outer, inner, -band) < 0;
+    }
+
+    /**
+     * @return true if an outer tuple is not above the window of an inner
+     *         tuple
+     */
+    private boolean withinUpper(Tuple outer, Tuple inner) {
+        return compare(outer, inner, band) <= 0;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the next tuple of the window of the current inner tuple,
+     * moving the window forward for the next inner tuple when it runs out.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null && pos < window.size()) {
+                Tuple outer = window.get(pos++);
+                Tuple t = new Tuple(td);
+                t.copyFields(outer, 0);
+                t.copyFields(inner, outer.getTupleDesc().numFields());
+                return t;
+            }
+            if (windowStart == window.size() && nextOuter == null && !in1.hasNext()) {
+                // no outer tuples are left to match
+                return null;
+            }
+            if (!in2.hasNext()) {
+                return null;
+            }
+            inner = in2.next();
+            while (windowStart < window.size() && belowWindow(window.get(windowStart), inner)) {
+                windowStart++;
+            }
+            while (true) {
+                if (nextOuter == null) {
+                    if (!in1.hasNext()) {
+                        break;
+                    }
+                    nextOuter = in1.next();
+                }
+                if (belowWindow(nextOuter, inner)) {
+                    nextOuter = null;
+                } else if (withinUpper(nextOuter, inner)) {
+                    window.add(nextOuter);
+                    nextOuter = null;
+                } else {
+                    break;
+                }
+            }
+            if (windowStart > 1024 && windowStart > window.size() / 2) {
+                window.subList(0, windowStart).clear();
+                windowStart = 0;
+            }
+            pos = windowStart;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
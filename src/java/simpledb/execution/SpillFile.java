@@ -0,0 +1,267 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A temporary file of tuples of one schema, written once and then read back
+ * any number of times. Operators that do not fit in memory, such as
+ * {@link ExternalSort} and {@link HashEquiJoin}, spill tuples to these.
+ * <p>
+ * Tuples are stored one after the other in a compact row format, not the
+ * fixed-size format of pages: an int field is its four bytes, read and
+ * written without an IntField, and a string field is a two-byte length
+ * followed by its characters, without the padding up to
+ * {@link Type#STRING_LEN}. The RecordId of a tuple, if it has one, is stored
+ * before its fields, as the ints of {@link PageId#serialize()} and the slot,
+ * so that tuples read back can still be deleted or updated.
+ */
+class SpillFile {
+
+    /** Bytes read ahead from the file at a time, by default */
+    static final int DEFAULT_READ_AHEAD = 1 << 13;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+    private long diskBytes;
+    /** the classes of the PageIds of the stored RecordIds, by the index stored with each */
+    private final List<Class<? extends PageId>> pageIdClasses = new ArrayList<>();
+
+    /**
+     * Creates an empty spill file.
+     *
+     * @param td the schema of the tuples it holds
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".tmp");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e);
+        }
+    }
+
+    /**
+     * Appends a tuple. Tuples cannot be added once the file has been read.
+     *
+     * @return the number of bytes written for it
+     */
+    long add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new IllegalStateException("tuples added to a spill file that has been read");
+        }
+        long before = diskBytes;
+        try {
+            writeRecordId(t.getRecordId());
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    out.writeInt(t.getInt(i));
+                    diskBytes += 4;
+                } else {
+                    String v = ((StringField) t.getField(i)).getValue();
+                    int len = Math.min(v.length(), Type.STRING_LEN);
+                    out.writeShort(len);
+                    out.writeBytes(v.substring(0, len));
+                    diskBytes += 2 + len;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e);
+        }
+        size++;
+        return diskBytes - before;
+    }
+
+    private void writeRecordId(RecordId rid) throws IOException {
+        if (rid == null) {
+            out.writeByte(-1);
+            diskBytes++;
+            return;
+        }
+        int c = pageIdClasses.indexOf(rid.getPageId().getClass());
+        if (c < 0) {
+            c = pageIdClasses.size();
+            pageIdClasses.add(rid.getPageId().getClass());
+        }
+        int[] pid = rid.getPageId().serialize();
+        out.writeByte(c);
+        out.writeByte(pid.length);
+        for (int v : pid) {
+            out.writeInt(v);
+        }
+        out.writeInt(rid.getTupleNumber());
+        diskBytes += 2 + 4 * pid.length + 4;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the tuples take in memory when stored in
+     *         pages, for comparing against the memory budget of an operator
+     */
+    long bytes() {
+        return (long) size * td.getSize();
+    }
+
+    /**
+     * @return the number of bytes the tuples take in the file
+     */
+    long diskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file, in the order they
+     * were added, reading {@link #DEFAULT_READ_AHEAD} bytes ahead. No more
+     * tuples can be added afterwards.
+     */
+    DbFileIterator iterator() throws DbException {
+        return iterator(DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file, in the order they
+     * were added. No more tuples can be added afterwards.
+     *
+     * @param readAhead the number of bytes read from the file at a time
+     */
+    DbFileIterator iterator(int readAhead) throws DbException {
+        finish();
+        return new SpillIterator(readAhead);
+    }
+
+    private void finish() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: " + e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Deletes the file.
+     */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class SpillIterator extends AbstractDbFileIterator {
+        private final int readAhead;
+        private DataInputStream in;
+        private int remaining;
+
+        SpillIterator(int readAhead) {
+            this.readAhead = Math.max(1, readAhead);
+        }
+
+        @Override
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), readAhead));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e);
+            }
+            remaining = size;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException {
+            if (in == null || remaining == 0) {
+                return null;
+            }
+            remaining--;
+            try {
+                Tuple t = new Tuple(td);
+                t.setRecordId(readRecordId());
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setInt(i, in.readInt());
+                    } else {
+                        byte[] bs = new byte[in.readUnsignedShort()];
+                        in.readFully(bs);
+                        t.setField(i, new StringField(new String(bs), Type.STRING_LEN, td.getFieldType(i)));
+                    }
+                }
+                return t;
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e);
+            }
+        }
+
+        private RecordId readRecordId() throws IOException, DbException {
+            int c = in.readByte();
+            if (c < 0) {
+                return null;
+            }
+            Object[] args = new Object[in.readUnsignedByte()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readInt();
+            }
+            int tupleNo = in.readInt();
+            // PageIds have a constructor taking the ints they serialize to
+            for (Constructor<?> ct : pageIdClasses.get(c).getConstructors()) {
+                if (ct.getParameterCount() == args.length) {
+                    try {
+                        return new RecordId((PageId) ct.newInstance(args), tupleNo);
+                    } catch (InstantiationException | IllegalAccessException | InvocationTargetException
+                            | IllegalArgumentException e) {
+                        throw new DbException("could not read spill file: " + e);
+                    }
+                }
+            }
+            throw new DbException("could not read spill file: no constructor for " + pageIdClasses.get(c));
+        }
+
+        @Override
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                in = null;
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private MappedFile mappedFile;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -77,6 +78,36 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Switches reads of internal, leaf and header pages between the stream
+	 * path and a memory-mapped path. When enabled, readPage copies those pages
+	 * out of read-only mappings of the file (see {@link MappedFile}); the root
+	 * pointer page is always read from the stream.
+	 *
+	 * @param mapped - true to read pages through memory mappings
+	 */
+	public synchronized void setMemoryMapped(boolean mapped) {
+		this.mappedFile = mapped ? newMappedFile() : null;
+	}
+
+	/**
+	 * Returns true if pages of this file are read through memory mappings
+	 */
+	public synchronized boolean isMemoryMapped() {
+		return mappedFile != null;
+	}
+
+	private MappedFile newMappedFile() {
+		return new MappedFile(f, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+	}
+
+	private synchronized MappedFile getMappedFile() {
+		if (mappedFile != null && mappedFile.getPageSize() != BufferPool.getPageSize()) {
+			mappedFile = newMappedFile();
+		}
+		return mappedFile;
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -87,6 +118,20 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
+		MappedFile mapped = getMappedFile();
+		if (mapped != null && id.pgcateg() != BTreePageId.ROOT_PTR) {
+			try {
+				byte[] pageBuf = new byte[BufferPool.getPageSize()];
+				if (!mapped.readPage(id.getPageNumber() - 1, pageBuf)) {
+					throw new IllegalArgumentException("Read past end of table");
+				}
+				Debug.log(1, "BTreeFile.readPage: read mapped page %d", id.getPageNumber());
+				return newPage(id, pageBuf);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
@@ -116,13 +161,7 @@ public class BTreeFile implements DbFile {
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+                return newPage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -131,6 +170,19 @@ public class BTreeFile implements DbFile {
         // Ignore failures closing the file
     }
 
+	/**
+	 * Construct an internal, leaf or header page of this file from its bytes
+	 */
+	private Page newPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should
 	 * be called from the BufferPool when pages are flushed to disk
@@ -161,6 +213,28 @@ public class BTreeFile implements DbFile {
 		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
+	/**
+	 * Estimates the number of pages a search reads from the root to a leaf,
+	 * from the number of pages of the file and the number of children an
+	 * internal page can hold, without reading any page.
+	 */
+	public int estimateHeight() {
+		int nentrybytes = td.getFieldType(keyField).getLen() + BTreeInternalPage.INDEX_SIZE;
+		// pointerbytes: one extra child pointer, parent pointer, child page category
+		int internalpointerbytes = 2 * BTreeInternalPage.INDEX_SIZE + 1;
+		int fanout = (BufferPool.getPageSize() * 8 - internalpointerbytes * 8 - 1) / (nentrybytes * 8 + 1) + 1;
+		if (numPages() <= 1) {
+			// the root is the only leaf
+			return 1;
+		}
+		// one leaf level below enough internal levels to reach every page
+		int height = 2;
+		for (long reach = fanout; reach < numPages(); reach *= fanout) {
+			height++;
+		}
+		return height;
+	}
+
 	/**
 	 * Returns the index of the field that this B+ tree is keyed on
 	 */
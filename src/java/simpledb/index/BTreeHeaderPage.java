@@ -34,7 +34,7 @@ public class BTreeHeaderPage implements Page {
 	private int prevPage; // previous header page or 0
 
 	byte[] oldData;
-	private final Byte oldDataLock= (byte) 0;
+	private final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeHeaderPage from a set of bytes of data read from disk.
@@ -78,6 +78,7 @@ public class BTreeHeaderPage implements Page {
 	 * Initially mark all slots in the header used.
 	 */
 	public void init() {
+		captureBeforeImage();
         Arrays.fill(header, (byte) 0xFF);
 	}
 
@@ -104,7 +105,7 @@ public class BTreeHeaderPage implements Page {
 			byte[] oldDataRef = null;
 			synchronized(oldDataLock)
 			{
-				oldDataRef = oldData;
+				oldDataRef = oldData != null ? oldData : getPageData();
 			}
 			return new BTreeHeaderPage(pid,oldDataRef);
 		} catch (IOException e) {
@@ -118,7 +119,20 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Saves the current contents of this page as its before image, unless one
+	 * has been saved since the last call to setBeforeImage.
+	 */
+	private void captureBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null) {
+				oldData = getPageData();
+			}
 		}
 	}
 
@@ -220,6 +234,7 @@ public class BTreeHeaderPage implements Page {
 	 * @throws DbException
 	 */
 	public void setPrevPageId(BTreePageId id) throws DbException {
+		captureBeforeImage();
 		if(id == null) {
 			prevPage = 0;
 		}
@@ -240,6 +255,7 @@ public class BTreeHeaderPage implements Page {
 	 * @throws DbException
 	 */
 	public void setNextPageId(BTreePageId id) throws DbException {
+		captureBeforeImage();
 		if(id == null) {
 			nextPage = 0;
 		}
@@ -286,6 +302,7 @@ public class BTreeHeaderPage implements Page {
 	 * Abstraction to mark a page of the BTreeFile used or unused
 	 */
 	public void markSlotUsed(int i, boolean value) {
+		captureBeforeImage();
 		int headerbit = i % 8;
 		int headerbyte = (i - headerbit) / 8;
 
@@ -29,7 +29,7 @@ public abstract class BTreePage implements Page {
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
-	protected final Byte oldDataLock= (byte) 0;
+	protected final Object oldDataLock = new Object();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -92,6 +92,39 @@ public abstract class BTreePage implements Page {
 		return new BTreePageId(pid.getTableId(), parent, BTreePageId.INTERNAL);
 	}
 
+	/**
+	 * Saves the current contents of this page as its before image, unless one
+	 * has been saved since the last call to setBeforeImage. Every method that
+	 * modifies the page calls this first, so that pages which are only read
+	 * never serialize a before image.
+	 */
+	protected void captureBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null) {
+				oldData = getPageData();
+			}
+		}
+	}
+
+	/**
+	 * @return the bytes of the before image of this page; the current contents
+	 * if the page has not been modified since the last call to setBeforeImage
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized(oldDataLock)
+		{
+			return oldData != null ? oldData : getPageData();
+		}
+	}
+
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = null;
+		}
+	}
+
 	/**
 	 * Set the parent id
 	 * @param id - the id of the parent of this page
@@ -107,6 +140,7 @@ public abstract class BTreePage implements Page {
 		if(id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.ROOT_PTR) {
 			throw new DbException("parent must be an internal node or root pointer");
 		}
+		captureBeforeImage();
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			parent = 0;
 		}
@@ -52,7 +52,17 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = null;
+	}
+
+	/**
+	 * Saves the current contents of this page as its before image, unless one
+	 * has been saved since the last call to setBeforeImage.
+	 */
+	private void captureBeforeImage() {
+		if (oldData == null) {
+			oldData = getPageData();
+		}
 	}
 
 	/**
@@ -144,7 +154,7 @@ public class BTreeRootPtrPage implements Page {
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
 		try {
-			return new BTreeRootPtrPage(pid,oldData);
+			return new BTreeRootPtrPage(pid,oldData != null ? oldData : getPageData());
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -170,6 +180,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @throws DbException if the id is invalid
 	 */
 	public void setRootId(BTreePageId id) throws DbException {
+		captureBeforeImage();
 		if(id == null) {
 			root = 0;
 		}
@@ -202,6 +213,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @throws DbException if the id is invalid
 	 */
 	public void setHeaderId(BTreePageId id) throws DbException {
+		captureBeforeImage();
 		if(id == null) {
 			header = 0;
 		}
@@ -1,8 +1,13 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -49,6 +54,27 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, null, null);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, given
+     * estimates of the cost and cardinality of its inputs from
+     * {@link TableStats} (see {@link #estimateJoin}). An IndexNestedLoopJoin
+     * is only picked if both estimates are known and probing the inner once
+     * per estimated outer tuple costs less than hashing, as
+     * {@link #estimateJoinCost} assumes, and a ParallelHashJoin only if the
+     * outer is estimated to fit in memory.
+     *
+     * @param est1
+     *            the estimated cost and cardinality of plan1, or null if
+     *            unknown
+     * @param est2
+     *            the estimated cost and cardinality of plan2, or null if
+     *            unknown
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+                                             CostCard est1, CostCard est2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -72,27 +98,112 @@ public class JoinOptimizer {
         }
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
-
-        if (lj.p == Predicate.Op.EQUALS) {
+        boolean sorted1 = isSortedOn(plan1, t1id);
+        boolean sorted2 = isSortedOn(plan2, t2id);
+
+        if (lj.p == Predicate.Op.EQUALS && sorted1 && sorted2) {
+            // both inputs are in join order already: merging them is
+            // cheaper than hashing (see estimateJoinCost)
+            j = new SortMergeJoin(p, plan1, plan2, 0, true, true, sortBytes());
+        } else if (lj.p == Predicate.Op.EQUALS && !(lj instanceof LogicalSubplanJoinNode)
+                && est1 != null && est2 != null && IndexNestedLoopJoin.canProbe(plan2, t2id)
+                && indexJoinCost(est1.card, est1.cost, est2.cost, (BTreeFile) scannedFile(plan2))
+                        < hashJoinCost(est1.card, est2.card, est1.cost, est2.cost, plan1.getTupleDesc())) {
+            // the outer is small enough that looking its keys up in the
+            // index of the inner beats scanning all of the inner
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS && ParallelHashJoin.DEFAULT_PARALLELISM > 1
+                && est1 != null && (long) est1.card * plan1.getTupleDesc().getSize()
+                        <= (long) HashEquiJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize()
+                && inputPages(plan1) + inputPages(plan2) >= ParallelHashJoin.MIN_PARALLEL_PAGES) {
+            // the outer is estimated to fit in the memory of a HashEquiJoin,
+            // which the parallel join needs as it never spills, and the
+            // inputs are big enough to be worth the threads
+            j = new ParallelHashJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
                 // fall back on regular join
                 Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
+                java.lang.reflect.Constructor<?> ct = c.getConstructor(
+                        JoinPredicate.class, OpIterator.class, OpIterator.class);
                 j = (OpIterator) ct
                         .newInstance(new Object[] { p, plan1, plan2 });
             } catch (Exception e) {
                 j = new Join(p, plan1, plan2);
             }
         } else {
-            j = new Join(p, plan1, plan2);
+            // range joins match most of the other side for every tuple, so
+            // a merge would buffer all of the outer; see SortMergeJoin
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
         }
 
         return j;
 
     }
 
+    /**
+     * @return the file read by the scan under the Filters of plan
+     */
+    private static DbFile scannedFile(OpIterator plan) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        return Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+    }
+
+    /**
+     * @return the number of pages of the tables plan scans, as a measure of
+     *         its size, or Integer.MAX_VALUE if it reads anything else
+     */
+    private static long inputPages(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            int pages = Database.getCatalog().getDatabaseFile(scan.getTableId())
+                    .partition(scan.getTransactionId()).estimatePages();
+            return pages < 0 ? Integer.MAX_VALUE : pages;
+        } else if (plan instanceof Operator) {
+            long pages = 0;
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                pages += inputPages(child);
+            }
+            return pages;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private static int sortBytes() {
+        return ExternalSort.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+    }
+
+    /**
+     * @return true if plan returns its tuples in ascending order of the given
+     *         field: it sorts them on it, or scans a BTreeFile keyed on it
+     */
+    private static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof Filter) {
+            return isSortedOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof BTreeScan) {
+            return isKeyOf(Database.getCatalog().getTableId(((BTreeScan) plan).getTableName()), field);
+        } else if (plan instanceof SeqScan) {
+            return isKeyOf(((SeqScan) plan).getTableId(), field);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the table is a BTreeFile keyed on the given field, so
+     *         that its scans are in order of the field
+     */
+    private static boolean isKeyOf(int tableId, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -121,17 +232,142 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true, true);
+    }
+
+    /**
+     * Estimate the cost of a join, as the cost of the operator
+     * {@link #instantiateJoin} picks for it: a merge if both inputs are in
+     * order of the join field, which a join never is but a scan of a
+     * BTreeFile keyed on the field is, a hash or index join for other
+     * equality joins, and a block nested loop join for the rest.
+     *
+     * @param base1
+     *            true if the left-hand side is a base table, not a join
+     * @param base2
+     *            true if the right-hand side is a base table, not a join
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean base1, boolean base2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        }
+        boolean sorted1 = base1 && isSortedOn(j.t1Alias, j.f1PureName);
+        boolean sorted2 = base2 && isSortedOn(j.t2Alias, j.f2PureName);
+        if (j.p == Predicate.Op.EQUALS && sorted1 && sorted2) {
+            return sortMergeCost(card1, card2, cost1, cost2);
+        } else if (j.p == Predicate.Op.EQUALS) {
+            double hash = hashJoinCost(card1, card2, cost1, cost2, tupleDesc(j.t1Alias));
+            return base2 ? Math.min(hash, indexJoinCost(j, card1, cost1, cost2)) : hash;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // BlockNestedLoopJoin scans the inner once per block of outer
+            // tuples and applies the predicate to every pair
+            double blocks = 1.0 + (double) card1 / BlockNestedLoopJoin.blockTuples(
+                    tupleDesc(j.t1Alias), BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES * BufferPool.getPageSize());
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * @return true if scans of the table with the given alias are in order
+     *         of the given field: it is a BTreeFile keyed on the field
+     */
+    private boolean isSortedOn(String alias, String field) {
+        Integer tableId = p.getTableId(alias);
+        return tableId != null && isKeyOf(tableId, tupleDesc(alias).fieldNameToIndex(field));
+    }
+
+    /**
+     * The cost of a SortMergeJoin of inputs in join order already: a scan of
+     * each side and one pass over both to merge them.
+     */
+    private static double sortMergeCost(int card1, int card2, double cost1, double cost2) {
+        return cost1 + cost2 + card1 + card2;
+    }
+
+    /**
+     * The cost of a HashEquiJoin: it hashes each tuple once; when the outer
+     * does not fit in its memory budget, the share of both sides that is
+     * partitioned to disk is written and read back once.
+     *
+     * @param td1 the schema of the outer tuples
+     */
+    private static double hashJoinCost(int card1, int card2, double cost1, double cost2, TupleDesc td1) {
+        double memoryTuples = (double) HashEquiJoin.DEFAULT_MEMORY_PAGES
+                * BufferPool.getPageSize() / td1.getSize();
+        double spilled = card1 > memoryTuples ? 1.0 - memoryTuples / card1 : 0;
+        return cost1 + cost2 + card1 + card2 + 2 * spilled * (cost1 + cost2);
+    }
+
+    /**
+     * The cost of an IndexNestedLoopJoin into the inner table of a join:
+     * infinite if it is not a BTreeFile keyed on the join field.
+     */
+    private double indexJoinCost(LogicalJoinNode j, int card1, double cost1, double cost2) {
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null || !isKeyOf(tableId, tupleDesc(j.t2Alias).fieldNameToIndex(j.f2PureName))) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return indexJoinCost(card1, cost1, cost2, (BTreeFile) Database.getCatalog().getDatabaseFile(tableId));
+    }
+
+    /**
+     * The cost of an IndexNestedLoopJoin: a scan of the outer and, for each
+     * outer tuple, a search of the B+ tree of the inner from its root to a
+     * leaf, at the cost per page of a scan of the inner.
+     *
+     * @param f the B+ tree of the inner
+     */
+    private static double indexJoinCost(int card1, double cost1, double cost2, BTreeFile f) {
+        double pageCost = cost2 / Math.max(1, f.numPages());
+        return cost1 + card1 * (f.estimateHeight() * pageCost + 1);
+    }
+
+    /**
+     * @return the schema of the table with the given alias, or a single int
+     *         if the table is unknown
+     */
+    private TupleDesc tupleDesc(String alias) {
+        Integer tableId = p.getTableId(alias);
+        return tableId == null ? new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { null })
+                : Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * Estimate a join of two inputs as {@link #computeCostAndCardOfSubplan}
+     * does: an input that joins no tables is a scan of a base table, and has
+     * a primary key if its join field is one; a join has one if any of its
+     * joins is on a primary key.
+     *
+     * @param est1
+     *            the estimated cost, cardinality and joins of the left-hand
+     *            side, or null if unknown
+     * @param est2
+     *            the estimated cost, cardinality and joins of the right-hand
+     *            side, or null if unknown
+     * @param stats
+     *            The table stats, referenced by table names, not alias
+     * @return the estimated cost, cardinality and joins of the join, or null
+     *         if either input is unknown
+     */
+    public CostCard estimateJoin(LogicalJoinNode j, CostCard est1, CostCard est2,
+            Map<String, TableStats> stats) {
+        if (est1 == null || est2 == null) {
+            return null;
         }
+        boolean base1 = est1.plan.isEmpty();
+        boolean base2 = est2.plan.isEmpty();
+        CostCard cc = new CostCard();
+        cc.cost = estimateJoinCost(j, est1.card, est2.card, est1.cost, est2.cost, base1, base2);
+        cc.card = estimateJoinCardinality(j, est1.card, est2.card,
+                base1 ? isPkey(j.t1Alias, j.f1PureName) : hasPkey(est1.plan),
+                base2 ? isPkey(j.t2Alias, j.f2PureName) : hasPkey(est2.plan), stats);
+        cc.plan = new ArrayList<>(est1.plan);
+        cc.plan.addAll(est2.plan);
+        cc.plan.add(j);
+        return cc;
     }
 
     /**
@@ -302,6 +538,7 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        boolean leftBase = true, rightBase = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -337,6 +574,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                leftBase = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -353,6 +591,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                rightBase = false;
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -366,10 +605,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, leftBase, rightBase);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, rightBase, leftBase);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
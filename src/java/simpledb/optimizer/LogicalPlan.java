@@ -261,6 +261,57 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * Returns the fields the plan refers to, as pure field names by table
+     * alias, or null if it selects all fields with *.
+     */
+    private Map<String, Set<String>> getUsedFields() {
+        Map<String, Set<String>> used = new HashMap<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            addUsedField(used, si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            addUsedField(used, lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            addUsedField(used, lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                addUsedField(used, lj.f2QuantifiedName);
+        }
+        if (aggField != null)
+            addUsedField(used, aggField);
+        if (groupByField != null)
+            addUsedField(used, groupByField);
+        if (oByField != null)
+            addUsedField(used, oByField);
+        return used;
+    }
+
+    private static void addUsedField(Map<String, Set<String>> used, String quantifiedName) {
+        String[] parts = quantifiedName.split("[.]");
+        used.computeIfAbsent(parts[0], k -> new HashSet<>()).add(parts[parts.length - 1]);
+    }
+
+    /**
+     * Returns the fields of a table stored in a {@link ColumnFile} or a
+     * {@link PaxHeapFile} that a scan of it has to read, in table order, or
+     * null if the table is stored otherwise or all of its fields are needed.
+     */
+    private static int[] getScanColumns(DbFile file, Set<String> names) {
+        if (!(file instanceof ColumnFile || file instanceof PaxHeapFile) || names == null || names.isEmpty())
+            return null;
+        TupleDesc td = file.getTupleDesc();
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.isEmpty() || columns.size() == td.numFields())
+            return null;
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -293,11 +344,17 @@ public class LogicalPlan {
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
 
+        Map<String, Set<String>> usedFields = getUsedFields();
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 int[] columns = usedFields == null ? null : getScanColumns(file, usedFields.get(table.alias));
+                 if (columns != null)
+                     ss = new SeqScan(t, file.getId(), table.alias, columns);
+                 else
+                     ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -339,7 +396,10 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // table statistics are by field of the table, which a scan of
+            // some of its columns numbers differently
+            TupleDesc baseTd = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            double sel = s.estimateSelectivity(baseTd.fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -349,6 +409,19 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimates of each subplan, for instantiateJoin to weigh its choices
+        Map<String,CostCard> estimates = new HashMap<>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s != null) {
+                CostCard cc = new CostCard();
+                cc.cost = s.estimateScanCost();
+                cc.card = s.estimateTableCardinality(filterSelectivities.get(table.alias));
+                cc.plan = new ArrayList<>();
+                estimates.put(table.alias, cc);
+            }
+        }
+
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -381,8 +454,11 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            CostCard est1 = estimates.get(t1name);
+            CostCard est2 = isSubqueryJoin ? null : estimates.get(t2name);
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, est1, est2);
             subplanMap.put(t1name, j);
+            estimates.put(t1name, jo.estimateJoin(lj, est1, est2, statsMap));
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
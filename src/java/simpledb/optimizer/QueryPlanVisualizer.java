@@ -12,6 +12,9 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String PARALLEL_HASH_JOIN = "⨝(parallel hash)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
@@ -29,7 +32,9 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof BlockNestedLoopJoin || o instanceof SortMergeJoin
+                || o instanceof IndexNestedLoopJoin || o instanceof ParallelHashJoin
+                || o instanceof HashEquiJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -109,18 +114,34 @@ public class QueryPlanVisualizer {
             Operator plan = (Operator) queryPlan;
             OpIterator[] children = plan.getChildren();
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
+            if (plan instanceof Join || plan instanceof BlockNestedLoopJoin
+                    || plan instanceof SortMergeJoin || plan instanceof IndexNestedLoopJoin
+                    || plan instanceof ParallelHashJoin) {
+                TupleDesc td = plan.getTupleDesc();
+                JoinPredicate jp;
+                String join = JOIN;
+                if (plan instanceof Join) {
+                    jp = ((Join) plan).getJoinPredicate();
+                } else if (plan instanceof BlockNestedLoopJoin) {
+                    jp = ((BlockNestedLoopJoin) plan).getJoinPredicate();
+                } else if (plan instanceof SortMergeJoin) {
+                    jp = ((SortMergeJoin) plan).getJoinPredicate();
+                    join = MERGE_JOIN;
+                } else if (plan instanceof IndexNestedLoopJoin) {
+                    jp = ((IndexNestedLoopJoin) plan).getJoinPredicate();
+                    join = INDEX_JOIN;
+                } else {
+                    jp = ((ParallelHashJoin) plan).getJoinPredicate();
+                    join = PARALLEL_HASH_JOIN;
+                }
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", join,
+                        field1 + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (join.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = join.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -130,7 +151,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
+                        - join.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
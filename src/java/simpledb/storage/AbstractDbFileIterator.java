@@ -25,6 +25,11 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         return result;
     }
 
+    /** @return true if hasNext() has read a tuple that next() has not returned yet */
+    protected boolean hasBufferedNext() {
+        return next != null;
+    }
+
     /** If subclasses override this, they should call super.close(). */
     public void close() {
         // Ensures that a future call to next() will fail
@@ -9,6 +9,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -87,52 +88,80 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
+        lockPage(tid, pid, perm);
+
+        Page cached = getCachedPage(pid);
+        if (cached != null) {
+            return cached;
+        }
+
+        // read outside the pool's monitor, so that scans of different pages
+        // (such as the partitions of a parallel scan) read concurrently
+        Page pageToRead;
+        try {
+            DbFile fileToRead = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            pageToRead = fileToRead.readPage(pid);
+        }
+        catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            throw new DbException(e.getMessage());
+        }
+        return cachePage(pid, pageToRead);
+    }
+
+    /**
+     * Acquires the lock getPage would take on the specified page, without
+     * reading the page. Scans that decide from a zone map not to read a
+     * page use this, so that the page cannot change under the transaction
+     * any more than the pages it did read. May block like getPage.
+     *
+     * @param tid  the ID of the transaction requesting the lock
+     * @param pid  the ID of the page to lock
+     * @param perm the permissions the lock is for
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
         if (perm.equals(Permissions.READ_WRITE)) {
             lockManager.getWriteLock(tid, pid);
         } else {
             lockManager.getReadLock(tid, pid);
         }
+    }
 
-        if (pidLRUMap.containsKey(pid)) {
-
-            // increment LRU pin count
-            LRUHelper frame = pidLRUMap.get(pid);
-            if (frame != null) {
-                frame.pinCount += 1;
-                // unpin buffer
-                LRUUnpin(frame.page.getId());
-            }
-
-
-            return pidLRUMap.get(pid).page;
-        } else {
-
-            try{
-                DbFile fileToRead = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                Page pageToRead = (Page) fileToRead.readPage(pid);
-
-                if (pidLRUMap.size() >= numPages) {
-                    evictPage();
-                }
-
-                // keep track of pins
-                if (pidLRUMap.get(pid) == null) {
-                    // pinCount = 1
-                    LRUHelper myLRU = new LRUHelper(pageToRead, 1, LRUHelper.incrementLatestUsedCount());
-                    pidLRUMap.put(pid, myLRU);
-                    LRUUnpin(pageToRead.getId());
-                }
-
-
-                return pageToRead;
-            }
-            catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-                throw new DbException(e.getMessage());
-            }
-
+    /**
+     * Returns the cached copy of pid, counting the access, or null if it is
+     * not in the pool.
+     */
+    private synchronized Page getCachedPage(PageId pid) {
+        LRUHelper frame = pidLRUMap.get(pid);
+        if (frame == null) {
+            return null;
+        }
+        // increment LRU pin count, then unpin the buffer
+        frame.pinCount += 1;
+        LRUUnpin(pid);
+        return frame.page;
+    }
 
+    /**
+     * Adds a page just read from disk to the pool, evicting another page if
+     * the pool is full. If another thread cached the page in the meantime,
+     * its copy is kept and returned instead.
+     */
+    private synchronized Page cachePage(PageId pid, Page pageToRead) throws DbException {
+        Page cached = getCachedPage(pid);
+        if (cached != null) {
+            return cached;
+        }
+        if (pidLRUMap.size() >= numPages) {
+            evictPage();
         }
+
+        // keep track of pins
+        LRUHelper myLRU = new LRUHelper(pageToRead, 1, LRUHelper.incrementLatestUsedCount());
+        pidLRUMap.put(pid, myLRU);
+        LRUUnpin(pid);
+        return pageToRead;
     }
 
     /**
@@ -187,8 +216,17 @@ public class BufferPool {
                 }
             }
         } else {
-            for (PageId pageId : pageIds)
+            for (PageId pageId : pageIds) {
                 this.discardPage(pageId);
+                try {
+                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+                    if (dbFile instanceof HeapFile) {
+                        ((HeapFile) dbFile).pageDiscarded(pageId);
+                    }
+                } catch (NoSuchElementException e) {
+                    // table is gone, nothing to revert
+                }
+            }
         }
         this.lockManager.releaseAllLocks(tid);
     }
@@ -220,6 +258,37 @@ public class BufferPool {
 
         DbFile dbFile =  Database.getCatalog().getDatabaseFile(tableId);
         List<Page> insertedPages = dbFile.insertTuple(tid, t);
+        cacheInsertedPages(tid, insertedPages);
+    }
+
+    /**
+     * Adds a batch of tuples to the specified table on behalf of transaction
+     * tid, as if by calling insertTuple for each of them. Heap files fill
+     * each page with as many of the tuples as fit before moving on to the
+     * next (see {@link HeapFile#insertTuples}); other files insert the tuples
+     * one at a time.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        if (dbFile instanceof HeapFile) {
+            cacheInsertedPages(tid, ((HeapFile) dbFile).insertTuples(tid, tuples));
+        } else {
+            for (Tuple t : tuples) {
+                cacheInsertedPages(tid, dbFile.insertTuple(tid, t));
+            }
+        }
+    }
+
+    /**
+     * Marks pages dirtied by an insert as dirty and makes sure the buffer
+     * pool holds those versions of them.
+     */
+    private synchronized void cacheInsertedPages(TransactionId tid, List<Page> insertedPages) throws DbException {
         for (Page page : insertedPages) {
             page.markDirty(true, tid);
 
@@ -269,6 +338,14 @@ public class BufferPool {
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile dbFile = (DbFile) Database.getCatalog().getDatabaseFile(tableId);
         List<Page> deletedPages = dbFile.deleteTuple(tid, t);
+        cacheDeletedPages(tid, deletedPages);
+    }
+
+    /**
+     * Marks pages dirtied by a delete as dirty and replaces the buffer
+     * pool's versions of them.
+     */
+    private synchronized void cacheDeletedPages(TransactionId tid, List<Page> deletedPages) throws DbException {
         for (Page page : deletedPages) {
             page.markDirty(true, tid);
 
@@ -352,8 +429,9 @@ public class BufferPool {
         // while leaving it in the BufferPool.
 
         try {
-            Page pg = this.pidLRUMap.get(pid).page;
+            // a page the transaction only read may have been evicted already
             if (this.pidLRUMap.containsKey(pid)) {
+                Page pg = this.pidLRUMap.get(pid).page;
                 TransactionId dirty = pg.isDirty();
                 if (dirty != null) {
                     DbFile hpFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
@@ -0,0 +1,329 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ColumnEncoding holds the light-weight encodings a ColumnFile stores its
+ * column pages in. Since every page holds values of a single column, a
+ * simple encoding usually shrinks it a lot:
+ * <ul>
+ * <li>PLAIN: the values one after the other, as in the page data;</li>
+ * <li>RLE: runs of equal values, as (value, run length) pairs, for sorted
+ * or clustered columns;</li>
+ * <li>DICT: the distinct values once, followed by a bit-packed index into
+ * them per value, for columns with few distinct values;</li>
+ * <li>BIT_PACK: INT_TYPE values as bit-packed offsets from the smallest
+ * value on the page, for columns with a narrow range of values.</li>
+ * </ul>
+ * {@link #encode} picks whichever of them is smallest for the page. The
+ * first byte of an encoded page is the id of its encoding. RAW is not an
+ * encoding but marks a page stored as its full page data, as a
+ * {@link PageOffsetMap} with no sidecar describes the pages.
+ *
+ * @see ColumnFile
+ */
+public class ColumnEncoding {
+
+    /** The full page data, as read from a file with no offset map */
+    public static final byte RAW = 0;
+    /** The values one after the other */
+    public static final byte PLAIN = 1;
+    /** Run-length encoding */
+    public static final byte RLE = 2;
+    /** Dictionary encoding with bit-packed indexes */
+    public static final byte DICT = 3;
+    /** Frame of reference encoding with bit-packed offsets */
+    public static final byte BIT_PACK = 4;
+
+    private ColumnEncoding() {
+    }
+
+    /**
+     * @return the name of an encoding id
+     */
+    public static String name(byte encoding) {
+        switch (encoding) {
+        case RAW:
+            return "RAW";
+        case PLAIN:
+            return "PLAIN";
+        case RLE:
+            return "RLE";
+        case DICT:
+            return "DICT";
+        case BIT_PACK:
+            return "BIT_PACK";
+        default:
+            return "UNKNOWN(" + encoding + ")";
+        }
+    }
+
+    /**
+     * Encodes the values of a page in the smallest of the encodings.
+     *
+     * @return the encoded page, whose first byte is the id of its encoding
+     */
+    public static byte[] encode(ColumnPage page) {
+        int n = page.getNumValues();
+        boolean isInt = page.getType() == Type.INT_TYPE;
+        int[] ints = page.ints();
+        String[] strings = page.strings();
+
+        // measure every encoding in a single pass
+        int valueBytes = 0;
+        int runs = 0;
+        int runBytes = 0;
+        Map<Object, Integer> dict = new HashMap<>();
+        int dictBytes = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            int size = isInt ? 4 : 4 + strings[i].length();
+            valueBytes += size;
+            boolean newRun = i == 0 || (isInt ? ints[i] != ints[i - 1] : !strings[i].equals(strings[i - 1]));
+            if (newRun) {
+                runs++;
+                runBytes += size + 4;
+            }
+            if (dict.putIfAbsent(isInt ? (Object) ints[i] : strings[i], dict.size()) == null) {
+                dictBytes += size;
+            }
+            if (isInt) {
+                min = Math.min(min, ints[i]);
+                max = Math.max(max, ints[i]);
+            }
+        }
+        int dictWidth = bitWidth(dict.size() - 1);
+        int rangeWidth = n == 0 ? 0 : bitWidth(max - min);
+
+        byte best = PLAIN;
+        int bestSize = 1 + 4 + valueBytes;
+        int rleSize = 1 + 8 + runBytes;
+        if (rleSize < bestSize) {
+            best = RLE;
+            bestSize = rleSize;
+        }
+        int dictSize = 1 + 8 + dictBytes + 1 + packedSize(n, dictWidth);
+        if (dictSize < bestSize) {
+            best = DICT;
+            bestSize = dictSize;
+        }
+        int packSize = 1 + 8 + 1 + packedSize(n, rangeWidth);
+        if (isInt && packSize < bestSize) {
+            best = BIT_PACK;
+            bestSize = packSize;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(bestSize);
+        buf.put(best).putInt(n);
+        switch (best) {
+        case PLAIN:
+            for (int i = 0; i < n; i++) {
+                putValue(buf, isInt, ints, strings, i);
+            }
+            break;
+        case RLE:
+            buf.putInt(runs);
+            for (int i = 0; i < n; ) {
+                int j = i + 1;
+                while (j < n && (isInt ? ints[j] == ints[i] : strings[j].equals(strings[i]))) {
+                    j++;
+                }
+                putValue(buf, isInt, ints, strings, i);
+                buf.putInt(j - i);
+                i = j;
+            }
+            break;
+        case DICT: {
+            buf.putInt(dict.size());
+            Object[] values = new Object[dict.size()];
+            for (Map.Entry<Object, Integer> e : dict.entrySet()) {
+                values[e.getValue()] = e.getKey();
+            }
+            for (Object v : values) {
+                if (isInt) {
+                    buf.putInt((Integer) v);
+                } else {
+                    putString(buf, (String) v);
+                }
+            }
+            int[] codes = new int[n];
+            for (int i = 0; i < n; i++) {
+                codes[i] = dict.get(isInt ? (Object) ints[i] : strings[i]);
+            }
+            buf.put((byte) dictWidth);
+            pack(buf, codes, n, 0, dictWidth);
+            break;
+        }
+        case BIT_PACK:
+            buf.putInt(min);
+            buf.put((byte) rangeWidth);
+            pack(buf, ints, n, min, rangeWidth);
+            break;
+        default:
+            throw new IllegalStateException();
+        }
+        return buf.array();
+    }
+
+    /**
+     * Decodes an encoded page into the page data of a ColumnPage.
+     *
+     * @param encoding the encoding, which is RAW or the first stored byte
+     * @param stored the stored bytes
+     * @param length the number of stored bytes
+     * @param type the type of the values
+     */
+    public static byte[] decode(byte encoding, byte[] stored, int length, Type type) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        if (encoding == RAW) {
+            System.arraycopy(stored, 0, page, 0, Math.min(length, page.length));
+            return page;
+        }
+        boolean isInt = type == Type.INT_TYPE;
+        ByteBuffer in = ByteBuffer.wrap(stored, 0, length);
+        ByteBuffer out = ByteBuffer.wrap(page);
+        encoding = in.get();
+        int n = in.getInt();
+        out.putInt(n);
+        switch (encoding) {
+        case PLAIN:
+            System.arraycopy(stored, in.position(), page, out.position(), length - in.position());
+            break;
+        case RLE: {
+            int runs = in.getInt();
+            for (int r = 0; r < runs; r++) {
+                if (isInt) {
+                    int v = in.getInt();
+                    for (int k = in.getInt(); k > 0; k--) {
+                        out.putInt(v);
+                    }
+                } else {
+                    String s = getString(in);
+                    for (int k = in.getInt(); k > 0; k--) {
+                        putString(out, s);
+                    }
+                }
+            }
+            break;
+        }
+        case DICT: {
+            int d = in.getInt();
+            int[] ints = isInt ? new int[d] : null;
+            String[] strings = isInt ? null : new String[d];
+            for (int i = 0; i < d; i++) {
+                if (isInt) {
+                    ints[i] = in.getInt();
+                } else {
+                    strings[i] = getString(in);
+                }
+            }
+            int width = in.get();
+            int[] codes = unpack(in, n, 0, width);
+            for (int i = 0; i < n; i++) {
+                if (isInt) {
+                    out.putInt(ints[codes[i]]);
+                } else {
+                    putString(out, strings[codes[i]]);
+                }
+            }
+            break;
+        }
+        case BIT_PACK: {
+            int min = in.getInt();
+            int width = in.get();
+            for (int v : unpack(in, n, min, width)) {
+                out.putInt(v);
+            }
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("unknown column encoding " + encoding);
+        }
+        return page;
+    }
+
+    private static void putValue(ByteBuffer buf, boolean isInt, int[] ints, String[] strings, int i) {
+        if (isInt) {
+            buf.putInt(ints[i]);
+        } else {
+            putString(buf, strings[i]);
+        }
+    }
+
+    /** Writes s as an int length followed by its characters, one byte each */
+    static void putString(ByteBuffer buf, String s) {
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        buf.putInt(len);
+        for (int i = 0; i < len; i++) {
+            buf.put((byte) s.charAt(i));
+        }
+    }
+
+    /** Reads a string written by putString */
+    static String getString(ByteBuffer buf) {
+        int len = buf.getInt();
+        byte[] bs = new byte[len];
+        buf.get(bs);
+        return new String(bs);
+    }
+
+    /** @return the number of bits needed for unsigned values up to v */
+    private static int bitWidth(int v) {
+        return 32 - Integer.numberOfLeadingZeros(v);
+    }
+
+    private static int packedSize(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    /**
+     * Writes values[0..n) minus base, taken as unsigned, width bits each,
+     * most significant bit first.
+     */
+    private static void pack(ByteBuffer buf, int[] values, int n, int base, int width) {
+        if (width == 0) {
+            return;
+        }
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            acc = (acc << width) | ((values[i] - base) & mask);
+            bits += width;
+            while (bits >= 8) {
+                buf.put((byte) (acc >>> (bits - 8)));
+                bits -= 8;
+            }
+        }
+        if (bits > 0) {
+            buf.put((byte) (acc << (8 - bits)));
+        }
+    }
+
+    /** Reads n values written by pack and adds base back */
+    private static int[] unpack(ByteBuffer buf, int n, int base, int width) {
+        int[] values = new int[n];
+        if (width == 0) {
+            Arrays.fill(values, base);
+            return values;
+        }
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < n; i++) {
+            while (bits < width) {
+                acc = (acc << 8) | (buf.get() & 0xFF);
+                bits += 8;
+            }
+            values[i] = (int) ((acc >>> (bits - width)) & mask) + base;
+            bits -= width;
+        }
+        return values;
+    }
+}
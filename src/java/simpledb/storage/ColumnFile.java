@@ -0,0 +1,425 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in its own
+ * sequence of pages, so that a scan of a few columns of a wide table reads
+ * only the pages of those columns. See {@link #iterator(TransactionId, int[])}.
+ * <p>
+ * Rows are numbered in insertion order. Row r of the file is tracked by
+ * slot r % RowPage.getMaxRows() of {@link RowPage} r / RowPage.getMaxRows(),
+ * which records whether it is live, and its value in column c is value
+ * r % n of page r / n of that column, where n is
+ * ColumnPage.getMaxValues of the column type. The RecordId of a tuple names
+ * its row page and slot, like the RecordId of a heap file tuple names its
+ * page and slot. Deleting a row only clears its live bit; its values stay
+ * in the columns.
+ * <p>
+ * The row pages are stored one after the other in the file given to the
+ * constructor. Column c is stored in a file of the same name followed by
+ * ".c" and c, with its pages in the smallest {@link ColumnEncoding} for
+ * their values. Encoded pages vary in size, so like a CompressedHeapFile,
+ * each column file has a {@link PageOffsetMap} recording where its pages
+ * are.
+ * <p>
+ * An insert locks the last row page, which serializes inserts into the
+ * table, and then the page of every column the new row goes on. Pages are
+ * always locked in that order, row page first and then columns in order,
+ * by inserts and scans alike.
+ *
+ * @see ColumnPageId
+ */
+public class ColumnFile implements DbFile {
+
+    /** Suffix of the column files, followed by the column number */
+    public static final String COLUMN_SUFFIX = ".c";
+
+    private final File file;
+    private final TupleDesc td;
+    private final int tableId;
+    private final File[] columnFiles;
+    private final PageOffsetMap[] columnMaps;
+    private final AtomicLong[] pagesRead;
+
+    /**
+     * Constructs a column file backed by the specified file and its column
+     * files.
+     *
+     * @param f
+     *            the file that stores the row pages; the columns are stored
+     *            next to it
+     * @param td
+     *            the schema of the tuples in the file
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.columnFiles = new File[td.numFields()];
+        this.columnMaps = new PageOffsetMap[td.numFields()];
+        this.pagesRead = new AtomicLong[td.numFields()];
+        for (int c = 0; c < td.numFields(); c++) {
+            columnFiles[c] = new File(f.getPath() + COLUMN_SUFFIX + c);
+            columnMaps[c] = new PageOffsetMap(columnFiles[c], BufferPool.getPageSize());
+            pagesRead[c] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Returns the File holding the row pages of this ColumnFile.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the File holding the pages of column c.
+     */
+    public File getColumnFile(int c) {
+        return columnFiles[c];
+    }
+
+    /**
+     * @return the map of where each page of column c is stored
+     */
+    public PageOffsetMap getPageOffsetMap(int c) {
+        return columnMaps[c];
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the schema of the tuples a scan of the given fields returns:
+     * the types and names of those fields of this file, in the order given.
+     *
+     * @throws IllegalArgumentException if a field does not exist
+     */
+    public TupleDesc getTupleDesc(int[] fields) {
+        return getTupleDesc().project(fields);
+    }
+
+    /**
+     * Returns the number of row pages in this ColumnFile.
+     */
+    public int numRowPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages of column c.
+     */
+    public int numPages(int c) {
+        return columnMaps[c].size();
+    }
+
+    /**
+     * @return the number of pages of column c read from disk so far
+     */
+    public long getPagesRead(int c) {
+        return pagesRead[c].get();
+    }
+
+    /** @return the number of values a page of column c holds */
+    private int valuesPerPage(int c) {
+        return ColumnPage.getMaxValues(td.getFieldType(c));
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof ColumnPageId) || pid.getTableId() != getId()) {
+            throw new IllegalArgumentException("ID doesn't match in ColumnFile");
+        }
+        ColumnPageId cpid = (ColumnPageId) pid;
+        int pgNo = cpid.getPageNumber();
+        try {
+            if (cpid.getColumn() == ColumnPageId.ROWS) {
+                if (pgNo < 0 || pgNo >= numRowPages()) {
+                    throw new IllegalArgumentException("row page " + pgNo + " does not exist");
+                }
+                byte[] data = new byte[BufferPool.getPageSize()];
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    raf.seek((long) pgNo * BufferPool.getPageSize());
+                    raf.readFully(data);
+                }
+                return new RowPage(cpid, data);
+            }
+
+            int c = cpid.getColumn();
+            PageOffsetMap map = columnMaps[c];
+            long offset;
+            int length;
+            byte codec;
+            synchronized (map) {
+                if (pgNo < 0 || pgNo >= map.size()) {
+                    throw new IllegalArgumentException("page " + pgNo + " of column " + c + " does not exist");
+                }
+                offset = map.getOffset(pgNo);
+                length = map.getLength(pgNo);
+                codec = map.getCodec(pgNo);
+            }
+            byte[] data;
+            if (length == 0) {
+                data = new byte[BufferPool.getPageSize()];
+            } else {
+                byte[] stored = new byte[length];
+                try (RandomAccessFile raf = new RandomAccessFile(columnFiles[c], "r")) {
+                    raf.seek(offset);
+                    raf.readFully(stored);
+                }
+                data = ColumnEncoding.decode(codec, stored, length, td.getFieldType(c));
+            }
+            pagesRead[c].incrementAndGet();
+            return new ColumnPage(cpid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        if (cpid.getColumn() == ColumnPageId.ROWS) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek((long) cpid.getPageNumber() * BufferPool.getPageSize());
+                raf.write(page.getPageData());
+            }
+            return;
+        }
+
+        ColumnPage cp = (ColumnPage) page;
+        byte[] stored = cp.getNumValues() == 0 ? new byte[0] : ColumnEncoding.encode(cp);
+        byte codec = stored.length == 0 ? ColumnEncoding.RAW : stored[0];
+        PageOffsetMap map = columnMaps[cpid.getColumn()];
+        synchronized (map) {
+            long offset = map.place(cpid.getPageNumber(), stored.length);
+            if (stored.length > 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(columnFiles[cpid.getColumn()], "rw")) {
+                    raf.seek(offset);
+                    raf.write(stored);
+                }
+            }
+            map.set(cpid.getPageNumber(), offset, stored.length, codec);
+        }
+    }
+
+    /**
+     * Adds an empty row page to the end of the file, unless another
+     * transaction has done so since the file had numRowPages pages.
+     */
+    private synchronized void extendRows(int numRowPages) throws IOException {
+        if (numRowPages() == numRowPages) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength((long) (numRowPages + 1) * BufferPool.getPageSize());
+            }
+        }
+    }
+
+    /**
+     * Adds empty pages to the end of column c until it has numPages pages.
+     */
+    private void extendColumn(int c, int numPages) throws IOException {
+        PageOffsetMap map = columnMaps[c];
+        synchronized (map) {
+            if (!columnFiles[c].exists()) {
+                columnFiles[c].createNewFile();
+            }
+            map.extend(numPages);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the schema of the table");
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        RowPage rows;
+        while (true) {
+            int n = numRowPages();
+            if (n == 0) {
+                extendRows(0);
+                continue;
+            }
+            ColumnPageId pid = new ColumnPageId(getId(), ColumnPageId.ROWS, n - 1);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            rows = (RowPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (!rows.isFull()) {
+                break;
+            }
+            if (!held) {
+                bufferPool.unsafeReleasePage(tid, pid);
+            }
+            extendRows(n);
+        }
+
+        int slot = rows.allocate();
+        long row = (long) rows.getId().getPageNumber() * RowPage.getMaxRows() + slot;
+        List<Page> pages = new ArrayList<>();
+        pages.add(rows);
+        for (int c = 0; c < td.numFields(); c++) {
+            int per = valuesPerPage(c);
+            int pgNo = (int) (row / per);
+            if (pgNo >= numPages(c)) {
+                extendColumn(c, pgNo + 1);
+            }
+            ColumnPage page = (ColumnPage) bufferPool.getPage(
+                    tid, new ColumnPageId(getId(), c, pgNo), Permissions.READ_WRITE);
+            page.setField((int) (row % per), t.getField(c));
+            pages.add(page);
+        }
+        t.setRecordId(new RecordId(rows.getId(), slot));
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId) || rid.getPageId().getTableId() != getId()
+                || ((ColumnPageId) rid.getPageId()).getColumn() != ColumnPageId.ROWS) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        RowPage page = (RowPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.delete(rid.getTupleNumber());
+        return Collections.singletonList(page);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, allFields(), 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the live rows of this file that reads only
+     * the given columns. Its tuples have the schema
+     * {@link #getTupleDesc(int[])} of those fields, and the RecordId of
+     * their row, so they can be deleted.
+     *
+     * @param fields the fields to read, in the order the tuples hold them
+     * @throws IllegalArgumentException if a field does not exist
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return iterator(tid, fields, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a partition of the row pages this file has now, which splits
+     * into ranges of row pages.
+     */
+    @Override
+    public FilePartition partition(TransactionId tid) {
+        int[] fields = allFields();
+        return new PageRangePartition(0, numRowPages(),
+                (fromPage, toPage) -> iterator(tid, fields, fromPage, toPage));
+    }
+
+    private int[] allFields() {
+        int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = i;
+        }
+        return fields;
+    }
+
+    /**
+     * Returns an iterator over the given fields of the rows on row pages
+     * [fromPage, toPage), or as many of them as the file has.
+     */
+    private DbFileIterator iterator(TransactionId tid, int[] fields, int fromPage, int toPage) {
+        TupleDesc projected = getTupleDesc(fields);
+        return new AbstractDbFileIterator() {
+            private int pgNo;
+            private RowPage rows;
+            private int slot;
+            /** the page of each field the last row was on */
+            private final ColumnPage[] pages = new ColumnPage[fields.length];
+
+            @Override
+            public void open() {
+                pgNo = fromPage;
+                rows = null;
+                slot = 0;
+                Arrays.fill(pages, null);
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                BufferPool bufferPool = Database.getBufferPool();
+                while (true) {
+                    if (rows == null) {
+                        if (pgNo >= toPage || pgNo >= numRowPages()) {
+                            return null;
+                        }
+                        rows = (RowPage) bufferPool.getPage(
+                                tid, new ColumnPageId(getId(), ColumnPageId.ROWS, pgNo), Permissions.READ_ONLY);
+                        slot = 0;
+                    }
+                    for (int n = rows.getNumRows(); slot < n; slot++) {
+                        if (rows.isLive(slot)) {
+                            return readRow(bufferPool, slot++);
+                        }
+                    }
+                    rows = null;
+                    pgNo++;
+                }
+            }
+
+            private Tuple readRow(BufferPool bufferPool, int slot) throws DbException, TransactionAbortedException {
+                long row = (long) pgNo * RowPage.getMaxRows() + slot;
+                Tuple t = new Tuple(projected);
+                for (int i = 0; i < fields.length; i++) {
+                    int per = valuesPerPage(fields[i]);
+                    int colPgNo = (int) (row / per);
+                    int index = (int) (row % per);
+                    // refetch a page that is not the one the row is on, or
+                    // an old copy of it that misses the rows added since
+                    if (pages[i] == null || pages[i].getId().getPageNumber() != colPgNo
+                            || pages[i].getNumValues() <= index) {
+                        pages[i] = (ColumnPage) bufferPool.getPage(
+                                tid, new ColumnPageId(getId(), fields[i], colPgNo), Permissions.READ_ONLY);
+                    }
+                    t.setField(i, pages[i].getField(index));
+                }
+                t.setRecordId(new RecordId(rows.getId(), slot));
+                return t;
+            }
+
+            @Override
+            public void rewind() {
+                close();
+                open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                rows = null;
+                Arrays.fill(pages, null);
+            }
+        };
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb.storage;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ColumnPage holds the values of one column of a ColumnFile for a run of
+ * consecutive rows: value i of page p of a column is the value of row
+ * p * getMaxValues(type) + i of the file. The values are kept decoded, in
+ * an int array for INT_TYPE columns and a String array otherwise.
+ * <p>
+ * The page data, as seen by the buffer pool and the log, is the plain
+ * encoding of the values: the number of values as an int, followed by the
+ * values, INT_TYPE as 4 bytes and strings as an int length followed by the
+ * characters. An all-zero page is a valid, empty page. The ColumnFile
+ * stores the pages on disk in a more compact {@link ColumnEncoding}.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    /** Bytes in the page header: the number of values */
+    public static final int HEADER_SIZE = 4;
+
+    final ColumnPageId pid;
+    final Type type;
+    private int count;
+    private int[] ints;
+    private String[] strings;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    TransactionId dirtier;
+
+    /**
+     * Create a ColumnPage from the plain encoding of its values.
+     *
+     * @see Catalog#getTupleDesc
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int max = getMaxValues(type);
+        this.count = data.length < HEADER_SIZE ? 0 : buf.getInt();
+        if (type == Type.INT_TYPE) {
+            ints = new int[max];
+            for (int i = 0; i < count; i++) {
+                ints[i] = buf.getInt();
+            }
+        } else {
+            strings = new String[max];
+            for (int i = 0; i < count; i++) {
+                strings[i] = ColumnEncoding.getString(buf);
+            }
+        }
+    }
+
+    /**
+     * @return the number of values of the given type a column page of the
+     *         current page size holds
+     */
+    public static int getMaxValues(Type type) {
+        int width = type == Type.INT_TYPE ? 4 : 4 + Type.STRING_LEN;
+        return (BufferPool.getPageSize() - HEADER_SIZE) / width;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the type of the values on this page
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return new ColumnPage(pid, oldData != null ? oldData : getPageData());
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(count);
+        for (int i = 0; i < count; i++) {
+            if (ints != null) {
+                buf.putInt(ints[i]);
+            } else {
+                ColumnEncoding.putString(buf, strings[i]);
+            }
+        }
+        return data;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return the number of values on this page
+     */
+    public int getNumValues() {
+        return count;
+    }
+
+    /**
+     * @return value i of an INT_TYPE page
+     */
+    public int getInt(int i) {
+        checkIndex(i);
+        return ints[i];
+    }
+
+    /**
+     * @return value i of a string page
+     */
+    public String getString(int i) {
+        checkIndex(i);
+        return strings[i];
+    }
+
+    /**
+     * @return value i as a Field
+     */
+    public Field getField(int i) {
+        checkIndex(i);
+        return ints != null ? new IntField(ints[i]) : new StringField(strings[i], Type.STRING_LEN, type);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("value " + i + " of " + pid + " with " + count + " values");
+        }
+    }
+
+    /**
+     * Sets value i to the value of f. Values past the last one are appended;
+     * any gap before i is filled with zeroes or empty strings.
+     */
+    public void setField(int i, Field f) {
+        if (i < 0 || i >= getMaxValues(type)) {
+            throw new IndexOutOfBoundsException("value " + i + " of " + pid);
+        }
+        captureBeforeImage();
+        if (ints != null) {
+            if (i > count) {
+                Arrays.fill(ints, count, i, 0);
+            }
+            ints[i] = ((IntField) f).getValue();
+        } else {
+            if (i > count) {
+                Arrays.fill(strings, count, i, "");
+            }
+            strings[i] = ((StringField) f).getValue();
+        }
+        count = Math.max(count, i + 1);
+    }
+
+    /**
+     * @return the values of an INT_TYPE page; the array may be longer than
+     *         the number of values and must not be modified
+     */
+    int[] ints() {
+        return ints;
+    }
+
+    /**
+     * @return the values of a string page; the array may be longer than the
+     *         number of values and must not be modified
+     */
+    String[] strings() {
+        return strings;
+    }
+}
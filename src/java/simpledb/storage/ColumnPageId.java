@@ -0,0 +1,75 @@
+package simpledb.storage;
+
+/**
+ * Unique identifier for the pages of a ColumnFile. A ColumnFile keeps one
+ * sequence of pages per column, plus a sequence of row pages, so its page
+ * ids name the column as well as the page number within that column.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPageId implements PageId {
+
+    /** The column number of the row pages of a ColumnFile */
+    public static final int ROWS = -1;
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table, or ROWS for its row pages
+     * @param pgNo The page number in that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column this page belongs to, or ROWS for a row page */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the column getColumn() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o instanceof ColumnPageId) {
+            ColumnPageId other = (ColumnPageId) o;
+            return tableId == other.tableId && column == other.column && pgNo == other.pgNo;
+        }
+        return false;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk: the table, the column and the page
+     *  number, in the order the constructor takes them.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + (column == ROWS ? "rows" : column) + ", " + pgNo + ")";
+    }
+}
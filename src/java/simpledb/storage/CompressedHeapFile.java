@@ -0,0 +1,253 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed on their way
+ * to disk and decompressed on their way back, in readPage and writePage.
+ * The buffer pool, the free space map and the rest of the system only ever
+ * see ordinary HeapPages.
+ * <p>
+ * Tables whose fields are all INT_TYPE use the {@link IntPackPageCodec};
+ * other tables use the general purpose {@link Lz4PageCodec}. A page the
+ * codec cannot shrink is stored raw, and an all-zero page is not stored at
+ * all. Since stored pages vary in size, a {@link PageOffsetMap} records
+ * where each one is, so any page can still be read with a single seek. A
+ * page that is rewritten goes back in place if it still fits, and to the
+ * end of the file otherwise.
+ * <p>
+ * Memory mapping does not apply to compressed files; pages are always read
+ * through a RandomAccessFile.
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Codec id of pages stored uncompressed */
+    public static final byte RAW = 0;
+    /** Codec id of pages compressed with Lz4PageCodec */
+    public static final byte LZ4 = 1;
+    /** Codec id of pages compressed with IntPackPageCodec */
+    public static final byte INT_PACK = 2;
+
+    private final PageOffsetMap pageMap;
+    private final PageCodec lz4;
+    private final PageCodec intPack;
+    private final Stats stats = new Stats();
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the compressed pages
+     * @param td
+     *            the schema of the tuples in the file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.pageMap = new PageOffsetMap(f, BufferPool.getPageSize());
+        this.lz4 = new Lz4PageCodec();
+        this.intPack = allInts(td) ? new IntPackPageCodec(headerSize(td), td.numFields()) : null;
+    }
+
+    private static boolean allInts(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != Type.INT_TYPE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** the size of the slot bitmap of a HeapPage of this schema */
+    private static int headerSize(TupleDesc td) {
+        int numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return (numSlots + 7) / 8;
+    }
+
+    /**
+     * @return the map of where each page is stored
+     */
+    public PageOffsetMap getPageOffsetMap() {
+        return pageMap;
+    }
+
+    /**
+     * @return the compression and decompression statistics of this table
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    @Override
+    public int numPages() {
+        return pageMap.size();
+    }
+
+    private PageCodec codec(byte id) {
+        switch (id) {
+        case LZ4:
+            return lz4;
+        case INT_PACK:
+            return intPack;
+        default:
+            throw new IllegalStateException("unknown page codec " + id);
+        }
+    }
+
+    @Override
+    protected byte[] readPageData(int pgNo) throws IOException {
+        long offset;
+        int length;
+        byte codec;
+        synchronized (pageMap) {
+            offset = pageMap.getOffset(pgNo);
+            length = pageMap.getLength(pgNo);
+            codec = pageMap.getCodec(pgNo);
+        }
+        byte[] page = new byte[BufferPool.getPageSize()];
+        if (length == 0) {
+            return page;
+        }
+
+        byte[] stored = codec == RAW ? page : new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "r")) {
+            raf.seek(offset);
+            raf.readFully(stored, 0, length);
+        }
+        if (codec != RAW) {
+            long start = System.nanoTime();
+            codec(codec).decompress(stored, length, page);
+            stats.decoded(System.nanoTime() - start);
+        }
+        return page;
+    }
+
+    @Override
+    protected void writePageData(int pgNo, byte[] data) throws IOException {
+        long start = System.nanoTime();
+        byte codec = RAW;
+        byte[] stored = data;
+        if (isZero(data)) {
+            stored = new byte[0];
+        } else {
+            byte[] compressed = (intPack != null ? intPack : lz4).compress(data);
+            if (compressed != null) {
+                codec = intPack != null ? INT_PACK : LZ4;
+                stored = compressed;
+            }
+        }
+        stats.encoded(System.nanoTime() - start);
+
+        synchronized (pageMap) {
+            long offset = pageMap.place(pgNo, stored.length);
+            if (stored.length > 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
+                    raf.seek(offset);
+                    raf.write(stored);
+                }
+            }
+            pageMap.set(pgNo, offset, stored.length, codec);
+        }
+    }
+
+    private static boolean isZero(byte[] data) {
+        for (byte b : data) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void extendFile(int numPages) throws IOException {
+        if (!getFile().exists()) {
+            getFile().createNewFile();
+        }
+        pageMap.extend(numPages);
+    }
+
+    @Override
+    protected void truncateFile(int numPages) throws IOException {
+        pageMap.truncate(numPages);
+    }
+
+    /**
+     * Compression statistics of one CompressedHeapFile: the ratio of the
+     * uncompressed to the stored size of its pages, and the number of pages
+     * and time spent compressing and decompressing them since the file was
+     * opened.
+     */
+    public class Stats {
+        private final AtomicLong pagesDecoded = new AtomicLong();
+        private final AtomicLong decodeNanos = new AtomicLong();
+        private final AtomicLong pagesEncoded = new AtomicLong();
+        private final AtomicLong encodeNanos = new AtomicLong();
+
+        void decoded(long nanos) {
+            pagesDecoded.incrementAndGet();
+            decodeNanos.addAndGet(nanos);
+        }
+
+        void encoded(long nanos) {
+            pagesEncoded.incrementAndGet();
+            encodeNanos.addAndGet(nanos);
+        }
+
+        /**
+         * @return the number of bytes the pages of the file would take
+         *         uncompressed divided by the number of bytes they take on
+         *         disk; all-zero pages take none
+         */
+        public double getCompressionRatio() {
+            long stored = pageMap.getStoredBytes();
+            long raw = (long) pageMap.size() * BufferPool.getPageSize();
+            return stored == 0 ? (raw == 0 ? 1.0 : Double.POSITIVE_INFINITY) : (double) raw / stored;
+        }
+
+        /**
+         * @return the number of pages decompressed so far
+         */
+        public long getPagesDecoded() {
+            return pagesDecoded.get();
+        }
+
+        /**
+         * @return the average time to decompress a page, in nanoseconds
+         */
+        public double getAvgDecodeNanos() {
+            long n = pagesDecoded.get();
+            return n == 0 ? 0 : (double) decodeNanos.get() / n;
+        }
+
+        /**
+         * @return the number of pages written so far
+         */
+        public long getPagesEncoded() {
+            return pagesEncoded.get();
+        }
+
+        /**
+         * @return the average time to compress a page, in nanoseconds
+         */
+        public double getAvgEncodeNanos() {
+            long n = pagesEncoded.get();
+            return n == 0 ? 0 : (double) encodeNanos.get() / n;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d pages, ratio %.2f, %d decoded (%.1f us/page), %d encoded (%.1f us/page)",
+                    getFile().getName(), numPages(), getCompressionRatio(),
+                    getPagesDecoded(), getAvgDecodeNanos() / 1000,
+                    getPagesEncoded(), getAvgEncodeNanos() / 1000);
+        }
+    }
+}
@@ -73,6 +73,33 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns a partition covering all the tuples stored in this DbFile,
+     * which a parallel scan can split into disjoint parts and scan on
+     * several threads under the same transaction. Like {@link #iterator},
+     * the partitions read pages through the buffer pool.
+     * <p>
+     * The default implementation returns a partition that cannot be split
+     * and scans the file with {@link #iterator}.
+     *
+     * @see FilePartition
+     */
+    default FilePartition partition(TransactionId tid) {
+        return new FilePartition() {
+            public FilePartition trySplit() {
+                return null;
+            }
+
+            public int estimatePages() {
+                return -1;
+            }
+
+            public DbFileIterator iterator() {
+                return DbFile.this.iterator(tid);
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
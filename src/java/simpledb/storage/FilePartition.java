@@ -0,0 +1,36 @@
+package simpledb.storage;
+
+/**
+ * A FilePartition is a part of a DbFile that can be scanned on its own.
+ * Like a {@link java.util.Spliterator}, a partition can split off a part of
+ * itself with {@link #trySplit}, so that a scan can start with one partition
+ * covering the whole file and keep halving it until there is enough work to
+ * go around the available threads. The partitions of one file are disjoint
+ * and together cover every tuple of the file exactly once.
+ *
+ * @see DbFile#partition
+ */
+public interface FilePartition {
+
+    /**
+     * Splits this partition in two, if it is large enough. The returned
+     * partition covers the first part of this one, and this partition is
+     * left covering the rest.
+     *
+     * @return the split off partition, or null if this partition cannot be
+     *         split
+     */
+    FilePartition trySplit();
+
+    /**
+     * @return the number of pages in this partition, or -1 if it is not known
+     */
+    int estimatePages();
+
+    /**
+     * Returns an iterator over the tuples in this partition. Like
+     * {@link DbFile#iterator}, it reads pages through the buffer pool, under
+     * the transaction the partition was created for.
+     */
+    DbFileIterator iterator();
+}
@@ -0,0 +1,182 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile have at least one empty
+ * slot, so that inserts can go straight to a page with room instead of
+ * walking (and locking) every page of the file.
+ * <p>
+ * Two bitmaps are kept: one describing the pages as the buffer pool sees
+ * them, updated on every insert and delete, and one describing the pages as
+ * they are on disk. The latter is persisted in a sidecar file next to the
+ * heap file (one bit per page) and is updated as pages are written, so the
+ * sidecar always agrees with the data file it sits next to. If the sidecar
+ * is missing, or the heap file was modified after it, the map is rebuilt
+ * by reading the page headers from disk.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** File name suffix of the sidecar file */
+    public static final String SUFFIX = ".fsm";
+
+    private final HeapFile file;
+    private final File sidecar;
+    private BitSet free;
+    private BitSet onDisk;
+
+    /**
+     * Constructor. The map is loaded lazily, on first use.
+     *
+     * @param file the heap file whose pages this map describes
+     */
+    public FreeSpaceMap(HeapFile file) {
+        this.file = file;
+        this.sidecar = new File(file.getFile().getPath() + SUFFIX);
+    }
+
+    /**
+     * @return the sidecar file the on-disk map is persisted in
+     */
+    public File getSidecar() {
+        return sidecar;
+    }
+
+    /**
+     * Returns the first page at or after from, and before numPages, that may
+     * have an empty slot.
+     *
+     * @return the page number, or -1 if no such page is known
+     */
+    public synchronized int nextFreePage(int from, int numPages) {
+        load();
+        int pgNo = free.nextSetBit(from);
+        return pgNo >= 0 && pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Records whether a page, as held in the buffer pool, has an empty slot.
+     */
+    public synchronized void setFree(int pgNo, boolean hasEmptySlots) {
+        load();
+        free.set(pgNo, hasEmptySlots);
+    }
+
+    /**
+     * Forgets buffer pool changes to a page that were thrown away, falling
+     * back to what is known about the page on disk.
+     */
+    public synchronized void revert(int pgNo) {
+        if (free != null) {
+            free.set(pgNo, onDisk.get(pgNo));
+        }
+    }
+
+    /**
+     * Records whether a page, as just written to disk, has an empty slot and
+     * persists that bit in the sidecar. The byte is written even if the bit
+     * did not change, which keeps the sidecar at least as new as the heap
+     * file.
+     */
+    public synchronized void pageWritten(int pgNo, boolean hasEmptySlots) throws IOException {
+        load();
+        free.set(pgNo, hasEmptySlots);
+        onDisk.set(pgNo, hasEmptySlots);
+        writeByte(pgNo / 8);
+    }
+
+    /**
+     * Records that pages from (inclusive) to to (exclusive) were just added to
+     * the end of the heap file as empty pages.
+     */
+    public synchronized void extend(int from, int to) throws IOException {
+        load();
+        free.set(from, to);
+        onDisk.set(from, to);
+        // the heap file has just been modified, so rewrite the whole sidecar
+        // to keep it at least as new as the heap file
+        writeAll(to);
+    }
+
+    /**
+     * Forgets every page at or after numPages, for example after the heap
+     * file has been truncated.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        load();
+        free.clear(numPages, Math.max(numPages, free.length()));
+        onDisk.clear(numPages, Math.max(numPages, onDisk.length()));
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+            raf.setLength((numPages + 7) / 8);
+            if (numPages % 8 != 0) {
+                raf.seek(numPages / 8);
+                raf.write(byteAt(onDisk, numPages / 8));
+            }
+        }
+    }
+
+    /**
+     * Loads the sidecar, rebuilding it from the page headers on disk if it is
+     * missing or older than the heap file.
+     */
+    private void load() {
+        if (free != null) {
+            return;
+        }
+        int numPages = file.numPages();
+        onDisk = new BitSet(numPages);
+        int known = 0;
+        if (sidecar.exists() && sidecar.lastModified() >= file.getFile().lastModified()) {
+            try {
+                byte[] bytes = Files.readAllBytes(sidecar.toPath());
+                onDisk = BitSet.valueOf(bytes);
+                known = Math.min(numPages, bytes.length * 8);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        onDisk.clear(numPages, Math.max(numPages, onDisk.length()));
+        for (int pgNo = known; pgNo < numPages; pgNo++) {
+            HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), pgNo));
+            onDisk.set(pgNo, page == null || page.getNumEmptySlots() > 0);
+        }
+        free = (BitSet) onDisk.clone();
+        if (known < numPages) {
+            try {
+                writeAll(numPages);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void writeByte(int byteNo) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+            raf.seek(byteNo);
+            raf.write(byteAt(onDisk, byteNo));
+        }
+    }
+
+    private void writeAll(int numPages) throws IOException {
+        byte[] bytes = new byte[(numPages + 7) / 8];
+        byte[] bits = onDisk.toByteArray();
+        System.arraycopy(bits, 0, bytes, 0, Math.min(bits.length, bytes.length));
+        Files.write(sidecar.toPath(), bytes);
+    }
+
+    private static int byteAt(BitSet bits, int byteNo) {
+        int b = 0;
+        for (int i = 0; i < 8; i++) {
+            if (bits.get(byteNo * 8 + i)) {
+                b |= 1 << i;
+            }
+        }
+        return b;
+    }
+}
@@ -5,11 +5,15 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.JoinKeyFilter;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.IntPredicate;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -37,11 +41,20 @@ public class HeapFile implements DbFile {
     File sourceFile;
     TupleDesc sourceTupleDesc;
     int heapFileId;
+    private MappedFile mappedFile;
+    private final FreeSpaceMap freeSpaceMap;
+    private final ZoneMap zoneMap;
+
+    /** Maximum number of pages added to the file at once by a bulk insert */
+    public static final int EXTENT_PAGES = 64;
+
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         this.sourceFile = f;
         this.sourceTupleDesc = td;
         this.heapFileId = this.sourceFile.getAbsoluteFile().hashCode();
+        this.freeSpaceMap = new FreeSpaceMap(this);
+        this.zoneMap = new ZoneMap(this);
 
         if (this.heapFileMap == null){
             this.heapFileMap = new HashMap<>();
@@ -91,21 +104,35 @@ public class HeapFile implements DbFile {
         return sourceTupleDesc;
     }
 
+    /**
+     * Switches reads of this file between the RandomAccessFile path and a
+     * memory-mapped path. When enabled, readPage copies pages out of
+     * read-only mappings of the file (see {@link MappedFile}) instead of
+     * opening and reading the file on every call. Writes always go through
+     * writePage; the mappings see them because they share the OS page cache.
+     *
+     * @param mapped true to read pages through memory mappings
+     */
+    public synchronized void setMemoryMapped(boolean mapped) {
+        this.mappedFile = mapped ? new MappedFile(sourceFile, 0, BufferPool.getPageSize()) : null;
+    }
+
+    /**
+     * @return true if pages of this file are read through memory mappings
+     */
+    public synchronized boolean isMemoryMapped() {
+        return mappedFile != null;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         if(pid.getTableId() != getId() || pid == null){
             throw new IllegalArgumentException("ID doesn't match in heapFile");
         }
 
-        byte[] buffer = new byte[BufferPool.getPageSize()];
-        int pageNum = pid.getPageNumber();
-        int offset = pageNum * BufferPool.getPageSize();
-
         HeapPage heapPage = null;
-        try(RandomAccessFile file = new RandomAccessFile(sourceFile, "r");){
-            file.seek(offset);
-            file.read(buffer, 0, buffer.length);
-            heapPage = new HeapPage((HeapPageId) pid, buffer);
+        try {
+            heapPage = createPage((HeapPageId) pid, readPageData(pid.getPageNumber()));
         }
         catch (Exception e){
             e.printStackTrace();
@@ -114,18 +141,91 @@ public class HeapFile implements DbFile {
         return heapPage;
     }
 
+    /**
+     * Creates the page object for the given bytes of page pid. Subclasses
+     * that lay pages out differently override this.
+     */
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Reads the bytes of page pgNo from the backing file, through the memory
+     * mapping if there is one. Subclasses that store pages differently
+     * override this together with writePageData, numPages and extendFile.
+     */
+    protected byte[] readPageData(int pgNo) throws IOException {
+        byte[] buffer = new byte[BufferPool.getPageSize()];
+        MappedFile mapped = getMappedFile();
+        if (mapped != null && mapped.readPage(pgNo, buffer)) {
+            return buffer;
+        }
+
+        // pages the mapping does not cover, such as those past the end of the
+        // file, read the same as without a mapping
+        try(RandomAccessFile file = new RandomAccessFile(sourceFile, "r");){
+            file.seek((long) pgNo * BufferPool.getPageSize());
+            file.read(buffer, 0, buffer.length);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the mapping used by readPage, or null if this file is not
+     * memory mapped. The mapping is rebuilt if the page size has changed
+     * since it was taken.
+     */
+    private synchronized MappedFile getMappedFile() {
+        if (mappedFile != null && mappedFile.getPageSize() != BufferPool.getPageSize()) {
+            mappedFile = new MappedFile(sourceFile, 0, BufferPool.getPageSize());
+        }
+        return mappedFile;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
 
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+        freeSpaceMap.pageWritten(page.getId().getPageNumber(),
+                ((HeapPage) page).getNumEmptySlots() > 0);
+        zoneMap.pageWritten((HeapPage) page);
+    }
+
+    /**
+     * Writes the bytes of page pgNo to the backing file.
+     */
+    protected void writePageData(int pgNo, byte[] data) throws IOException {
         try(RandomAccessFile file = new RandomAccessFile(sourceFile, "rw");){
-            file.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
-            byte[] data = page.getPageData();
+            file.seek((long) pgNo * BufferPool.getPageSize());
             file.write(data);
         }
     }
 
+    /**
+     * Returns the map of pages of this file that have empty slots.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpaceMap;
+    }
+
+    /**
+     * Returns the per-page value ranges of the INT_TYPE columns of this file.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Called when the buffer pool throws away a modified copy of one of this
+     * file's pages (on abort), so the free space map falls back to what is
+     * on disk for that page.
+     */
+    public void pageDiscarded(PageId pid) {
+        freeSpaceMap.revert(pid.getPageNumber());
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -146,34 +246,183 @@ public class HeapFile implements DbFile {
         //  using the BufferPool.getPage() method; otherwise,
         //  your implementation of transactions in the next lab will not work properly.
 
+        // The free space map points straight at pages with empty slots, so
+        // full pages are neither read nor locked. A page the map wrongly
+        // believes has room is dropped from the map, and its lock released
+        // unless this transaction held it already.
         List<Page> pagesToInsert = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
+        BufferPool bufferPool = Database.getBufferPool();
+        int numPages = numPages();
+        for (int i = freeSpaceMap.nextFreePage(0, numPages); i >= 0;
+             i = freeSpaceMap.nextFreePage(i + 1, numPages)) {
             HeapPageId heapPageId = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+            boolean held = bufferPool.holdsLock(tid, heapPageId);
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
+            if (cutOff(tid, heapPageId, held)) {
+                // so were the pages after it
+                break;
+            }
             if(page.getNumEmptySlots() > 0){
                 page.insertTuple(t);
                 page.markDirty(true,tid);
+                freeSpaceMap.setFree(i, page.getNumEmptySlots() > 0);
+                zoneMap.inserted(i, t);
                 pagesToInsert.add(page);
                 break;
             }
+            freeSpaceMap.setFree(i, false);
+            if (!held) {
+                bufferPool.unsafeReleasePage(tid, heapPageId);
+            }
         }
 
         //  If no such pages exist in the HeapFile, you need to create a new page and append it to the physical file
         //  on disk. You will need to ensure that the RecordID in the tuple is updated correctly.
 
-        if(pagesToInsert.size() <= 0){
-            HeapPageId heapPageId = new HeapPageId(getId(), numPages());
-            HeapPage newPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
-            writePage(newPage); //Note that you do not necessarily need to implement writePage at this point
-            newPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
+        while(pagesToInsert.size() <= 0){
+            HeapPageId heapPageId = new HeapPageId(getId(), allocatePages(1));
+            boolean held = bufferPool.holdsLock(tid, heapPageId);
+            HeapPage newPage = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
+            if (cutOff(tid, heapPageId, held)) {
+                continue;
+            }
             newPage.insertTuple(t);
             newPage.markDirty(true, tid);
+            freeSpaceMap.setFree(heapPageId.getPageNumber(), newPage.getNumEmptySlots() > 0);
+            zoneMap.inserted(heapPageId.getPageNumber(), t);
             pagesToInsert.add(newPage);
         }
 
         return pagesToInsert;
     }
 
+    /**
+     * Inserts a batch of tuples, filling each page the batch touches before
+     * moving on to the next one. Pages are taken from the free space map, and
+     * when it runs out the file is extended by a whole extent of empty pages
+     * at once (see {@link #allocatePages}), so a large insert neither writes
+     * nor re-reads a page per new page. Dirtied pages are written once, when
+     * the transaction commits.
+     *
+     * @param tid the transaction performing the insert
+     * @param tuples the tuples to insert
+     * @return the pages that were modified
+     */
+    public List<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> pagesToInsert = new ArrayList<>();
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapPage page = null;
+        int pgNo = -1;
+        for (Tuple t : tuples) {
+            while (page == null || page.getNumEmptySlots() == 0) {
+                if (page != null) {
+                    freeSpaceMap.setFree(pgNo, false);
+                }
+                pgNo = freeSpaceMap.nextFreePage(pgNo + 1, numPages());
+                if (pgNo < 0) {
+                    pgNo = allocatePages(Math.min(EXTENT_PAGES, Math.max(1, numPages())));
+                }
+                HeapPageId heapPageId = new HeapPageId(getId(), pgNo);
+                boolean held = bufferPool.holdsLock(tid, heapPageId);
+                page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
+                if (cutOff(tid, heapPageId, held)) {
+                    page = null;
+                } else if (page.getNumEmptySlots() > 0) {
+                    pagesToInsert.add(page);
+                } else if (!held) {
+                    bufferPool.unsafeReleasePage(tid, heapPageId);
+                }
+            }
+            page.insertTuple(t);
+            page.markDirty(true, tid);
+            zoneMap.inserted(pgNo, t);
+        }
+        if (page != null) {
+            freeSpaceMap.setFree(pgNo, page.getNumEmptySlots() > 0);
+        }
+        return pagesToInsert;
+    }
+
+    /**
+     * Returns true if a page that tid has just locked for an insert is past
+     * the end of the file. This happens when a vacuum cut the page off
+     * (see {@link #truncate}) while tid waited for its lock. The buffer pool
+     * then read the page past the end of the file, so that copy is dropped,
+     * and the lock is released unless tid held it before. A page tid holds
+     * a lock on cannot be cut off, since the vacuum locks every page it
+     * removes.
+     */
+    private boolean cutOff(TransactionId tid, HeapPageId pid, boolean held) {
+        if (pid.getPageNumber() < numPages()) {
+            return false;
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.discardPage(pid);
+        if (!held) {
+            bufferPool.unsafeReleasePage(tid, pid);
+        }
+        return true;
+    }
+
+    /**
+     * Extends the file by numPages empty pages with a single setLength call.
+     * A zeroed page is an empty HeapPage, so nothing has to be written; the
+     * new pages are recorded as free in the free space map.
+     *
+     * @return the page number of the first new page
+     */
+    public synchronized int allocatePages(int numPages) throws IOException {
+        int first = numPages();
+        extendFile(first + numPages);
+        freeSpaceMap.extend(first, first + numPages);
+        zoneMap.extend(first, first + numPages);
+        return first;
+    }
+
+    /**
+     * Grows the backing file to numPages pages; the new pages read as zeroes.
+     */
+    protected void extendFile(int numPages) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(sourceFile, "rw")) {
+            file.setLength((long) numPages * BufferPool.getPageSize());
+        }
+    }
+
+    /**
+     * Removes the pages from newNumPages on from the end of the file. The
+     * caller must make sure no transaction is using those pages and the
+     * buffer pool holds no copy of them (see {@link HeapFileVacuum}).
+     * Transactions that were waiting for a lock on one of them to insert a
+     * tuple find it gone once they get the lock, and insert elsewhere.
+     *
+     * @param oldNumPages the number of pages the caller expects the file
+     *            to have; if pages were added since, nothing is removed
+     * @param newNumPages the number of pages to keep
+     * @return true if the file was truncated
+     */
+    public synchronized boolean truncate(int oldNumPages, int newNumPages) throws IOException {
+        if (numPages() != oldNumPages || newNumPages >= oldNumPages) {
+            return false;
+        }
+        if (mappedFile != null) {
+            mappedFile.reset();
+        }
+        truncateFile(newNumPages);
+        freeSpaceMap.truncate(newNumPages);
+        zoneMap.truncate(newNumPages);
+        return true;
+    }
+
+    /**
+     * Shrinks the backing file to numPages pages.
+     */
+    protected void truncateFile(int numPages) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(sourceFile, "rw")) {
+            file.setLength((long) numPages * BufferPool.getPageSize());
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -188,6 +437,7 @@ public class HeapFile implements DbFile {
                 pageToDelete = (HeapPage)  Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
                 pagesToDelete.add(pageToDelete);
                 pageToDelete.deleteTuple(t);
+                freeSpaceMap.setFree(i, true);
 
             }
         }
@@ -198,27 +448,151 @@ public class HeapFile implements DbFile {
     public class HeapFileIterator extends AbstractDbFileIterator {
         TransactionId tid;
         int tableId;
+        int firstPage;
         int pageNum;
         int position;
         Iterator<Tuple> tupleIterator;
+        /** true while no tuple of the page at position has been read */
+        boolean pageUnread;
+        final List<Predicate> pageFilters = new ArrayList<>();
+        final List<KeyFilter> keyFilters = new ArrayList<>();
+        int pagesSkipped;
+        /** the fields to return, or null for all of them */
+        final int[] fields;
+        final TupleDesc projected;
 
         public HeapFileIterator(TransactionId tid){
+            this(tid, 0, numPages());
+        }
+
+        /**
+         * Creates an iterator over the tuples on pages [fromPage, toPage).
+         */
+        public HeapFileIterator(TransactionId tid, int fromPage, int toPage){
+            this(tid, fromPage, toPage, null);
+        }
+
+        /**
+         * Creates an iterator over the given fields of the tuples on pages
+         * [fromPage, toPage); see {@link HeapFile#iterator(TransactionId, int[])}.
+         */
+        public HeapFileIterator(TransactionId tid, int fromPage, int toPage, int[] fields){
+            this.fields = fields;
+            this.projected = fields == null ? null : getTupleDesc(fields);
             this.tid = tid;
-            position = 0;
+            this.firstPage = fromPage;
+            position = fromPage;
             this.tableId = getId();
-            this.pageNum = numPages();
+            this.pageNum = toPage;
         }
 
         public Iterator<Tuple> findTuples(HeapPageId pid) throws TransactionAbortedException, DbException {
             HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
 
-            return newPage.iterator();
+            IntPredicate accept = slot -> accepts(newPage, slot);
+            return fields == null ? newPage.iterator(accept) : newPage.iterator(fields, projected, accept);
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            pagesSkipped = 0;
+            openPage();
+        }
+
+        /**
+         * Starts reading the page at position, or the first page after it
+         * that may hold matching tuples. Pages skipped are still read
+         * locked, before the zone map is consulted, as if they were read.
+         */
+        private void openPage() throws DbException, TransactionAbortedException {
+            while (position < pageNum && !mayMatchLocked(position)) {
+                position++;
+                pagesSkipped++;
+            }
+            if (position >= pageNum) {
+                tupleIterator = null;
+                return;
+            }
             HeapPageId pid = new HeapPageId(this.tableId, position);
             tupleIterator = findTuples(pid);
+            pageUnread = true;
+        }
+
+        /**
+         * Makes the iterator skip the pages on which, according to the zone
+         * map, no tuple satisfies p. The tuples on the pages that are read
+         * are still returned whether they satisfy p or not; filtering them
+         * is left to the caller. The field of p is a field of the file, not
+         * of the tuples of an iterator over some of the fields.
+         */
+        public void addPageFilter(Predicate p) {
+            pageFilters.add(p);
+        }
+
+        /**
+         * Makes the iterator drop the tuples whose value of a field the
+         * filter rejects, testing the value on the page before the tuple is
+         * decoded, and skip the pages on which, according to the zone map,
+         * every int value of the field is out of the range of the filter.
+         * Filters added while a page is being read apply to the tuples of
+         * it not read yet.
+         *
+         * @param field the field of the file to test
+         * @param filter the filter on its values
+         */
+        public void addKeyFilter(int field, JoinKeyFilter filter) {
+            keyFilters.add(new KeyFilter(field, getTupleDesc().getFieldType(field) == Type.INT_TYPE, filter));
+        }
+
+        /**
+         * Stops applying a filter added with {@link #addKeyFilter}.
+         */
+        public void removeKeyFilter(JoinKeyFilter filter) {
+            keyFilters.removeIf(k -> k.filter == filter);
+        }
+
+        /**
+         * @return the number of pages skipped because of the page filters
+         *         and the ranges of the key filters, since the iterator was
+         *         last opened or rewound
+         */
+        public int getPagesSkipped() {
+            return pagesSkipped;
+        }
+
+        private boolean mayMatchLocked(int pgNo) throws TransactionAbortedException {
+            if (pageFilters.isEmpty() && keyFilters.isEmpty()) {
+                return true;
+            }
+            Database.getBufferPool().lockPage(tid, new HeapPageId(tableId, pgNo), Permissions.READ_ONLY);
+            return mayMatch(pgNo);
+        }
+
+        private boolean mayMatch(int pgNo) {
+            for (Predicate p : pageFilters) {
+                if (!zoneMap.mayMatch(pgNo, p)) {
+                    return false;
+                }
+            }
+            for (KeyFilter k : keyFilters) {
+                if (k.isInt && (k.filter.getMin() > k.filter.getMax()
+                        || !zoneMap.mayMatch(pgNo, k.field, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(k.filter.getMin()))
+                        || !zoneMap.mayMatch(pgNo, k.field, Predicate.Op.LESS_THAN_OR_EQ, new IntField(k.filter.getMax())))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** @return true if the key filters accept the tuple in a used slot of a page */
+        private boolean accepts(HeapPage page, int slot) {
+            for (KeyFilter k : keyFilters) {
+                if (k.isInt ? !k.filter.mayContain(page.getInt(slot, k.field))
+                        : !k.filter.mayContain(page.getField(slot, k.field))) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         @Override
@@ -232,11 +606,56 @@ public class HeapFile implements DbFile {
             super.close();
             tid = null;
             tupleIterator = null;
-            position = 0;
+            position = firstPage;
+        }
+
+        /**
+         * Returns the tuples of the next page that has any as a batch; see
+         * {@link HeapPage#readBatch}. Tuples of a page partly read through
+         * next() are returned first, in a batch of their own.
+         *
+         * @param td the schema to give the batch: that of the file, or of
+         *        the fields of this iterator, under any names
+         * @return a batch of at least one row, or null if there are no more
+         *         tuples
+         */
+        public TupleBatch nextBatch(TupleDesc td) throws DbException, TransactionAbortedException {
+            if (hasBufferedNext() || (tupleIterator != null && !pageUnread && tupleIterator.hasNext())) {
+                TupleBatch batch = new TupleBatch(td, TupleBatch.DEFAULT_SIZE);
+                while (hasBufferedNext() || (tupleIterator != null && tupleIterator.hasNext())) {
+                    batch.addTuple(next());
+                }
+                return batch;
+            }
+            while (tupleIterator != null) {
+                if (pageUnread) {
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                            tid, new HeapPageId(this.tableId, position), Permissions.READ_ONLY);
+                    TupleBatch batch = new TupleBatch(td, page.numSlots);
+                    page.readBatch(batch, fields, slot -> accepts(page, slot));
+                    tupleIterator = Collections.emptyIterator();
+                    pageUnread = false;
+                    if (batch.numRows() > 0) {
+                        return batch;
+                    }
+                }
+                if (position >= pageNum - 1) {
+                    return null;
+                }
+                position++;
+                openPage();
+            }
+            return null;
         }
 
         @Override
         protected Tuple readNext() throws DbException, TransactionAbortedException {
+            Tuple t = readNextTuple();
+            pageUnread = false;
+            return t;
+        }
+
+        private Tuple readNextTuple() throws DbException, TransactionAbortedException {
             if(tupleIterator == null)
             {
                 return null;
@@ -248,7 +667,7 @@ public class HeapFile implements DbFile {
             else{
                 while (position < pageNum - 1){
                     position++;
-                    open();
+                    openPage();
                     if(tupleIterator == null){
                         return null;
                     }
@@ -262,6 +681,19 @@ public class HeapFile implements DbFile {
         }
     }
 
+    /** A filter on the values of a field, added to a HeapFileIterator */
+    private static class KeyFilter {
+        final int field;
+        final boolean isInt;
+        final JoinKeyFilter filter;
+
+        KeyFilter(int field, boolean isInt, JoinKeyFilter filter) {
+            this.field = field;
+            this.isInt = isInt;
+            this.filter = filter;
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
@@ -276,5 +708,39 @@ public class HeapFile implements DbFile {
 
         return new HeapFileIterator(tid);
     }
+
+    /**
+     * Returns an iterator over some of the fields of the tuples in this
+     * file. Its tuples have the schema {@link #getTupleDesc(int[])} of those
+     * fields, and the RecordId of the tuple they come from, so they can be
+     * deleted. Only the fields asked for are decoded, which pays off most
+     * with the PAX layout of a {@link PaxHeapFile}.
+     *
+     * @param fields the fields to return, in the order the tuples hold them
+     * @throws IllegalArgumentException if a field does not exist
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new HeapFileIterator(tid, 0, numPages(), fields.clone());
+    }
+
+    /**
+     * Returns the schema of the tuples a scan of the given fields returns:
+     * the types and names of those fields of this file, in the order given.
+     *
+     * @throws IllegalArgumentException if a field does not exist
+     */
+    public TupleDesc getTupleDesc(int[] fields) {
+        return getTupleDesc().project(fields);
+    }
+
+    /**
+     * Returns a partition of the pages this file has now, which splits into
+     * ranges of pages.
+     */
+    @Override
+    public FilePartition partition(TransactionId tid) {
+        return new PageRangePartition(0, numPages(),
+                (fromPage, toPage) -> new HeapFileIterator(tid, fromPage, toPage));
+    }
 }
 
@@ -0,0 +1,227 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * HeapFileVacuum compacts a HeapFile while it is in use. Deletes only clear
+ * slots, so after heavy delete churn a heap file is mostly empty pages that
+ * every scan still reads. The vacuum moves tuples from the last pages of the
+ * file into empty slots of earlier pages, and then cuts the emptied pages
+ * off the end of the file.
+ * <p>
+ * The work is done in small batches, each its own transaction, so that the
+ * vacuum holds few page locks at a time and for a short time, and
+ * foreground transactions are never blocked for long. A moved tuple is
+ * deleted and inserted again through the buffer pool, so it gets a new
+ * RecordId and the batch commits or aborts as a whole. A batch that loses a
+ * deadlock is aborted and retried; the vacuum gives up after a few aborts in
+ * a row and leaves the rest for a later run.
+ * <p>
+ * Pages are only cut off once they are empty and the vacuum holds the
+ * exclusive lock on each of them, so no other transaction can be reading or
+ * writing them. An insert that was waiting for one of those locks finds the
+ * page gone once it gets the lock, and inserts into a page still in the
+ * file.
+ */
+public class HeapFileVacuum {
+
+    /** Default number of tuples moved per transaction */
+    public static final int DEFAULT_BATCH_TUPLES = 128;
+    /** Number of aborts in a row after which the vacuum gives up */
+    private static final int MAX_ABORTS = 3;
+
+    private final HeapFile file;
+    private final int batchTuples;
+
+    private int tuplesMoved;
+    private int pagesTruncated;
+    private int batches;
+    private int aborts;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to compact
+     */
+    public HeapFileVacuum(HeapFile file) {
+        this(file, DEFAULT_BATCH_TUPLES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to compact
+     * @param batchTuples the number of tuples to move per transaction
+     */
+    public HeapFileVacuum(HeapFile file, int batchTuples) {
+        if (batchTuples < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.file = file;
+        this.batchTuples = batchTuples;
+    }
+
+    /**
+     * Compacts the file, batch by batch, until no tuple can be moved to an
+     * earlier page, and truncates the empty pages at its end.
+     */
+    public void run() throws DbException, IOException {
+        int abortsInARow = 0;
+        while (abortsInARow < MAX_ABORTS) {
+            int moved;
+            try {
+                truncateEmptyTail();
+                moved = moveBatch();
+                abortsInARow = 0;
+            } catch (TransactionAbortedException e) {
+                aborts++;
+                abortsInARow++;
+                continue;
+            }
+            if (moved == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Moves up to batchTuples tuples from the end of the file to empty slots
+     * of earlier pages, in one transaction.
+     *
+     * @return the number of tuples moved
+     */
+    public int moveBatch() throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        Transaction transaction = new Transaction();
+        transaction.start();
+        TransactionId tid = transaction.getId();
+        boolean commit = false;
+        int moved = 0;
+        try {
+            for (int src = file.numPages() - 1; src > 0 && moved < batchTuples; src--) {
+                int room = file.getFreeSpaceMap().nextFreePage(0, src);
+                if (room < 0) {
+                    break;
+                }
+                HeapPageId pid = new HeapPageId(file.getId(), src);
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                List<Tuple> tuples = new ArrayList<>();
+                for (Iterator<Tuple> it = page.iterator(); it.hasNext() && tuples.size() < batchTuples - moved; ) {
+                    tuples.add(it.next());
+                }
+
+                boolean full = false;
+                for (Tuple t : tuples) {
+                    Tuple copy = new Tuple(t.getTupleDesc());
+                    for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                        copy.setField(i, t.getField(i));
+                    }
+                    // deleting first leaves a free slot on src, which we
+                    // hold locked, so the insert never grows the file
+                    bufferPool.deleteTuple(tid, t);
+                    bufferPool.insertTuple(tid, file.getId(), copy);
+                    if (copy.getRecordId().getPageId().getPageNumber() >= src) {
+                        // the earlier pages filled up; the tuple went back
+                        full = true;
+                        break;
+                    }
+                    moved++;
+                }
+                if (full) {
+                    break;
+                }
+            }
+            commit = true;
+        } finally {
+            transaction.transactionComplete(!commit);
+        }
+        if (moved > 0) {
+            batches++;
+            tuplesMoved += moved;
+        }
+        return moved;
+    }
+
+    /**
+     * Cuts the empty pages at the end of the file off, in one transaction.
+     *
+     * @return the number of pages removed
+     */
+    public int truncateEmptyTail() throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        Transaction transaction = new Transaction();
+        transaction.start();
+        TransactionId tid = transaction.getId();
+        boolean commit = false;
+        int removed = 0;
+        try {
+            int numPages = file.numPages();
+            int keep = numPages;
+            while (keep > 0) {
+                HeapPageId pid = new HeapPageId(file.getId(), keep - 1);
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.iterator().hasNext()) {
+                    break;
+                }
+                keep--;
+            }
+            if (keep < numPages) {
+                for (int i = keep; i < numPages; i++) {
+                    bufferPool.discardPage(new HeapPageId(file.getId(), i));
+                }
+                if (file.truncate(numPages, keep)) {
+                    removed = numPages - keep;
+                }
+            }
+            commit = true;
+        } finally {
+            transaction.transactionComplete(!commit);
+        }
+        pagesTruncated += removed;
+        return removed;
+    }
+
+    /**
+     * @return the number of tuples moved so far
+     */
+    public int getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /**
+     * @return the number of pages cut off the file so far
+     */
+    public int getPagesTruncated() {
+        return pagesTruncated;
+    }
+
+    /**
+     * @return the number of transactions that moved tuples so far
+     */
+    public int getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the number of batches aborted so far
+     */
+    public int getAborts() {
+        return aborts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d tuples moved in %d batches, %d pages truncated, %d aborts",
+                tuplesMoved, batches, pagesTruncated, aborts);
+    }
+}
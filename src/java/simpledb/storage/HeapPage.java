@@ -4,10 +4,13 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
+import java.util.function.IntPredicate;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -21,12 +24,20 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
+    final int headerSize;
     final Tuple[] tuples;
     final int numSlots;
+    /**
+     * The bytes of this page, header included. Inserts and deletes write
+     * straight into them; tuples are decoded from them on first access.
+     * An array is never written to once it has been handed out as a before
+     * image, see captureBeforeImage.
+     */
+    byte[] data;
+    ByteBuffer buf;
 
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
     TransactionId prevDirtyTransaction;
 
     /**
@@ -49,22 +60,13 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        // the page may be handed a short array; missing bytes read as zero
+        this.data = data.length >= BufferPool.getPageSize() ? data : Arrays.copyOf(data, BufferPool.getPageSize());
+        this.buf = ByteBuffer.wrap(this.data);
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        // the header is read in place and tuples are decoded lazily, see getTuple
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -96,9 +98,9 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                oldDataRef = oldData != null ? oldData : data;
             }
-            return new HeapPage(pid,oldDataRef);
+            return newPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,10 +109,36 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Creates a page of the same layout as this one from the given bytes.
+     * Subclasses with another layout override this.
+     */
+    protected HeapPage newPage(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * Saves the current contents of this page as its before image, unless one
+     * has been saved since the last call to setBeforeImage. Called before
+     * every modification, so pages that are only read never build one. The
+     * current bytes become the before image as they are, and this page goes
+     * on modifying a copy of them.
+     */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = data;
+                data = data.clone();
+                buf = ByteBuffer.wrap(data);
+            }
         }
     }
 
@@ -123,39 +151,73 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slot slotId, decoding it from the raw page bytes
+     * the first time it is asked for.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private Tuple getTuple(int slotId) throws NoSuchElementException {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                decodeInto(t, j, slotId, j);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            tuples[slotId] = t;
         }
-
         return t;
     }
 
+    /**
+     * Returns field fieldNo of the tuple in slot slotId. Only that field is
+     * decoded if the tuple has not been decoded yet.
+     *
+     * @return the field, or null if the slot is empty
+     */
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = tuples[slotId];
+        return t != null ? t.getField(fieldNo) : decodeField(slotId, fieldNo);
+    }
+
+    /**
+     * Returns field fieldNo, which must be an INT_TYPE field, of the tuple
+     * in slot slotId, without decoding the tuple or creating a Field.
+     * The slot must be used.
+     */
+    public int getInt(int slotId, int fieldNo) {
+        Tuple t = tuples[slotId];
+        return t != null ? t.getInt(fieldNo) : buf.getInt(fieldOffset(slotId, fieldNo));
+    }
+
+    /**
+     * Byte offset of field fieldNo of slot slotId within the page. The
+     * fields of a slot are stored one after the other, after those of the
+     * slot before it; subclasses with another layout override this.
+     */
+    protected int fieldOffset(int slotId, int fieldNo) {
+        return headerSize + slotId * td.getSize() + td.getFieldOffset(fieldNo);
+    }
+
+    private Field decodeField(int slotId, int fieldNo) {
+        return td.getFieldType(fieldNo).parse(buf, fieldOffset(slotId, fieldNo));
+    }
+
+    /** Decodes field fieldNo of slot slotId into field i of t; ints are not boxed into IntFields. */
+    private void decodeInto(Tuple t, int i, int slotId, int fieldNo) {
+        if (td.getFieldType(fieldNo) == Type.INT_TYPE) {
+            t.setInt(i, buf.getInt(fieldOffset(slotId, fieldNo)));
+        } else {
+            t.setField(i, decodeField(slotId, fieldNo));
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -168,64 +230,8 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        // inserts and deletes keep the bytes up to date, so this is a copy
+        return data.clone();
     }
 
     /**
@@ -256,11 +262,19 @@ public class HeapPage implements Page {
         //Tuples contain RecordIDs which allow you to find the page they reside on, so this should be as simple as locating
         //the page a tuple belongs to and modifying the headers of the page appropriately.
 
+        captureBeforeImage();
+
         // 1 - locating the page a tuple belongs to
         if ( t.getRecordId().getPageId().equals(this.pid) && isSlotUsed(t.getRecordId().getTupleNumber()) ){
             // 2 - modifying the headers of the page appropriately
-            tuples[t.getRecordId().getTupleNumber()]=null;
-            markSlotUsed(t.getRecordId().getTupleNumber(), false);
+            int slot = t.getRecordId().getTupleNumber();
+            tuples[slot]=null;
+            markSlotUsed(slot, false);
+            // empty slots are stored as zeroes
+            for (int j = 0; j < td.numFields(); j++) {
+                int offset = fieldOffset(slot, j);
+                Arrays.fill(data, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
+            }
         }
         else{
             throw new DbException("Invalid tuple pid");
@@ -279,10 +293,18 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
 
+        captureBeforeImage();
         if ( t.getTupleDesc().equals(td) ){
             // find next available slot
-            for (int i = 0; i < getNumTuples() ; i++) {
+            for (int i = 0; i < numSlots ; i++) {
                 if(!isSlotUsed(i)){
+                    for (int j = 0; j < td.numFields(); j++) {
+                        if (t.isInt(j)) {
+                            buf.putInt(fieldOffset(i, j), t.getInt(j));
+                        } else {
+                            t.getField(j).serialize(buf, fieldOffset(i, j));
+                        }
+                    }
                     tuples[i] = t;
                     t.setRecordId(new RecordId(pid, i));
                     markSlotUsed(i,true);
@@ -327,13 +349,16 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int numEmptySlots = 0;
-        for (int i = 0; i < getNumTuples(); i++) {
-            if (!isSlotUsed(i)) {
-                numEmptySlots++;
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(data[i] & 0xFF);
+        }
+        for (int i = numSlots - numSlots % 8; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                used++;
             }
         }
-        return numEmptySlots;
+        return numSlots - used;
     }
 
     /**
@@ -342,10 +367,10 @@ public class HeapPage implements Page {
     public boolean isSlotUsed(int i) {
         int byteNum = i / 8;
         int bitNum = i % 8;
-        if (byteNum >= header.length || byteNum < 0) {
+        if (i >= numSlots || byteNum < 0) {
             return false;
         }
-        byte byteWithSlot = header[byteNum];
+        byte byteWithSlot = data[byteNum];
         int bitmask = 1 << bitNum;
         return (byteWithSlot&bitmask) > 0;
     }
@@ -364,10 +389,10 @@ public class HeapPage implements Page {
         byte bitToUpdate = (byte) (1 << bitPositionWithinByte);
 
         if(value){
-            header[bytePositionOfTuple] = (byte) (header[bytePositionOfTuple] | bitToUpdate);
+            data[bytePositionOfTuple] = (byte) (data[bytePositionOfTuple] | bitToUpdate);
         }
         else {
-            header[bytePositionOfTuple] = (byte) (header[bytePositionOfTuple] ^ bitToUpdate);
+            data[bytePositionOfTuple] = (byte) (data[bytePositionOfTuple] ^ bitToUpdate);
         }
 
     }
@@ -378,14 +403,133 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> iteratorList = new ArrayList<Tuple>();
-        for(int i=0; i<tuples.length; i++) {
-            if ((isSlotUsed(i) && tuples[i] != null)) {
-                iteratorList.add(tuples[i]);
+        return iterator(slot -> true);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page in the slots accept
+     * accepts. The tuples in the other slots are not decoded, so accept
+     * should look at the page itself, with {@link #getInt} or
+     * {@link #getField}, rather than at tuples.
+     *
+     * @param accept the test of slot numbers, called once per used slot
+     */
+    public Iterator<Tuple> iterator(IntPredicate accept) {
+        // tuples are decoded as the iterator reaches them
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0, accept);
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = nextUsedSlot(next + 1, accept);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over some of the fields of the tuples on this
+     * page. Its tuples have only the given fields, in the order given, and
+     * the RecordId of the tuple they come from; only those fields are
+     * decoded.
+     *
+     * @param fields the fields to return
+     * @param projected the schema of the returned tuples
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc projected) {
+        return iterator(fields, projected, slot -> true);
+    }
+
+    /**
+     * Returns an iterator over some of the fields of the tuples on this
+     * page in the slots accept accepts; see {@link #iterator(IntPredicate)}
+     * and {@link #iterator(int[], TupleDesc)}.
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc projected, IntPredicate accept) {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0, accept);
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = new Tuple(projected);
+                for (int i = 0; i < fields.length; i++) {
+                    decodeInto(t, i, next, fields[i]);
+                }
+                t.setRecordId(new RecordId(pid, next));
+                next = nextUsedSlot(next + 1, accept);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Appends the tuples on this page to a batch, one row per used slot
+     * with the RecordId of its tuple. The values of each field are decoded
+     * straight into the column vector of the batch, without creating
+     * Tuples or Fields for int fields.
+     *
+     * @param batch the batch to append to
+     * @param fields the fields to decode, in the order of the fields of the
+     *        batch, or null for all of them
+     */
+    public void readBatch(TupleBatch batch, int[] fields) {
+        readBatch(batch, fields, slot -> true);
+    }
+
+    /**
+     * Appends the tuples on this page in the slots accept accepts to a
+     * batch; see {@link #iterator(IntPredicate)} and
+     * {@link #readBatch(TupleBatch, int[])}.
+     */
+    public void readBatch(TupleBatch batch, int[] fields, IntPredicate accept) {
+        int first = batch.numRows();
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int slot = nextUsedSlot(0, accept); slot < numSlots; slot = nextUsedSlot(slot + 1, accept)) {
+            batch.setRecordId(batch.addRow(), pid, slot);
+            slots[n++] = slot;
+        }
+        int numFields = fields == null ? td.numFields() : fields.length;
+        for (int c = 0; c < numFields; c++) {
+            int j = fields == null ? c : fields[c];
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                int[] values = batch.intColumn(c);
+                for (int i = 0; i < n; i++) {
+                    values[first + i] = buf.getInt(fieldOffset(slots[i], j));
+                }
+            } else {
+                String[] values = batch.stringColumn(c);
+                for (int i = 0; i < n; i++) {
+                    values[first + i] = ((StringField) type.parse(buf, fieldOffset(slots[i], j))).getValue();
+                }
             }
         }
-        return iteratorList.iterator();
     }
 
-}
+    /** @return the first used slot at or after from that accept accepts, or numSlots */
+    private int nextUsedSlot(int from, IntPredicate accept) {
+        while (from < numSlots && !(isSlotUsed(from) && accept.test(from))) {
+            from++;
+        }
+        return from;
+    }
 
+}
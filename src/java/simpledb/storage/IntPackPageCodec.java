@@ -0,0 +1,138 @@
+package simpledb.storage;
+
+/**
+ * IntPackPageCodec is a codec for pages of tables whose fields are all
+ * INT_TYPE. It skips the page header, reads the rest of the page as
+ * big-endian ints, and replaces every int by its difference from the same
+ * field of the previous tuple, so that keys that grow by small steps and
+ * columns with few distinct values turn into small numbers. The differences
+ * are zigzag encoded (so small negative numbers are small too) and
+ * bit-packed in blocks of 128, each block using the fewest bits that hold
+ * its largest value. Empty slots are zeroes and pack to almost nothing.
+ * <p>
+ * The header and any bytes after the last whole int are copied as they are.
+ */
+public class IntPackPageCodec implements PageCodec {
+
+    private static final int BLOCK = 128;
+
+    private final int headerBytes;
+    private final int stride;
+
+    /**
+     * Constructor.
+     *
+     * @param headerBytes the number of bytes at the start of the page that
+     *            are copied verbatim
+     * @param stride the number of ints per tuple; each int is encoded
+     *            relative to the one stride ints before it
+     */
+    public IntPackPageCodec(int headerBytes, int stride) {
+        this.headerBytes = headerBytes;
+        this.stride = Math.max(1, stride);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return b[i] << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+
+    public byte[] compress(byte[] page) {
+        int len = page.length;
+        int header = Math.min(headerBytes, len);
+        int numInts = (len - header) / 4;
+        int tail = len - header - numInts * 4;
+
+        // each block is a width byte and at most BLOCK * 32 bits of values
+        byte[] dst = new byte[len + numInts / BLOCK + 2];
+        System.arraycopy(page, 0, dst, 0, header);
+        int op = header;
+        int[] deltas = new int[BLOCK];
+        for (int start = 0; start < numInts; start += BLOCK) {
+            int count = Math.min(BLOCK, numInts - start);
+            int or = 0;
+            for (int i = 0; i < count; i++) {
+                int n = start + i;
+                int v = readInt(page, header + n * 4);
+                int prev = n >= stride ? readInt(page, header + (n - stride) * 4) : 0;
+                int d = v - prev;
+                deltas[i] = (d << 1) ^ (d >> 31);
+                or |= deltas[i];
+            }
+            int width = 32 - Integer.numberOfLeadingZeros(or);
+            if (op + 1 + (count * width + 7) / 8 + tail >= len) {
+                return null;
+            }
+            dst[op++] = (byte) width;
+            op = pack(deltas, count, width, dst, op);
+        }
+        if (op + tail >= len) {
+            return null;
+        }
+        System.arraycopy(page, len - tail, dst, op, tail);
+        op += tail;
+
+        byte[] out = new byte[op];
+        System.arraycopy(dst, 0, out, 0, op);
+        return out;
+    }
+
+    private static int pack(int[] values, int count, int width, byte[] dst, int op) {
+        if (width == 0) {
+            return op;
+        }
+        long acc = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            acc |= (values[i] & 0xFFFFFFFFL) << bits;
+            bits += width;
+            while (bits >= 8) {
+                dst[op++] = (byte) acc;
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) {
+            dst[op++] = (byte) acc;
+        }
+        return op;
+    }
+
+    public void decompress(byte[] src, int srcLen, byte[] dst) {
+        int len = dst.length;
+        int header = Math.min(headerBytes, len);
+        int numInts = (len - header) / 4;
+        int tail = len - header - numInts * 4;
+
+        System.arraycopy(src, 0, dst, 0, header);
+        int ip = header;
+        for (int start = 0; start < numInts; start += BLOCK) {
+            int count = Math.min(BLOCK, numInts - start);
+            int width = src[ip++];
+            long mask = width == 32 ? 0xFFFFFFFFL : (1L << width) - 1;
+            long acc = 0;
+            int bits = 0;
+            for (int i = 0; i < count; i++) {
+                while (bits < width) {
+                    acc |= (src[ip++] & 0xFFL) << bits;
+                    bits += 8;
+                }
+                int z = (int) (acc & mask);
+                acc >>>= width;
+                bits -= width;
+
+                int n = start + i;
+                int d = (z >>> 1) ^ -(z & 1);
+                int prev = n >= stride ? readInt(dst, header + (n - stride) * 4) : 0;
+                writeInt(dst, header + n * 4, prev + d);
+            }
+        }
+        System.arraycopy(src, ip, dst, len - tail, tail);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * Lz4PageCodec is a dependency-free byte-oriented LZ77 codec using the LZ4
+ * block format: a sequence of (token, literals, match offset, match length)
+ * records, where the token packs the literal run length in its high nibble
+ * and the match length minus 4 in its low nibble, with longer lengths
+ * continued in 255-valued extra bytes. Matches are found through a single
+ * hash table probe per position, which trades ratio for speed; decompression
+ * is a tight copy loop. It works on any page layout, and does well on the
+ * zero padding and repeated values that fill most pages.
+ */
+public class Lz4PageCodec implements PageCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    /** matches may not start within this many bytes of the end of the input */
+    private static final int MF_LIMIT = 12;
+    /** the last bytes of the input are always literals */
+    private static final int LAST_LITERALS = 5;
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    public byte[] compress(byte[] src) {
+        int len = src.length;
+        // worst case: every byte a literal, plus run length bytes
+        byte[] dst = new byte[len + len / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int ip = 0;
+        int anchor = 0;
+        int op = 0;
+        int matchLimit = len - MF_LIMIT;
+        while (ip < matchLimit) {
+            int seq = readInt(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+
+            // extend the match, leaving the last bytes as literals
+            int matchLen = MIN_MATCH;
+            int maxLen = len - LAST_LITERALS - ip;
+            while (matchLen < maxLen && src[ref + matchLen] == src[ip + matchLen]) {
+                matchLen++;
+            }
+
+            int token = op;
+            op = writeSequence(src, anchor, ip - anchor, dst, op);
+            dst[op++] = (byte) (ip - ref);
+            dst[op++] = (byte) ((ip - ref) >>> 8);
+            op = writeLength(dst, op, matchLen - MIN_MATCH, token);
+
+            ip += matchLen;
+            anchor = ip;
+        }
+
+        // trailing literals
+        op = writeSequence(src, anchor, len - anchor, dst, op);
+        if (op >= len) {
+            return null;
+        }
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * Writes a token with the literal run length at op, its extra length
+     * bytes and the literals themselves; the token's match nibble is filled
+     * in by writeLength.
+     */
+    private static int writeSequence(byte[] src, int from, int count, byte[] dst, int op) {
+        int token = Math.min(count, 15) << 4;
+        dst[op++] = (byte) token;
+        if (count >= 15) {
+            int rest = count - 15;
+            while (rest >= 255) {
+                dst[op++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[op++] = (byte) rest;
+        }
+        System.arraycopy(src, from, dst, op, count);
+        return op + count;
+    }
+
+    private static int writeLength(byte[] dst, int op, int matchLen, int token) {
+        dst[token] |= (byte) Math.min(matchLen, 15);
+        if (matchLen >= 15) {
+            int rest = matchLen - 15;
+            while (rest >= 255) {
+                dst[op++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[op++] = (byte) rest;
+        }
+        return op;
+    }
+
+    public void decompress(byte[] src, int srcLen, byte[] dst) {
+        int ip = 0;
+        int op = 0;
+        while (ip < srcLen) {
+            int token = src[ip++] & 0xFF;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip >= srcLen) {
+                break;
+            }
+
+            int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            int matchLen = token & 0x0F;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xFF;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+
+            // the match may overlap the bytes it produces, so copy forwards
+            int ref = op - offset;
+            if (offset >= matchLen) {
+                System.arraycopy(dst, ref, dst, op, matchLen);
+                op += matchLen;
+            } else {
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+    }
+}
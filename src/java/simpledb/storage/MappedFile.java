@@ -0,0 +1,117 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MappedFile gives read access to the pages of a DbFile's backing file
+ * through read-only memory mappings, so that a page can be fetched straight
+ * out of the OS page cache instead of opening, seeking and reading a
+ * RandomAccessFile for every page.
+ * <p>
+ * The file is mapped in chunks of CHUNK_PAGES pages, starting at a fixed byte
+ * offset (BTreeFile keeps its root pointer page in front of the first regular
+ * page). Pages appended after the mapping was taken are picked up by
+ * remapping the tail of the file the first time one of them is read.
+ *
+ * @see HeapFile#setMemoryMapped
+ * @see simpledb.index.BTreeFile#setMemoryMapped
+ */
+public class MappedFile {
+
+    /** Number of pages covered by a single mapping. */
+    public static final int CHUNK_PAGES = 4096;
+
+    private final File file;
+    private final long baseOffset;
+    private final int pageSize;
+    private final List<MappedByteBuffer> chunks;
+    private long mappedPages;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to map
+     * @param baseOffset the byte offset of page 0 in the file
+     * @param pageSize the size in bytes of every page in the mapped region
+     */
+    public MappedFile(File file, long baseOffset, int pageSize) {
+        this.file = file;
+        this.baseOffset = baseOffset;
+        this.pageSize = pageSize;
+        this.chunks = new ArrayList<>();
+        this.mappedPages = 0;
+    }
+
+    /**
+     * @return the page size this mapping was created with
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Copies page pgNo of the mapped region into dst with a single bulk get
+     * from the mapping.
+     *
+     * @param pgNo the page number, relative to the base offset
+     * @param dst the buffer to fill; must be at least getPageSize() long
+     * @return false if the page lies beyond the end of the file
+     */
+    public synchronized boolean readPage(int pgNo, byte[] dst) throws IOException {
+        if (pgNo < 0) {
+            return false;
+        }
+        if (pgNo >= mappedPages) {
+            remap();
+            if (pgNo >= mappedPages) {
+                return false;
+            }
+        }
+        ByteBuffer chunk = chunks.get(pgNo / CHUNK_PAGES).duplicate();
+        chunk.position((pgNo % CHUNK_PAGES) * pageSize);
+        chunk.get(dst, 0, pageSize);
+        return true;
+    }
+
+    /**
+     * Drops every mapping. Must be called before the file is truncated, since
+     * touching a mapping past the end of its file faults.
+     */
+    public synchronized void reset() {
+        chunks.clear();
+        mappedPages = 0;
+    }
+
+    /**
+     * Extends the mappings to cover every complete page currently in the
+     * file. The last, partially filled chunk is mapped again at its new size.
+     */
+    private void remap() throws IOException {
+        long filePages = Math.max(0, (file.length() - baseOffset) / pageSize);
+        if (filePages <= mappedPages) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            int firstChunk = (int) (mappedPages / CHUNK_PAGES);
+            int lastChunk = (int) ((filePages - 1) / CHUNK_PAGES);
+            while (chunks.size() > firstChunk) {
+                chunks.remove(chunks.size() - 1);
+            }
+            for (int c = firstChunk; c <= lastChunk; c++) {
+                long firstPage = (long) c * CHUNK_PAGES;
+                long numPages = Math.min(CHUNK_PAGES, filePages - firstPage);
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY,
+                        baseOffset + firstPage * pageSize, numPages * pageSize));
+            }
+        }
+        mappedPages = filePages;
+    }
+}
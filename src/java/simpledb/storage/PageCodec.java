@@ -0,0 +1,29 @@
+package simpledb.storage;
+
+/**
+ * A PageCodec compresses and decompresses the bytes of a single page.
+ * Codecs are stateless, so one instance can be shared by every page of a
+ * file and by concurrent readers.
+ *
+ * @see CompressedHeapFile
+ */
+public interface PageCodec {
+
+    /**
+     * Compresses a page.
+     *
+     * @param page the page bytes
+     * @return the compressed bytes, or null if this codec cannot make the
+     *         page smaller
+     */
+    byte[] compress(byte[] page);
+
+    /**
+     * Decompresses a page compressed by this codec.
+     *
+     * @param src the buffer holding the compressed bytes
+     * @param srcLen the number of compressed bytes at the start of src
+     * @param dst the buffer to fill; exactly one page long
+     */
+    void decompress(byte[] src, int srcLen, byte[] dst);
+}
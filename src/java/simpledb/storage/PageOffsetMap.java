@@ -0,0 +1,272 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PageOffsetMap records where each page of a CompressedHeapFile, or of a
+ * column of a ColumnFile, is stored. Compressed pages vary in size, so page
+ * n is no longer at n times the page size; the map gives, for every page,
+ * the offset of its bytes in the data file, the number of bytes stored,
+ * the number of bytes reserved for it there, and the codec they were
+ * compressed with. A stored length of zero means the page is all zeroes
+ * and has no bytes in the data file at all.
+ * <p>
+ * The map is persisted in a sidecar file next to the data file, one fixed
+ * size entry per page, and each entry is written after the bytes it points
+ * to, so it is never older than the data file. If the sidecar is missing,
+ * or older than the data file (which was then replaced by something else,
+ * such as HeapFileEncoder), the data file is taken to hold uncompressed
+ * pages one after the other, as a HeapFile would.
+ *
+ * @see CompressedHeapFile
+ * @see ColumnFile
+ */
+public class PageOffsetMap {
+
+    /** File name suffix of the sidecar file */
+    public static final String SUFFIX = ".pom";
+    /** Bytes per entry: offset, stored length, reserved length and codec */
+    private static final int ENTRY_SIZE = 8 + 4 + 4 + 1;
+
+    private final File dataFile;
+    private final File sidecar;
+    private final int pageSize;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    private byte[] codecs;
+    private int size = -1;
+    /** end of the last page in the data file */
+    private long end;
+
+    /**
+     * Constructor. The map is loaded lazily, on first use.
+     *
+     * @param dataFile the file holding the stored pages
+     * @param pageSize the size of an uncompressed page
+     */
+    public PageOffsetMap(File dataFile, int pageSize) {
+        this.dataFile = dataFile;
+        this.sidecar = new File(dataFile.getPath() + SUFFIX);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the sidecar file the map is persisted in
+     */
+    public File getSidecar() {
+        return sidecar;
+    }
+
+    /**
+     * @return the number of pages in the map
+     * @throws UncheckedIOException if the sidecar file cannot be read
+     */
+    public synchronized int size() {
+        loadUnchecked();
+        return size;
+    }
+
+    /**
+     * @return the offset of the stored bytes of page pgNo in the data file
+     */
+    public synchronized long getOffset(int pgNo) throws IOException {
+        load();
+        checkPage(pgNo);
+        return offsets[pgNo];
+    }
+
+    /**
+     * @return the number of stored bytes of page pgNo, 0 if it is all zeroes
+     */
+    public synchronized int getLength(int pgNo) throws IOException {
+        load();
+        checkPage(pgNo);
+        return lengths[pgNo];
+    }
+
+    /**
+     * @return the codec page pgNo was stored with
+     */
+    public synchronized byte getCodec(int pgNo) throws IOException {
+        load();
+        checkPage(pgNo);
+        return codecs[pgNo];
+    }
+
+    /**
+     * @return the total number of stored bytes over all pages
+     * @throws UncheckedIOException if the sidecar file cannot be read
+     */
+    public synchronized long getStoredBytes() {
+        loadUnchecked();
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += lengths[i];
+        }
+        return total;
+    }
+
+    private void checkPage(int pgNo) {
+        if (pgNo < 0 || pgNo >= size) {
+            throw new IllegalArgumentException("page " + pgNo + " is not in the map");
+        }
+    }
+
+    /**
+     * Returns the offset at which length bytes of page pgNo should be
+     * written: where the page is now if they fit in its reserved space,
+     * otherwise the end of the data file, which is reserved for the page.
+     * The caller must write the bytes and then call {@link #set}, holding
+     * the lock on this map throughout.
+     */
+    public synchronized long place(int pgNo, int length) throws IOException {
+        load();
+        checkPage(pgNo);
+        if (length <= capacities[pgNo]) {
+            return offsets[pgNo];
+        }
+        return end;
+    }
+
+    /**
+     * Records that page pgNo is stored as length bytes at offset.
+     */
+    public synchronized void set(int pgNo, long offset, int length, byte codec) throws IOException {
+        load();
+        checkPage(pgNo);
+        if (offset != offsets[pgNo] || length > capacities[pgNo]) {
+            capacities[pgNo] = length;
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        codecs[pgNo] = codec;
+        end = Math.max(end, offset + capacities[pgNo]);
+        writeEntries(pgNo, pgNo + 1);
+    }
+
+    /**
+     * Adds empty pages to the end of the map until it has numPages pages.
+     * Empty pages take no space in the data file until they are written.
+     */
+    public synchronized void extend(int numPages) throws IOException {
+        load();
+        if (numPages <= size) {
+            return;
+        }
+        int from = size;
+        ensureCapacity(numPages);
+        for (int i = from; i < numPages; i++) {
+            offsets[i] = end;
+            lengths[i] = 0;
+            capacities[i] = 0;
+            codecs[i] = 0;
+        }
+        size = numPages;
+        writeEntries(from, numPages);
+    }
+
+    /**
+     * Drops the pages from numPages on, and shortens the data file to end
+     * with the last of the remaining pages.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        load();
+        if (numPages >= size) {
+            return;
+        }
+        size = numPages;
+        end = 0;
+        for (int i = 0; i < size; i++) {
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+            raf.setLength((long) size * ENTRY_SIZE);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+            raf.setLength(end);
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > offsets.length) {
+            int cap = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, cap);
+            lengths = Arrays.copyOf(lengths, cap);
+            capacities = Arrays.copyOf(capacities, cap);
+            codecs = Arrays.copyOf(codecs, cap);
+        }
+    }
+
+    private void loadUnchecked() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the map from the sidecar file the first time it is needed. If
+     * that fails the map stays unloaded, so that nothing is written over
+     * the pages it would have listed, and the next use tries again.
+     */
+    private void load() throws IOException {
+        if (size >= 0) {
+            return;
+        }
+        offsets = new long[16];
+        lengths = new int[16];
+        capacities = new int[16];
+        codecs = new byte[16];
+        end = 0;
+        int n = 0;
+        if (sidecar.exists() && sidecar.lastModified() >= dataFile.lastModified()) {
+            n = (int) (sidecar.length() / ENTRY_SIZE);
+            ensureCapacity(n);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    capacities[i] = in.readInt();
+                    codecs[i] = in.readByte();
+                    end = Math.max(end, offsets[i] + capacities[i]);
+                }
+            } catch (IOException e) {
+                throw new IOException("could not read page offset map " + sidecar, e);
+            }
+        } else if (dataFile.length() > 0) {
+            // an uncompressed heap file; every page is stored raw in place
+            n = (int) (dataFile.length() / pageSize);
+            ensureCapacity(n);
+            for (int i = 0; i < n; i++) {
+                offsets[i] = (long) i * pageSize;
+                lengths[i] = pageSize;
+                capacities[i] = pageSize;
+            }
+            end = (long) n * pageSize;
+            writeEntries(0, n);
+        }
+        size = n;
+    }
+
+    private void writeEntries(int from, int to) throws IOException {
+        byte[] bytes = new byte[(to - from) * ENTRY_SIZE];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        for (int i = from; i < to; i++) {
+            buf.putLong(offsets[i]).putInt(lengths[i]).putInt(capacities[i]).put(codecs[i]);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+            raf.seek((long) from * ENTRY_SIZE);
+            raf.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.storage;
+
+/**
+ * PageRangePartition is a FilePartition of a file made of numbered pages,
+ * covering the pages in [fromPage, toPage). It splits at the middle page.
+ */
+public class PageRangePartition implements FilePartition {
+
+    /**
+     * Creates the iterator over a range of pages of a file.
+     */
+    public interface RangeScanner {
+        DbFileIterator iterator(int fromPage, int toPage);
+    }
+
+    private int fromPage;
+    private final int toPage;
+    private final RangeScanner scanner;
+
+    /**
+     * Constructor.
+     *
+     * @param fromPage the first page of the partition
+     * @param toPage one past the last page of the partition
+     * @param scanner creates the iterator over the pages of a partition
+     */
+    public PageRangePartition(int fromPage, int toPage, RangeScanner scanner) {
+        this.fromPage = fromPage;
+        this.toPage = Math.max(fromPage, toPage);
+        this.scanner = scanner;
+    }
+
+    public FilePartition trySplit() {
+        if (toPage - fromPage < 2) {
+            return null;
+        }
+        int mid = fromPage + (toPage - fromPage) / 2;
+        FilePartition prefix = new PageRangePartition(fromPage, mid, scanner);
+        fromPage = mid;
+        return prefix;
+    }
+
+    public int estimatePages() {
+        return toPage - fromPage;
+    }
+
+    public DbFileIterator iterator() {
+        return scanner.iterator(fromPage, toPage);
+    }
+
+    @Override
+    public String toString() {
+        return "pages [" + fromPage + ", " + toPage + ")";
+    }
+}
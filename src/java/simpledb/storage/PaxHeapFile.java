@@ -0,0 +1,63 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages use the PAX layout of
+ * {@link PaxHeapPage}: every tuple still lives on a single page, so inserts
+ * and deletes touch one page as before, but within a page the values of
+ * each field are stored together. Scans that read only a few fields, such
+ * as a SeqScan over some fields (see {@link #iterator(simpledb.transaction.TransactionId, int[])}),
+ * decode them from contiguous bytes.
+ * <p>
+ * Apart from the page layout, a PaxHeapFile behaves exactly like a
+ * HeapFile. Files written by HeapFileEncoder use the row layout; use
+ * {@link #convert} to rewrite them.
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a heap file in the PAX layout backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the tuples in the file
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+
+    /**
+     * Rewrites a file of HeapPages of the given schema, such as one written
+     * by HeapFileEncoder, into a file of PaxHeapPages holding the same
+     * tuples in the same slots.
+     *
+     * @param rowFile the file in the row layout
+     * @param paxFile the file to write; may be rowFile itself
+     * @param td the schema of the tuples in the file
+     */
+    public static void convert(File rowFile, File paxFile, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] page = new byte[pageSize];
+        try (RandomAccessFile in = new RandomAccessFile(rowFile, "r");
+             RandomAccessFile out = new RandomAccessFile(paxFile, "rw")) {
+            long numPages = in.length() / pageSize;
+            for (long i = 0; i < numPages; i++) {
+                in.seek(i * pageSize);
+                in.readFully(page);
+                out.seek(i * pageSize);
+                out.write(PaxHeapPage.fromRowLayout(page, td));
+            }
+            out.setLength(numPages * pageSize);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * PaxHeapPage is a HeapPage in the PAX (partition attributes across)
+ * layout. It holds the same tuples in the same slots as a HeapPage, behind
+ * the same slot bitmap, but groups the values of each field together
+ * instead of storing the fields of each tuple together: after the header
+ * come the values of field 0 for every slot, then those of field 1, and so
+ * on. A scan that needs a few fields of every tuple then reads each of them
+ * from one contiguous run of bytes, while a tuple still lives on a single
+ * page.
+ * <p>
+ * Value i of field j is at headerSize + numSlots * (the size of the fields
+ * before j) + i * (the size of field j).
+ *
+ * @see PaxHeapFile
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /** offset of the values of each field */
+    private final int[] fieldStart;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.fieldStart = fieldStarts(td, numSlots, headerSize);
+    }
+
+    private static int[] fieldStarts(TupleDesc td, int numSlots, int headerSize) {
+        int[] starts = new int[td.numFields()];
+        int offset = headerSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            starts[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        return starts;
+    }
+
+    @Override
+    protected HeapPage newPage(HeapPageId id, byte[] data) throws IOException {
+        return new PaxHeapPage(id, data);
+    }
+
+    @Override
+    protected int fieldOffset(int slotId, int fieldNo) {
+        return fieldStart[fieldNo] + slotId * td.getFieldType(fieldNo).getLen();
+    }
+
+    /**
+     * Rearranges the bytes of a HeapPage of the given schema into those of
+     * a PaxHeapPage holding the same tuples in the same slots.
+     */
+    public static byte[] fromRowLayout(byte[] rowData, TupleDesc td) {
+        int numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] starts = fieldStarts(td, numSlots, headerSize);
+        byte[] pax = new byte[BufferPool.getPageSize()];
+        System.arraycopy(rowData, 0, pax, 0, headerSize);
+        for (int i = 0; i < numSlots; i++) {
+            int rowOffset = headerSize + i * td.getSize();
+            for (int j = 0; j < td.numFields(); j++) {
+                int len = td.getFieldType(j).getLen();
+                System.arraycopy(rowData, rowOffset, pax, starts[j] + i * len, len);
+                rowOffset += len;
+            }
+        }
+        return pax;
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * RowPage is a row page of a ColumnFile. It allocates the row numbers of
+ * one row group and records which of those rows are live; the values of
+ * the rows are on the column pages. Row r of the file is slot
+ * r % getMaxRows() of row page r / getMaxRows().
+ * <p>
+ * The page holds the number of slots allocated so far, as an int, followed
+ * by a bitmap with one bit per slot that is set while the row is live.
+ * Slots are allocated in order and never reused, so deleted rows keep
+ * their place in the columns. An all-zero page is a valid, empty page.
+ *
+ * @see ColumnFile
+ */
+public class RowPage implements Page {
+
+    /** Bytes in the page header: the number of allocated slots */
+    public static final int HEADER_SIZE = 4;
+
+    final ColumnPageId pid;
+    byte[] data;
+    ByteBuffer buf;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    TransactionId dirtier;
+
+    /**
+     * Create a RowPage from a set of bytes of data read from disk.
+     */
+    public RowPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.data = data.length >= BufferPool.getPageSize() ? data : Arrays.copyOf(data, BufferPool.getPageSize());
+        this.buf = ByteBuffer.wrap(this.data);
+    }
+
+    /**
+     * @return the number of rows a row page of the current page size holds
+     */
+    public static int getMaxRows() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) * 8;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public RowPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return new RowPage(pid, oldData != null ? oldData : data);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Saves the current bytes as the before image, unless one has been saved
+     * since the last call to setBeforeImage, and goes on modifying a copy.
+     */
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = data;
+                data = data.clone();
+                buf = ByteBuffer.wrap(data);
+            }
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return the number of slots allocated on this page, live or not
+     */
+    public int getNumRows() {
+        return buf.getInt(0);
+    }
+
+    /**
+     * @return true if no more rows can be allocated on this page
+     */
+    public boolean isFull() {
+        return getNumRows() >= getMaxRows();
+    }
+
+    /**
+     * @return true if slot i holds a live row
+     */
+    public boolean isLive(int i) {
+        if (i < 0 || i >= getNumRows()) {
+            return false;
+        }
+        return (data[HEADER_SIZE + i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * @return the number of live rows on this page
+     */
+    public int getNumLive() {
+        int n = 0;
+        for (int i = HEADER_SIZE; i < HEADER_SIZE + (getNumRows() + 7) / 8; i++) {
+            n += Integer.bitCount(data[i] & 0xFF);
+        }
+        return n;
+    }
+
+    /**
+     * Allocates the next slot as a live row.
+     *
+     * @return the slot allocated
+     * @throws DbException if the page is full
+     */
+    public int allocate() throws DbException {
+        int slot = getNumRows();
+        if (slot >= getMaxRows()) {
+            throw new DbException("row page is full");
+        }
+        captureBeforeImage();
+        data[HEADER_SIZE + slot / 8] |= (byte) (1 << (slot % 8));
+        buf.putInt(0, slot + 1);
+        return slot;
+    }
+
+    /**
+     * Marks the row in slot i as deleted.
+     *
+     * @throws DbException if slot i does not hold a live row
+     */
+    public void delete(int i) throws DbException {
+        if (!isLive(i)) {
+            throw new DbException("row " + i + " of " + pid + " is not live");
+        }
+        captureBeforeImage();
+        data[HEADER_SIZE + i / 8] &= (byte) ~(1 << (i % 8));
+    }
+}
@@ -0,0 +1,237 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a DbFile that, like HeapFile, stores a collection of
+ * tuples in no particular order, but on SlottedPages, so that VARCHAR fields
+ * only take the space their characters need. Tables with short strings fit
+ * on far fewer pages than they would in a HeapFile.
+ * <p>
+ * Since records vary in size, whether a page has room depends on the tuple
+ * being inserted. The file keeps a hint of the free bytes on every page it
+ * has read or written, and inserts only visit pages whose hint says the
+ * tuple could fit.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int tableId;
+    /** free bytes per page as last seen, or -1 if the page has not been seen */
+    private int[] freeHints;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file.
+     * @param td
+     *            the schema of the tuples in the file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.freeHints = new int[0];
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid == null || pid.getTableId() != getId()) {
+            throw new IllegalArgumentException("ID doesn't match in SlottedHeapFile");
+        }
+        byte[] buffer = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek((long) pid.getPageNumber() * BufferPool.getPageSize());
+            raf.read(buffer, 0, buffer.length);
+            SlottedPage page = new SlottedPage((HeapPageId) pid, buffer);
+            setFreeHint(pid.getPageNumber(), page.getFreeSpace());
+            return page;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        }
+        setFreeHint(page.getId().getPageNumber(), ((SlottedPage) page).getFreeSpace());
+    }
+
+    private synchronized void setFreeHint(int pgNo, int free) {
+        if (pgNo >= freeHints.length) {
+            int oldLength = freeHints.length;
+            freeHints = Arrays.copyOf(freeHints, Math.max(pgNo + 1, oldLength * 2));
+            Arrays.fill(freeHints, oldLength, freeHints.length, -1);
+        }
+        freeHints[pgNo] = free;
+    }
+
+    /**
+     * Returns the first page at or after from whose free space hint says a
+     * record of need bytes could fit, or -1. The last page is always tried if
+     * nothing is known about it.
+     */
+    private synchronized int nextCandidate(int from, int numPages, int need) {
+        for (int i = from; i < numPages; i++) {
+            int hint = i < freeHints.length ? freeHints[i] : -1;
+            if (hint >= need || (hint < 0 && i == numPages - 1)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int need = SlottedPage.getRecordSize(td, t);
+        int numPages = numPages();
+        for (int i = nextCandidate(0, numPages, need); i >= 0; i = nextCandidate(i + 1, numPages, need)) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = bufferPool.holdsLock(tid, pid);
+            SlottedPage page = (SlottedPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+            if (page.canHold(t)) {
+                page.insertTuple(t);
+                page.markDirty(true, tid);
+                setFreeHint(i, page.getFreeSpace());
+                return Collections.singletonList(page);
+            }
+            setFreeHint(i, page.getFreeSpace());
+            if (!held) {
+                bufferPool.unsafeReleasePage(tid, pid);
+            }
+        }
+
+        // no page has room; an all-zero page is an empty SlottedPage
+        HeapPageId pid;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength((long) (pid.getPageNumber() + 1) * BufferPool.getPageSize());
+            }
+        }
+        SlottedPage page = (SlottedPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        page.markDirty(true, tid);
+        setFreeHint(pid.getPageNumber(), page.getFreeSpace());
+        return Collections.singletonList(page);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        setFreeHint(rid.getPageId().getPageNumber(), page.getFreeSpace());
+        return Collections.singletonList(page);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a partition of the pages this file has now, which splits into
+     * ranges of pages.
+     */
+    @Override
+    public FilePartition partition(TransactionId tid) {
+        return new PageRangePartition(0, numPages(),
+                (fromPage, toPage) -> iterator(tid, fromPage, toPage));
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages [fromPage, toPage), or
+     * as many of them as the file has.
+     */
+    private DbFileIterator iterator(TransactionId tid, int fromPage, int toPage) {
+        return new AbstractDbFileIterator() {
+            private int pgNo;
+            private Iterator<Tuple> it;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                pgNo = fromPage;
+                it = pageIterator(pgNo);
+            }
+
+            private Iterator<Tuple> pageIterator(int pgNo) throws DbException, TransactionAbortedException {
+                if (pgNo >= toPage || pgNo >= numPages()) {
+                    return null;
+                }
+                SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(
+                        tid, new HeapPageId(getId(), pgNo), Permissions.READ_ONLY);
+                return page.iterator();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it != null) {
+                    if (it.hasNext()) {
+                        return it.next();
+                    }
+                    it = pageIterator(++pgNo);
+                }
+                return null;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,403 @@
+package simpledb.storage;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedHeapFile.
+ * Unlike HeapPage, records are variable length: VARCHAR fields take only as
+ * many bytes as they have characters.
+ * <p>
+ * The page starts with a header of two unsigned shorts, the number of slots
+ * in the slot directory and the offset at which the record area begins. The
+ * slot directory follows, one entry of two unsigned shorts (record offset
+ * and record length) per slot; an offset of 0 marks an empty slot. Records
+ * are packed at the end of the page and grow towards the slot directory.
+ * An all-zero page is a valid, empty page.
+ * <p>
+ * Within a record, fields are stored one after the other: INT_TYPE as 4
+ * bytes, STRING_TYPE as its fixed getLen() bytes, and VARCHAR_TYPE as an
+ * unsigned short length followed by the characters.
+ * <p>
+ * Deleting a record leaves a hole in the record area; holes are reclaimed by
+ * {@link #compact}, which insertTuple calls when the free space is there but
+ * not in one piece. Slot numbers, and so RecordIds, do not change when the
+ * page is compacted.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes in the page header: slot count and start of the record area */
+    public static final int HEADER_SIZE = 4;
+    /** Bytes in a slot directory entry: record offset and record length */
+    public static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** The bytes of this page; never written to once handed out as a before image */
+    byte[] data;
+    ByteBuffer buf;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    TransactionId dirtier;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     *
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        if (BufferPool.getPageSize() > 0xFFFF) {
+            throw new IOException("slotted pages cannot be larger than 65535 bytes");
+        }
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data.length >= BufferPool.getPageSize() ? data : Arrays.copyOf(data, BufferPool.getPageSize());
+        this.buf = ByteBuffer.wrap(this.data);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData != null ? oldData : data;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /**
+     * Saves the current bytes as the before image, unless one has been saved
+     * since the last call to setBeforeImage, and goes on modifying a copy.
+     */
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = data;
+                data = data.clone();
+                buf = ByteBuffer.wrap(data);
+            }
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    private int getUShort(int offset) {
+        return buf.getShort(offset) & 0xFFFF;
+    }
+
+    private void putUShort(int offset, int value) {
+        buf.putShort(offset, (short) value);
+    }
+
+    /**
+     * @return the number of entries in the slot directory, used or not
+     */
+    public int getNumSlots() {
+        return getUShort(0);
+    }
+
+    private int getRecordStart() {
+        int start = getUShort(2);
+        return start == 0 ? BufferPool.getPageSize() : start;
+    }
+
+    private int slotOffset(int slot) {
+        return getUShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getUShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putUShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putUShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * @return the number of bytes between the slot directory and the record
+     *         area, which an insert can use without compacting the page
+     */
+    private int getContiguousFreeSpace() {
+        return getRecordStart() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    /**
+     * @return the number of bytes not taken by the header, the slot directory
+     *         or records, holes left by deletes included
+     */
+    public int getFreeSpace() {
+        int used = HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+        for (int i = 0; i < getNumSlots(); i++) {
+            used += slotLength(i);
+        }
+        return BufferPool.getPageSize() - used;
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a slotted page
+     */
+    public static int getRecordSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += getFieldSize(td.getFieldType(j), t.getField(j));
+        }
+        return size;
+    }
+
+    private static int getFieldSize(Type type, Field f) {
+        if (type == Type.VARCHAR_TYPE) {
+            return 2 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+        }
+        return type.getLen();
+    }
+
+    /**
+     * @return true if t fits on this page, possibly after compaction
+     */
+    public boolean canHold(Tuple t) {
+        int need = getRecordSize(td, t);
+        if (findEmptySlot() < 0) {
+            need += SLOT_SIZE;
+        }
+        return need <= getFreeSpace();
+    }
+
+    private int findEmptySlot() {
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (slotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("type mismatch, in insertTuple");
+        }
+        if (!canHold(t)) {
+            throw new DbException("not enough free space on page");
+        }
+        captureBeforeImage();
+
+        int slot = findEmptySlot();
+        int need = getRecordSize(td, t) + (slot < 0 ? SLOT_SIZE : 0);
+        if (getContiguousFreeSpace() < need) {
+            compact();
+        }
+        if (slot < 0) {
+            slot = getNumSlots();
+            putUShort(0, slot + 1);
+            setSlot(slot, 0, 0);
+        }
+
+        int length = getRecordSize(td, t);
+        int offset = getRecordStart() - length;
+        int pos = offset;
+        for (int j = 0; j < td.numFields(); j++) {
+            pos += writeField(td.getFieldType(j), t.getField(j), pos);
+        }
+        putUShort(2, offset);
+        setSlot(slot, offset, length);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    private int writeField(Type type, Field f, int offset) {
+        if (type == Type.VARCHAR_TYPE) {
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            putUShort(offset, len);
+            for (int i = 0; i < len; i++) {
+                buf.put(offset + 2 + i, (byte) s.charAt(i));
+            }
+            return 2 + len;
+        }
+        f.serialize(buf, offset);
+        return type.getLen();
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its space becomes a hole
+     * that is reclaimed by the next compaction.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("tried to delete tuple that is not on this page");
+        }
+        captureBeforeImage();
+        setSlot(rid.getTupleNumber(), 0, 0);
+
+        // drop empty slots from the end of the directory
+        int numSlots = getNumSlots();
+        while (numSlots > 0 && slotOffset(numSlots - 1) == 0) {
+            numSlots--;
+        }
+        putUShort(0, numSlots);
+        if (numSlots == 0) {
+            putUShort(2, 0);
+        }
+    }
+
+    /**
+     * Moves every record to the end of the page, so that all free space is
+     * between the slot directory and the record area. Slot numbers do not
+     * change.
+     */
+    public void compact() {
+        captureBeforeImage();
+        byte[] old = data.clone();
+        int pos = BufferPool.getPageSize();
+        for (int i = 0; i < getNumSlots(); i++) {
+            int offset = slotOffset(i);
+            if (offset == 0) {
+                continue;
+            }
+            int length = slotLength(i);
+            pos -= length;
+            System.arraycopy(old, offset, data, pos, length);
+            setSlot(i, pos, length);
+        }
+        int directoryEnd = HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+        Arrays.fill(data, directoryEnd, pos, (byte) 0);
+        putUShort(2, pos == BufferPool.getPageSize() ? 0 : pos);
+    }
+
+    /**
+     * Returns the tuple in slot slotId.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int pos = slotOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.VARCHAR_TYPE) {
+                int len = getUShort(pos);
+                byte[] bs = new byte[len];
+                for (int i = 0; i < len; i++) {
+                    bs[i] = buf.get(pos + 2 + i);
+                }
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN, type));
+                pos += 2 + len;
+            } else {
+                t.setField(j, type.parse(buf, pos));
+                pos += type.getLen();
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < getNumSlots() && !isSlotUsed(from)) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < getNumSlots();
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+        };
+    }
+}
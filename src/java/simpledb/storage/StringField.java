@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -14,6 +15,7 @@ public class StringField implements Field {
 
 	private final String value;
 	private final int maxSize;
+	private final Type type;
 
 	public String getValue() {
 		return value;
@@ -28,7 +30,23 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor for a value of a column declared with the given string
+	 * type, which {@link #getType()} then reports.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            STRING_TYPE or VARCHAR_TYPE
+	 */
+	public StringField(String s, int maxSize, Type type) {
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -69,6 +87,19 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into buf at offset, in the same format as
+	 * {@link #serialize(DataOutputStream)}.
+	 */
+	public void serialize(ByteBuffer buf, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(offset, len);
+		for (int i = 0; i < len; i++)
+			buf.put(offset + 4 + i, (byte) value.charAt(i));
+		for (int i = len; i < maxSize; i++)
+			buf.put(offset + 4 + i, (byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -109,10 +140,10 @@ public class StringField implements Field {
 	}
 
 	/**
-	 * @return the Type for this Field
+	 * @return the Type for this Field: the type of the column it was read
+	 *         from, STRING_TYPE unless given to the constructor
 	 */
 	public Type getType() {
-
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -3,19 +3,29 @@ package simpledb.storage;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * To keep tuples small, the values of int fields are not stored as
+ * IntFields: they live in a single int[] slab, followed by a bitmap of the
+ * fields that hold an int. Other fields are kept as the Fields they were
+ * set to. getField creates an IntField on demand; code on a hot path reads
+ * and writes int fields with {@link #getInt} and {@link #setInt} instead,
+ * and copies fields between tuples with {@link #copyFields}.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
     private RecordId recordId;
-    private List<Field> fields;
+    private final int numFields;
+    /** the int values, then one bit per field that holds an int */
+    private final int[] slab;
+    /** the fields that hold something other than an int, or null if none do */
+    private Field[] others;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -28,7 +38,8 @@ public class Tuple implements Serializable {
         // some code goes here
         this.td = td;
         this.recordId = null;
-        this.fields = Arrays.asList(new Field[td.numFields()]);
+        this.numFields = td.numFields();
+        this.slab = new int[numFields + (numFields + 31) / 32];
     }
 
     /**
@@ -59,6 +70,30 @@ public class Tuple implements Serializable {
         this.recordId = rid;
     }
 
+    private void checkIndex(int i) {
+        if (i < 0 || i >= numFields) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * @return true if field i holds an int, set through setInt or as an
+     *         IntField
+     */
+    public boolean isInt(int i) {
+        checkIndex(i);
+        return (slab[numFields + (i >>> 5)] & (1 << i)) != 0;
+    }
+
+    private void markInt(int i, boolean isInt) {
+        int word = numFields + (i >>> 5);
+        if (isInt) {
+            slab[word] |= 1 << i;
+        } else {
+            slab[word] &= ~(1 << i);
+        }
+    }
+
     /**
      * Change the value of the ith field of this tuple.
      *
@@ -69,11 +104,32 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) throws IndexOutOfBoundsException {
         // some code goes here
+        checkIndex(i);
+        if (f instanceof IntField) {
+            setInt(i, ((IntField) f).getValue());
+            return;
+        }
+        if (others == null) {
+            if (f == null) {
+                markInt(i, false);
+                return;
+            }
+            others = new Field[numFields];
+        }
+        others[i] = f;
+        markInt(i, false);
+    }
 
-        if (i >= 0 && i < this.fields.size()) {
-            this.fields.set(i, f);
-        } else {
-            throw new IndexOutOfBoundsException();
+    /**
+     * Sets the ith field of this tuple to an int, without creating an
+     * IntField.
+     */
+    public void setInt(int i, int value) throws IndexOutOfBoundsException {
+        checkIndex(i);
+        slab[i] = value;
+        markInt(i, true);
+        if (others != null) {
+            others[i] = null;
         }
     }
 
@@ -85,7 +141,38 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return this.fields.get(i);
+        if (isInt(i)) {
+            return new IntField(slab[i]);
+        }
+        return others == null ? null : others[i];
+    }
+
+    /**
+     * @return the value of the ith field, which must be an int, without
+     *         creating an IntField.
+     */
+    public int getInt(int i) {
+        if (isInt(i)) {
+            return slab[i];
+        }
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Copies the fields of another tuple into fields
+     * [offset, offset + from.getTupleDesc().numFields()) of this one, as
+     * setField(offset + i, from.getField(i)) would, without creating
+     * IntFields.
+     */
+    public void copyFields(Tuple from, int offset) {
+        int n = from.numFields;
+        for (int i = 0; i < n; i++) {
+            if (from.isInt(i)) {
+                setInt(offset + i, from.slab[i]);
+            } else {
+                setField(offset + i, from.others == null ? null : from.others[i]);
+            }
+        }
     }
 
     /**
@@ -98,18 +185,14 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
-        if (fields == null || fields.size() == 0) {
-            return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numFields; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(getField(i));
         }
-        String finalResult = fields.get(0).toString();
-        if (fields.size() == 1) {
-            return finalResult;
-        }
-        for (int i = 1; i < fields.size(); i++) {
-            finalResult = String.join(" ", finalResult, fields.get(i).toString());
-        }
-
-        return finalResult;
+        return sb.toString();
     }
 
     /**
@@ -118,7 +201,11 @@ public class Tuple implements Serializable {
      */
     public Iterator<Field> fields() {
         // some code goes here
-        return this.fields.iterator();
+        Field[] fields = new Field[numFields];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = getField(i);
+        }
+        return Arrays.asList(fields).iterator();
     }
 
     /**
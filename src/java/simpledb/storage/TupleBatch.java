@@ -0,0 +1,292 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds a batch of rows of one schema column by column: the
+ * values of an INT_TYPE field in an int[], those of a string field in a
+ * String[]. Operators that work on batches (see
+ * {@link simpledb.execution.OpIterator#nextBatch}) loop over these arrays
+ * instead of handling one Tuple, and one Field per value, at a time.
+ * <p>
+ * A batch has a selection vector naming the rows that are part of it, in
+ * order: a filter drops rows by narrowing the selection, without moving any
+ * values. Methods that take a row take the index of a row in the column
+ * arrays; {@link #row(int)} maps the i-th selected row to it.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the number of rows operators put in a batch */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private TupleDesc td;
+    private int[][] ints;
+    private String[][] strings;
+    /** the page and slot each row came from, or null pages for rows without a RecordId */
+    private PageId[] pages;
+    private int[] slots;
+    private int numRows;
+    /** the selected rows, or null if all rows are selected */
+    private int[] selection;
+    private int numSelected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the number of rows to make room for; the batch grows
+     *        past it when needed
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        capacity = Math.max(capacity, 1);
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int c = 0; c < td.numFields(); c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE) {
+                ints[c] = new int[capacity];
+            } else {
+                strings[c] = new String[capacity];
+            }
+        }
+        this.pages = new PageId[capacity];
+        this.slots = new int[capacity];
+    }
+
+    private TupleBatch(TupleDesc td) {
+        this.td = td;
+    }
+
+    /**
+     * @return the schema of the rows of this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Relabels the rows of this batch with a schema of the same types, such
+     * as the same fields under other names.
+     */
+    public void resetTupleDesc(TupleDesc td) {
+        this.td = td;
+    }
+
+    /**
+     * @return the number of rows in the column arrays, selected or not
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return selection == null ? numRows : numSelected;
+    }
+
+    /**
+     * @return the index in the column arrays of the i-th selected row
+     */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * Narrows the batch to the given rows, which must be selected now and
+     * in increasing order. The array is owned by the batch afterwards.
+     *
+     * @param rows the indexes in the column arrays of the rows to keep
+     * @param n the number of entries of rows to use
+     */
+    public void select(int[] rows, int n) {
+        this.selection = rows;
+        this.numSelected = n;
+    }
+
+    /**
+     * @return true if field c is stored as ints
+     */
+    public boolean isInt(int c) {
+        return ints[c] != null;
+    }
+
+    /**
+     * @return the values of INT_TYPE field c; only the first numRows()
+     *         entries are rows of this batch
+     */
+    public int[] intColumn(int c) {
+        return ints[c];
+    }
+
+    /**
+     * @return the values of string field c; only the first numRows()
+     *         entries are rows of this batch
+     */
+    public String[] stringColumn(int c) {
+        return strings[c];
+    }
+
+    public int getInt(int c, int row) {
+        return ints[c][row];
+    }
+
+    public String getString(int c, int row) {
+        return strings[c][row];
+    }
+
+    /**
+     * @return the value of field c of a row as a Field
+     */
+    public Field getField(int c, int row) {
+        if (ints[c] != null) {
+            return new IntField(ints[c][row]);
+        }
+        return new StringField(strings[c][row], Type.STRING_LEN, td.getFieldType(c));
+    }
+
+    public void setInt(int c, int row, int value) {
+        ints[c][row] = value;
+    }
+
+    public void setString(int c, int row, String value) {
+        strings[c][row] = value;
+    }
+
+    /**
+     * Sets field c of a row to the value of f, which must be of the type of
+     * the field.
+     */
+    public void setField(int c, int row, Field f) {
+        if (ints[c] != null) {
+            ints[c][row] = ((IntField) f).getValue();
+        } else {
+            strings[c][row] = ((StringField) f).getValue();
+        }
+    }
+
+    /**
+     * @return the RecordId of a row, or null if it has none
+     */
+    public RecordId getRecordId(int row) {
+        return pages[row] == null ? null : new RecordId(pages[row], slots[row]);
+    }
+
+    /**
+     * Records that a row is the tuple in the given slot of the given page.
+     */
+    public void setRecordId(int row, PageId pid, int slot) {
+        pages[row] = pid;
+        slots[row] = slot;
+    }
+
+    /**
+     * Appends an empty row, selected if the batch has a selection vector.
+     *
+     * @return the index of the row in the column arrays
+     */
+    public int addRow() {
+        if (numRows == pages.length) {
+            grow(numRows * 2);
+        }
+        if (selection != null) {
+            if (numSelected == selection.length) {
+                selection = Arrays.copyOf(selection, numSelected * 2);
+            }
+            selection[numSelected++] = numRows;
+        }
+        return numRows++;
+    }
+
+    private void grow(int capacity) {
+        for (int c = 0; c < td.numFields(); c++) {
+            if (ints[c] != null) {
+                ints[c] = Arrays.copyOf(ints[c], capacity);
+            } else {
+                strings[c] = Arrays.copyOf(strings[c], capacity);
+            }
+        }
+        pages = Arrays.copyOf(pages, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+    }
+
+    /**
+     * Appends the fields of t, and its RecordId, as a new row.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int c = 0; c < td.numFields(); c++) {
+            if (ints[c] != null) {
+                ints[c][row] = t.getInt(c);
+            } else {
+                setField(c, row, t.getField(c));
+            }
+        }
+        RecordId rid = t.getRecordId();
+        if (rid != null) {
+            setRecordId(row, rid.getPageId(), rid.getTupleNumber());
+        }
+    }
+
+    /**
+     * Copies the fields of a row of another batch into fields
+     * [offset, offset + from.getTupleDesc().numFields()) of a row of this
+     * one.
+     */
+    public void copyRow(TupleBatch from, int fromRow, int row, int offset) {
+        for (int c = 0; c < from.td.numFields(); c++) {
+            if (from.ints[c] != null) {
+                ints[offset + c][row] = from.ints[c][fromRow];
+            } else {
+                strings[offset + c][row] = from.strings[c][fromRow];
+            }
+        }
+    }
+
+    /**
+     * @return the i-th selected row as a Tuple of the schema of this batch
+     */
+    public Tuple getTuple(int i) {
+        int row = row(i);
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < td.numFields(); c++) {
+            if (ints[c] != null) {
+                t.setInt(c, ints[c][row]);
+            } else {
+                t.setField(c, getField(c, row));
+            }
+        }
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * Returns a batch of the same rows holding only some of the fields of
+     * this one. The column arrays and the selection are shared, not copied,
+     * so this batch must not change afterwards.
+     *
+     * @param fields the fields of this batch to keep, in the order to keep them
+     * @param td the schema of the returned batch
+     */
+    public TupleBatch project(int[] fields, TupleDesc td) {
+        TupleBatch b = new TupleBatch(td);
+        b.ints = new int[fields.length][];
+        b.strings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            b.ints[i] = ints[fields[i]];
+            b.strings[i] = strings[fields[i]];
+        }
+        b.pages = pages;
+        b.slots = slots;
+        b.numRows = numRows;
+        b.selection = selection;
+        b.numSelected = numSelected;
+        return b;
+    }
+}
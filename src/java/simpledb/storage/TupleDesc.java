@@ -7,6 +7,11 @@ import java.util.*;
 
 /**
  * TupleDesc describes the schema of a tuple.
+ * <p>
+ * A TupleDesc does not change once built, so the byte offset of every
+ * field, the size of a tuple and the index of every field name are worked
+ * out once, when it is constructed; the per-tuple path reads them without
+ * recomputing anything.
  */
 public class TupleDesc implements Serializable {
 
@@ -16,6 +21,10 @@ public class TupleDesc implements Serializable {
 
     private List<TDItem> tdItems;
     private Integer numFields;
+    /** byte offset of each field within a tuple, then the size of a tuple */
+    private int[] offsets;
+    /** index of the first field with each name */
+    private Map<String, Integer> nameIndex;
 
     public static class TDItem implements Serializable {
 
@@ -80,6 +89,7 @@ public class TupleDesc implements Serializable {
             tdItems.add(newTDItem);
 
         }
+        resolve();
     }
 
     /**
@@ -99,6 +109,20 @@ public class TupleDesc implements Serializable {
     public TupleDesc(List<TDItem> tditems) {
         this.tdItems = tditems;
         this.numFields = tditems.size();
+        resolve();
+    }
+
+    /** Works out the offsets and the name index from tdItems. */
+    private void resolve() {
+        offsets = new int[numFields + 1];
+        nameIndex = new HashMap<>();
+        for (int i = 0; i < numFields; i++) {
+            TDItem item = tdItems.get(i);
+            offsets[i + 1] = offsets[i] + item.fieldType.getLen();
+            if (item.fieldName != null) {
+                nameIndex.putIfAbsent(item.fieldName, i);
+            }
+        }
     }
 
     /**
@@ -157,18 +181,11 @@ public class TupleDesc implements Serializable {
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
         // some code goes here
-        try {
-            for (int i = 0; i < tdItems.size(); i++) {
-                if (name != null && tdItems.get(i).fieldName != null) {
-                    if (tdItems.get(i).fieldName.equals(name)) {
-                        return i;
-                    }
-                }
-            }
-        } catch (Exception e2) {
-            throw e2;
+        Integer i = name == null ? null : nameIndex.get(name);
+        if (i == null) {
+            throw new NoSuchElementException("field name not found");
         }
-        throw new NoSuchElementException("field name not found");
+        return i;
     }
 
     /**
@@ -177,11 +194,34 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        int size = 0;
-        for (TDItem item : tdItems) {
-            size += item.fieldType.getLen();
+        return offsets[numFields];
+    }
+
+    /**
+     * @return the byte offset of the ith field within a tuple stored field
+     *         after field, as on a HeapPage
+     */
+    public int getFieldOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Returns a TupleDesc with the given fields of this one, in the order
+     * given, such as the schema of a scan that reads only those fields.
+     *
+     * @param fields the indexes of the fields to keep
+     * @return the projected TupleDesc
+     * @throws IllegalArgumentException if a field does not exist
+     */
+    public TupleDesc project(int[] fields) {
+        List<TDItem> projected = new ArrayList<>();
+        for (int field : fields) {
+            if (field < 0 || field >= numFields()) {
+                throw new IllegalArgumentException("no field " + field + " in " + this);
+            }
+            projected.add(tdItems.get(field));
         }
-        return size;
+        return new TupleDesc(projected);
     }
 
     /**
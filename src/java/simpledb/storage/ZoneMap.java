@@ -0,0 +1,287 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile and every INT_TYPE column, the
+ * smallest and largest value on the page, so that a scan with a predicate on
+ * that column can skip pages none of whose tuples could satisfy it. On
+ * tables that are appended to in key order, such as a log with a timestamp
+ * column, a range predicate then reads only the pages in range.
+ * <p>
+ * The ranges are conservative: an insert widens the range of its page right
+ * away, while a delete leaves it as it is; the range is recomputed exactly
+ * from the page's tuples whenever the page is written. An empty page has an
+ * empty range, which no predicate matches.
+ * <p>
+ * Like the {@link FreeSpaceMap}, the ranges of the pages as they are on disk
+ * are persisted in a sidecar file next to the heap file, updated as pages
+ * are written, and rebuilt by reading every page if the sidecar is missing
+ * or older than the heap file.
+ *
+ * @see HeapFile.HeapFileIterator#addPageFilter
+ */
+public class ZoneMap {
+
+    /** File name suffix of the sidecar file */
+    public static final String SUFFIX = ".zm";
+
+    private final HeapFile file;
+    private final File sidecar;
+    /** for each field, its index among the INT_TYPE fields, or -1 */
+    private final int[] column;
+    private final int numColumns;
+    /** min of column c of page p at [p * numColumns + c] */
+    private int[] mins;
+    private int[] maxs;
+    private int numPages = -1;
+
+    /**
+     * Constructor. The map is loaded lazily, on first use.
+     *
+     * @param file the heap file whose pages this map describes
+     */
+    public ZoneMap(HeapFile file) {
+        this.file = file;
+        this.sidecar = new File(file.getFile().getPath() + SUFFIX);
+        TupleDesc td = file.getTupleDesc();
+        this.column = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            column[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        }
+        this.numColumns = n;
+    }
+
+    /**
+     * @return the sidecar file the on-disk map is persisted in
+     */
+    public File getSidecar() {
+        return sidecar;
+    }
+
+    /**
+     * Returns false if no tuple on page pgNo can satisfy the predicate, as
+     * far as this map knows, and true otherwise.
+     */
+    public boolean mayMatch(int pgNo, Predicate p) {
+        return mayMatch(pgNo, p.getField(), p.getOp(), p.getOperand());
+    }
+
+    /**
+     * Returns false if no tuple on page pgNo can have a value in field that
+     * compares to operand with op, as far as this map knows, and true
+     * otherwise. Predicates on fields that are not INT_TYPE always match.
+     */
+    public synchronized boolean mayMatch(int pgNo, int field, Predicate.Op op, Field operand) {
+        if (field < 0 || field >= column.length || column[field] < 0 || !(operand instanceof IntField)) {
+            return true;
+        }
+        load();
+        if (pgNo < 0 || pgNo >= numPages) {
+            return true;
+        }
+        int min = mins[pgNo * numColumns + column[field]];
+        int max = maxs[pgNo * numColumns + column[field]];
+        if (min > max) {
+            // no tuples on the page
+            return false;
+        }
+        int v = ((IntField) operand).getValue();
+        switch (op) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Returns the [min, max] range of field on page pgNo, or null if the
+     * field is not INT_TYPE or the page is not known. The range of an empty
+     * page has min greater than max.
+     */
+    public synchronized int[] getRange(int pgNo, int field) {
+        if (column[field] < 0) {
+            return null;
+        }
+        load();
+        if (pgNo < 0 || pgNo >= numPages) {
+            return null;
+        }
+        int i = pgNo * numColumns + column[field];
+        return new int[] { mins[i], maxs[i] };
+    }
+
+    /**
+     * Widens the ranges of page pgNo to cover a tuple just inserted into it.
+     */
+    public synchronized void inserted(int pgNo, Tuple t) {
+        load();
+        if (pgNo >= numPages) {
+            grow(pgNo + 1);
+        }
+        for (int i = 0; i < column.length; i++) {
+            if (column[i] >= 0) {
+                int v = ((IntField) t.getField(i)).getValue();
+                int j = pgNo * numColumns + column[i];
+                mins[j] = Math.min(mins[j], v);
+                maxs[j] = Math.max(maxs[j], v);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the ranges of a page that was just written to disk and
+     * persists them in the sidecar. They are written even if they did not
+     * change, which keeps the sidecar at least as new as the heap file.
+     */
+    public synchronized void pageWritten(HeapPage page) throws IOException {
+        load();
+        int pgNo = page.getId().getPageNumber();
+        if (pgNo >= numPages) {
+            grow(pgNo + 1);
+        }
+        compute(pgNo, page);
+        writeEntries(pgNo, pgNo + 1);
+    }
+
+    /**
+     * Records that pages from (inclusive) to to (exclusive) were just added to
+     * the end of the heap file as empty pages.
+     */
+    public synchronized void extend(int from, int to) throws IOException {
+        load();
+        grow(to);
+        // the heap file has just been modified, so rewrite the whole sidecar
+        // to keep it at least as new as the heap file
+        writeEntries(0, numPages);
+    }
+
+    /**
+     * Forgets every page at or after numPages, for example after the heap
+     * file has been truncated.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        load();
+        if (numPages < this.numPages) {
+            this.numPages = numPages;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+            raf.setLength((long) this.numPages * numColumns * 8);
+        }
+    }
+
+    /** Adds empty pages to the map until it has n pages. */
+    private void grow(int n) {
+        if (n <= numPages) {
+            return;
+        }
+        if (n * numColumns > mins.length) {
+            int cap = Math.max(n * numColumns, mins.length * 2);
+            mins = Arrays.copyOf(mins, cap);
+            maxs = Arrays.copyOf(maxs, cap);
+        }
+        Arrays.fill(mins, numPages * numColumns, n * numColumns, Integer.MAX_VALUE);
+        Arrays.fill(maxs, numPages * numColumns, n * numColumns, Integer.MIN_VALUE);
+        numPages = n;
+    }
+
+    private void compute(int pgNo, HeapPage page) {
+        int base = pgNo * numColumns;
+        Arrays.fill(mins, base, base + numColumns, Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + numColumns, Integer.MIN_VALUE);
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            for (int i = 0; i < column.length; i++) {
+                if (column[i] >= 0) {
+                    int v = ((IntField) t.getField(i)).getValue();
+                    mins[base + column[i]] = Math.min(mins[base + column[i]], v);
+                    maxs[base + column[i]] = Math.max(maxs[base + column[i]], v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the sidecar, rebuilding it from the pages on disk if it is
+     * missing or older than the heap file.
+     */
+    private void load() {
+        if (numPages >= 0) {
+            return;
+        }
+        mins = new int[0];
+        maxs = new int[0];
+        numPages = 0;
+        int filePages = file.numPages();
+        grow(filePages);
+        if (numColumns == 0) {
+            return;
+        }
+        int known = 0;
+        if (sidecar.exists() && sidecar.lastModified() >= file.getFile().lastModified()) {
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(sidecar.toPath()));
+                known = Math.min(filePages, buf.capacity() / (numColumns * 8));
+                for (int i = 0; i < known * numColumns; i++) {
+                    mins[i] = buf.getInt();
+                    maxs[i] = buf.getInt();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                known = 0;
+            }
+        }
+        for (int pgNo = known; pgNo < filePages; pgNo++) {
+            HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), pgNo));
+            if (page == null) {
+                // unknown contents; match everything
+                Arrays.fill(mins, pgNo * numColumns, (pgNo + 1) * numColumns, Integer.MIN_VALUE);
+                Arrays.fill(maxs, pgNo * numColumns, (pgNo + 1) * numColumns, Integer.MAX_VALUE);
+            } else {
+                compute(pgNo, page);
+            }
+        }
+        if (known < filePages) {
+            try {
+                writeEntries(0, filePages);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void writeEntries(int from, int to) throws IOException {
+        if (numColumns == 0) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((to - from) * numColumns * 8);
+        for (int i = from * numColumns; i < to * numColumns; i++) {
+            buf.putInt(mins[i]).putInt(maxs[i]);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(sidecar, "rw")) {
+            raf.seek((long) from * numColumns * 8);
+            raf.write(buf.array());
+        }
+    }
+}
@@ -10,6 +10,8 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
@@ -280,6 +282,23 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.addEntry() on a VARCHAR key
+	 */
+	@Test public void addVarcharEntry() throws Exception {
+		Database.getCatalog().addTable(new SkeletonFile(-2,
+				new TupleDesc(new Type[]{ Type.VARCHAR_TYPE })), SystemTestUtil.getUUID());
+		BTreePageId vpid = new BTreePageId(-2, -1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(vpid,
+				BTreeInternalPage.createEmptyPageData(), 0);
+
+		page.insertEntry(new BTreeEntry(new StringField("m", Type.STRING_LEN, Type.VARCHAR_TYPE),
+				new BTreePageId(-2, 1, BTreePageId.LEAF), new BTreePageId(-2, 2, BTreePageId.LEAF)));
+		BTreeEntry e = page.iterator().next();
+		assertEquals(Type.VARCHAR_TYPE, e.getKey().getType());
+		assertEquals(new StringField("m", Type.STRING_LEN), e.getKey());
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.deleteEntry() with false entries
 	 */
@@ -0,0 +1,112 @@
+package simpledb;
+
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+    private HeapFile hf1;
+    private HeapFile hf2;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: two tables of small
+     * random values.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        hf1 = SystemTestUtil.createRandomHeapFile(2, 100, 50, null, new ArrayList<>());
+        hf2 = SystemTestUtil.createRandomHeapFile(2, 60, 50, null, new ArrayList<>());
+        tid = new TransactionId();
+    }
+
+    /**
+     * For every predicate, with blocks of one tuple, a few tuples and the
+     * whole outer, sorted or not, the join returns the rows Join does.
+     */
+    @Test
+    public void matchesJoin() throws Exception {
+        int tupleSize = Utility.getTupleDesc(2).getSize();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate p = new JoinPredicate(0, op, 1);
+            List<List<Integer>> expected = SystemTestUtil.collectTuples(new Join(p, new SeqScan(tid, hf1.getId(), "a"),
+                    new SeqScan(tid, hf2.getId(), "b")));
+            for (int blockTuples : new int[] { 1, 7, 1000 }) {
+                for (boolean sort : new boolean[] { false, true }) {
+                    BlockNestedLoopJoin join = new BlockNestedLoopJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                            new SeqScan(tid, hf2.getId(), "b"), blockTuples * tupleSize, sort);
+                    SystemTestUtil.matchTuples(join, expected);
+                }
+            }
+        }
+    }
+
+    /**
+     * The inner child is scanned once per block of the outer.
+     */
+    @Test
+    public void innerScansPerBlock() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        List<Tuple> outer = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            outer.add(Utility.getHeapTuple(new int[] { i, i }));
+        }
+        int[] rewinds = new int[1];
+        TupleIterator inner = new TupleIterator(td, Arrays.asList(
+                Utility.getHeapTuple(new int[] { 3, 0 }), Utility.getHeapTuple(new int[] { 8, 0 }))) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void rewind() {
+                rewinds[0]++;
+                super.rewind();
+            }
+        };
+        BlockNestedLoopJoin join = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new TupleIterator(td, outer), inner, 4 * td.getSize(), true);
+        assertEquals(3 + 8, SystemTestUtil.collectTuples(join).size());
+        // three blocks, and a rewind after each
+        assertEquals(3, rewinds[0]);
+    }
+
+    /**
+     * Rewinding starts the join over from the first block.
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.GREATER_THAN_OR_EQ, 0);
+        BlockNestedLoopJoin join = new BlockNestedLoopJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                new SeqScan(tid, hf2.getId(), "b"), 16 * Utility.getTupleDesc(2).getSize(), true);
+        List<List<Integer>> expected = SystemTestUtil.collectTuples(join);
+        join.open();
+        for (int i = 0; i < 100 && join.hasNext(); i++) {
+            join.next();
+        }
+        join.rewind();
+        List<List<Integer>> rows = SystemTestUtil.readTuples(join);
+        join.close();
+        assertEquals(expected, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+    }
+}
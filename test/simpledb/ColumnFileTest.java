@@ -0,0 +1,301 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final String[] COLORS = { "red", "green", "blue" };
+
+    private File f;
+    private TupleDesc td;
+    private ColumnFile cf;
+    private String name;
+
+    /**
+     * Set up initial resources for each unit test: a column file with a
+     * sequential id, a clustered group, a narrow value and a string with
+     * three distinct values.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Database.resetBufferPool(1000);
+        f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "grp", "val", "color" });
+        cf = open();
+        for (int c = 0; c < td.numFields(); c++) {
+            cf.getColumnFile(c).deleteOnExit();
+            cf.getPageOffsetMap(c).getSidecar().deleteOnExit();
+        }
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), row(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private ColumnFile open() {
+        ColumnFile file = new ColumnFile(f, td);
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(file, name);
+        return file;
+    }
+
+    private Tuple row(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new IntField(i / 1000));
+        t.setField(2, new IntField(i * 7 % 100));
+        t.setField(3, new StringField(COLORS[i % 3], Type.STRING_LEN));
+        return t;
+    }
+
+    private long[] pagesRead() {
+        long[] read = new long[td.numFields()];
+        for (int c = 0; c < read.length; c++) {
+            read[c] = cf.getPagesRead(c);
+        }
+        return read;
+    }
+
+    private List<Tuple> scan(DbFileIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * A full scan returns every row, in insertion order, with RecordIds
+     * naming its row page and slot.
+     */
+    @Test
+    public void scanAll() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = scan(cf.iterator(tid));
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = tuples.get(i);
+            Tuple expected = row(i);
+            for (int c = 0; c < td.numFields(); c++) {
+                assertEquals(expected.getField(c), t.getField(c));
+            }
+            assertEquals(new ColumnPageId(cf.getId(), ColumnPageId.ROWS, 0), t.getRecordId().getPageId());
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan of some columns returns only those, and reads no page of the
+     * other columns.
+     */
+    @Test
+    public void projectedScan() throws Exception {
+        Database.resetBufferPool(1000);
+        long[] read = pagesRead();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "t", new int[] { 2, 0 });
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t.val", scan.getTupleDesc().getFieldName(0));
+        assertEquals("t.id", scan.getTupleDesc().getFieldName(1));
+
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(n * 7 % 100, ((IntField) t.getField(0)).getValue());
+            assertEquals(n, ((IntField) t.getField(1)).getValue());
+            n++;
+        }
+        scan.close();
+        assertEquals(ROWS, n);
+        assertTrue(cf.getPagesRead(0) > read[0]);
+        assertEquals(read[1], cf.getPagesRead(1));
+        assertEquals(read[3], cf.getPagesRead(3));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // heap files are scanned by column too, decoding only those fields
+        List<List<Integer>> rows = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, rows);
+        tid = new TransactionId();
+        scan = new SeqScan(tid, hf.getId(), "h", new int[] { 1 });
+        assertEquals(1, scan.getTupleDesc().numFields());
+        scan.open();
+        for (List<Integer> row : rows) {
+            assertTrue(scan.hasNext());
+            Tuple t = scan.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            assertEquals(row.get(1).intValue(), ((IntField) t.getField(0)).getValue());
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner scans only the columns the query refers to.
+     */
+    @Test
+    public void plannerPushesProjection() throws Exception {
+        Database.resetBufferPool(1000);
+        long[] read = pagesRead();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.grp", Predicate.Op.EQUALS, "2");
+        lp.addProjectField("t.val", null);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(name, new TableStats(cf.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertEquals(1, plan.getTupleDesc().numFields());
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            assertEquals((2000 + n) * 7 % 100, ((IntField) plan.next().getField(0)).getValue());
+            n++;
+        }
+        plan.close();
+        assertEquals(1000, n);
+        assertEquals(read[0], cf.getPagesRead(0));
+        assertEquals(read[3], cf.getPagesRead(3));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Every column is stored in the encoding that suits it best.
+     */
+    @Test
+    public void encodings() throws Exception {
+        assertEquals(ColumnEncoding.BIT_PACK, cf.getPageOffsetMap(0).getCodec(0));
+        assertEquals(ColumnEncoding.RLE, cf.getPageOffsetMap(1).getCodec(0));
+        assertEquals(ColumnEncoding.BIT_PACK, cf.getPageOffsetMap(2).getCodec(0));
+        assertEquals(ColumnEncoding.DICT, cf.getPageOffsetMap(3).getCodec(0));
+
+        // a handful of runs take a few bytes per page
+        long raw = (long) cf.numPages(1) * BufferPool.getPageSize();
+        assertTrue(cf.getPageOffsetMap(1).getStoredBytes() * 100 < raw);
+        raw = (long) cf.numPages(3) * BufferPool.getPageSize();
+        assertTrue(cf.getPageOffsetMap(3).getStoredBytes() * 10 < raw);
+    }
+
+    /**
+     * Every encoding decodes to the values it encoded, extremes included.
+     */
+    @Test
+    public void encodingRoundTrip() throws Exception {
+        int[][] columns = {
+                { Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, 5 },
+                { 7, 7, 7, 7, 7, 7 },
+                { -3, -2, -1, -3, -2, -1, -3 },
+                { 1000000, 1000001, 1000003, 1000002 },
+        };
+        for (int[] values : columns) {
+            ColumnPage page = new ColumnPage(new ColumnPageId(cf.getId(), 0, 0), new byte[0]);
+            for (int i = 0; i < values.length; i++) {
+                page.setField(i, new IntField(values[i]));
+            }
+            byte[] stored = ColumnEncoding.encode(page);
+            ColumnPage decoded = new ColumnPage(page.getId(),
+                    ColumnEncoding.decode(stored[0], stored, stored.length, Type.INT_TYPE));
+            assertEquals(values.length, decoded.getNumValues());
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(values[i], decoded.getInt(i));
+            }
+        }
+
+        String[][] strings = { { "a", "bb", "", "ccc" }, { "x", "x", "x" }, { "p", "q", "p", "q", "p", "q" } };
+        for (String[] values : strings) {
+            ColumnPage page = new ColumnPage(new ColumnPageId(cf.getId(), 3, 0), new byte[0]);
+            for (int i = 0; i < values.length; i++) {
+                page.setField(i, new StringField(values[i], Type.STRING_LEN));
+            }
+            byte[] stored = ColumnEncoding.encode(page);
+            ColumnPage decoded = new ColumnPage(page.getId(),
+                    ColumnEncoding.decode(stored[0], stored, stored.length, Type.STRING_TYPE));
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(values[i], decoded.getString(i));
+            }
+        }
+    }
+
+    /**
+     * Deleted rows disappear from scans; the rows of an aborted insert are
+     * allocated again by the next one.
+     */
+    @Test
+    public void deleteAndAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Tuple t : scan(cf.iterator(tid, new int[] { 0 }))) {
+            if (((IntField) t.getField(0)).getValue() % 3 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(ROWS - ROWS / 3, scan(cf.iterator(tid)).size());
+        Database.getBufferPool().insertTuple(tid, cf.getId(), row(ROWS + 1));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(ROWS - ROWS / 3, scan(cf.iterator(tid)).size());
+        Tuple t = row(ROWS + 2);
+        Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        assertEquals(ROWS, t.getRecordId().getTupleNumber());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Tuple> tuples = scan(cf.iterator(tid));
+        assertEquals(ROWS - ROWS / 3 + 1, tuples.size());
+        assertEquals(new IntField(ROWS + 2), tuples.get(tuples.size() - 1).getField(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A reopened file reads the same rows back.
+     */
+    @Test
+    public void reopen() throws Exception {
+        Database.resetBufferPool(1000);
+        ColumnFile reopened = open();
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = scan(reopened.iterator(tid));
+        assertEquals(ROWS, tuples.size());
+        assertEquals(new StringField(COLORS[(ROWS - 1) % 3], Type.STRING_LEN), tuples.get(ROWS - 1).getField(3));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static byte[] roundTrip(PageCodec codec, byte[] page) {
+        byte[] compressed = codec.compress(page);
+        if (compressed == null) {
+            return null;
+        }
+        assertTrue(compressed.length < page.length);
+        byte[] out = new byte[page.length];
+        codec.decompress(compressed, compressed.length, out);
+        assertArrayEquals(page, out);
+        return compressed;
+    }
+
+    /**
+     * Both codecs reproduce their input exactly, shrink pages with
+     * structure, and give up on random bytes.
+     */
+    @Test
+    public void codecs() {
+        Random r = new Random(42);
+        byte[] random = new byte[BufferPool.getPageSize()];
+        r.nextBytes(random);
+        assertNull(new Lz4PageCodec().compress(random));
+
+        byte[] repetitive = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < repetitive.length; i++) {
+            repetitive[i] = (byte) (i % 7 == 0 ? r.nextInt() : i % 13);
+        }
+        roundTrip(new Lz4PageCodec(), repetitive);
+        roundTrip(new Lz4PageCodec(), new byte[BufferPool.getPageSize()]);
+
+        // 3 byte header, then ascending keys and small values; odd length tail
+        byte[] ints = new byte[BufferPool.getPageSize() + 3];
+        ByteBuffer buf = ByteBuffer.wrap(ints);
+        buf.put(new byte[] { 1, 2, 3 });
+        for (int i = 0; buf.remaining() >= 8; i++) {
+            buf.putInt(1000 + i * 3).putInt(r.nextInt(100) - 50);
+        }
+        ints[ints.length - 1] = 9;
+        byte[] packed = roundTrip(new IntPackPageCodec(3, 2), ints);
+        assertTrue(packed.length < ints.length / 3);
+
+        byte[] extremes = new byte[64];
+        buf = ByteBuffer.wrap(extremes);
+        while (buf.hasRemaining()) {
+            buf.putInt(Integer.MIN_VALUE).putInt(Integer.MAX_VALUE);
+        }
+        assertNull(new IntPackPageCodec(0, 1).compress(extremes));
+    }
+
+    /**
+     * Pages written through the buffer pool come back intact from a
+     * reopened file, each readable on its own, in less space than a
+     * HeapFile would take.
+     */
+    @Test
+    public void insertReopenScan() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + PageOffsetMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2);
+        CompressedHeapFile file = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        int rows = 3000;
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { i, i % 10 }));
+        }
+        Database.getBufferPool().insertTuples(tid, file.getId(), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = file.numPages();
+        assertTrue(pages >= rows / 504);
+        assertTrue(f.length() < (long) pages * BufferPool.getPageSize() / 4);
+        assertTrue(file.getStats().getCompressionRatio() > 4);
+        assertTrue(file.getStats().getPagesEncoded() > 0);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(pages, reopened.numPages());
+        HeapPage sixth = (HeapPage) reopened.readPage(new HeapPageId(reopened.getId(), 5));
+        assertEquals(5 * 504, ((IntField) sixth.getField(0, 0)).getValue());
+
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals(key % 10, ((IntField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, count);
+        assertTrue(reopened.getStats().getPagesDecoded() >= pages - 1);
+    }
+
+    /**
+     * A page that no longer fits in its old place moves to the end of the
+     * file, and a table of strings is compressed with the general codec.
+     */
+    @Test
+    public void rewriteAndStrings() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + PageOffsetMap.SUFFIX).deleteOnExit();
+        new File(f.getPath() + FreeSpaceMap.SUFFIX).deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        CompressedHeapFile file = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("hello", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        PageOffsetMap map = file.getPageOffsetMap();
+        assertEquals(CompressedHeapFile.LZ4, map.getCodec(0));
+        int before = map.getLength(0);
+
+        tid = new TransactionId();
+        Random r = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            Tuple u = new Tuple(td);
+            u.setField(0, new IntField(r.nextInt()));
+            u.setField(1, new StringField(Long.toHexString(r.nextLong()), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, file.getId(), u);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(map.getLength(0) > before);
+        assertTrue(map.getOffset(0) >= before);
+
+        HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), 0));
+        assertEquals("hello", ((StringField) page.getField(0, 1)).getValue());
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        assertEquals(21, count);
+    }
+
+    /**
+     * A page offset map that cannot be read fails, rather than passing for
+     * an empty map whose next write would go over the existing pages.
+     */
+    @Test
+    public void unreadableMap() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Arrays.fill(data, (byte) 1);
+        Files.write(f.toPath(), data);
+        // a directory in place of the sidecar exists but cannot be read
+        File sidecar = new File(f.getPath() + PageOffsetMap.SUFFIX);
+        assertTrue(sidecar.mkdir());
+        sidecar.deleteOnExit();
+        assertTrue(sidecar.setLastModified(f.lastModified() + 1000));
+
+        PageOffsetMap map = new PageOffsetMap(f, BufferPool.getPageSize());
+        try {
+            map.size();
+            fail("expected the map to fail to load");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        try {
+            map.extend(2);
+            fail("expected the map to fail to load");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(data, Files.readAllBytes(f.toPath()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class FieldTest extends SimpleDbTestBase {
+
+    /**
+     * Serializes f into a buffer at offset and checks that the bytes match
+     * the DataOutputStream format and parse back to f.
+     */
+    private void roundTrip(Field f, int offset) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(baos));
+        byte[] expected = baos.toByteArray();
+
+        ByteBuffer buf = ByteBuffer.allocate(offset + f.getType().getLen() + 8);
+        // stale bytes must be overwritten
+        for (int i = 0; i < buf.capacity(); i++)
+            buf.put(i, (byte) 0x55);
+        f.serialize(buf, offset);
+        assertEquals(0, buf.position());
+
+        byte[] actual = new byte[expected.length];
+        for (int i = 0; i < actual.length; i++)
+            actual[i] = buf.get(offset + i);
+        assertArrayEquals(expected, actual);
+        assertEquals(f, f.getType().parse(buf, offset));
+    }
+
+    /**
+     * Unit test for Field.serialize(ByteBuffer, int) and
+     * Type.parse(ByteBuffer, int)
+     */
+    @Test public void byteBufferCodec() throws Exception {
+        roundTrip(new IntField(0), 0);
+        roundTrip(new IntField(-123456789), 3);
+        roundTrip(new StringField("", Type.STRING_LEN), 0);
+        roundTrip(new StringField("hello", Type.STRING_LEN), 7);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++)
+            sb.append((char) ('a' + i % 26));
+        roundTrip(new StringField(sb.toString(), Type.STRING_LEN), 1);
+    }
+
+    /**
+     * StringFields keep the string type of the column they were read from.
+     */
+    @Test public void stringTypes() throws Exception {
+        assertEquals(Type.STRING_TYPE, new StringField("a", Type.STRING_LEN).getType());
+        ByteBuffer buf = ByteBuffer.allocate(Type.VARCHAR_TYPE.getLen());
+        new StringField("a", Type.STRING_LEN).serialize(buf, 0);
+        Field f = Type.VARCHAR_TYPE.parse(buf, 0);
+        assertEquals(Type.VARCHAR_TYPE, f.getType());
+        assertEquals(new StringField("a", Type.STRING_LEN), f);
+        roundTrip(f, 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FieldTest.class);
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // three full pages followed by a page with room
+        int perPage = 504;
+        hf = SystemTestUtil.createRandomHeapFile(2, perPage * 3 + 10, null, null);
+        hf.getFreeSpaceMap().getSidecar().deleteOnExit();
+    }
+
+    /**
+     * Inserts go to the first page with room without locking full pages.
+     */
+    @Test
+    public void insertSkipsFullPages() throws Exception {
+        assertEquals(4, hf.numPages());
+        TransactionId tid = new TransactionId();
+        List<Page> dirtied = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(3, dirtied.get(0).getId().getPageNumber());
+        for (int i = 0; i < 3; i++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A delete makes its page a candidate for inserts again.
+     */
+    @Test
+    public void deleteFreesPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple victim = firstTuple(tid);
+        Database.getBufferPool().deleteTuple(tid, victim);
+        List<Page> dirtied = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(0, dirtied.get(0).getId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The sidecar survives reopening the file, and a stale or missing sidecar
+     * is rebuilt from the pages on disk.
+     */
+    @Test
+    public void sidecar() throws Exception {
+        File sidecar = hf.getFreeSpaceMap().getSidecar();
+        assertEquals(3, hf.getFreeSpaceMap().nextFreePage(0, hf.numPages()));
+        assertTrue(sidecar.exists());
+
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(3, reopened.getFreeSpaceMap().nextFreePage(0, reopened.numPages()));
+
+        assertTrue(sidecar.delete());
+        reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(3, reopened.getFreeSpaceMap().nextFreePage(0, reopened.numPages()));
+        assertEquals(-1, reopened.getFreeSpaceMap().nextFreePage(4, reopened.numPages()));
+    }
+
+    private Tuple firstTuple(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        return t;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
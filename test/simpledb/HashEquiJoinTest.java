@@ -0,0 +1,213 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private HeapFile hf1;
+    private HeapFile hf2;
+    private TransactionId tid;
+    private int tupleSize;
+
+    /**
+     * Set up initial resources for each unit test: two tables of random
+     * values with duplicate keys.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        hf1 = SystemTestUtil.createRandomHeapFile(2, 600, 200, null, new ArrayList<>());
+        hf2 = SystemTestUtil.createRandomHeapFile(2, 300, 200, null, new ArrayList<>());
+        tid = new TransactionId();
+        tupleSize = Utility.getTupleDesc(2).getSize();
+    }
+
+    private List<List<Integer>> expected(JoinPredicate p) throws Exception {
+        return SystemTestUtil.collectTuples(new Join(p, new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b")));
+    }
+
+    /**
+     * A build side that fits in memory is not spilled.
+     */
+    @Test
+    public void inMemory() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                new SeqScan(tid, hf2.getId(), "b"));
+        SystemTestUtil.matchTuples(join, expected(p));
+        join.open();
+        assertEquals(0, join.numSpilledPartitions());
+        join.close();
+    }
+
+    /**
+     * A build side bigger than the memory budget is partitioned to disk,
+     * with the same result, before and after a rewind.
+     */
+    @Test
+    public void partitioned() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<List<Integer>> expected = expected(p);
+        for (int memoryTuples : new int[] { 1, 20, 100 }) {
+            HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                    new SeqScan(tid, hf2.getId(), "b"), memoryTuples * tupleSize);
+            SystemTestUtil.matchTuples(join, expected);
+            join.open();
+            assertTrue(join.numSpilledPartitions() > 0);
+            while (join.hasNext()) {
+                join.next();
+            }
+            assertTrue(join.getBytesSpilled() > 0);
+            assertEquals(join.getBytesSpilled(), Query.getBytesSpilled(join));
+            join.rewind();
+            List<List<Integer>> rows = SystemTestUtil.readTuples(join);
+            join.close();
+            assertEquals(expected.size(), rows.size());
+        }
+    }
+
+    /**
+     * A key with more tuples than fit in memory cannot be split, and is
+     * joined in chunks.
+     */
+    @Test
+    public void skewedKey() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        List<Tuple> build = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            build.add(Utility.getHeapTuple(new int[] { i < 40 ? 7 : i, i }));
+        }
+        List<Tuple> probe = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            probe.add(Utility.getHeapTuple(new int[] { 7, i }));
+            probe.add(Utility.getHeapTuple(new int[] { 45, i }));
+        }
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, build), new TupleIterator(td, probe), 8 * td.getSize());
+        assertEquals(40 * 10 + 10, SystemTestUtil.collectTuples(join).size());
+    }
+
+    /**
+     * Joins on string fields, and on many distinct int keys, match what Join
+     * returns.
+     */
+    @Test
+    public void keyTypes() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> build = new ArrayList<>();
+        List<Tuple> probe = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("k" + (i % 37), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            build.add(t);
+            if (i % 3 == 0) {
+                probe.add(t);
+            }
+        }
+        for (int f : new int[] { 0, 1 }) {
+            JoinPredicate p = new JoinPredicate(f, Predicate.Op.EQUALS, f);
+            List<List<Object>> expected = fields(new Join(p, new TupleIterator(td, build),
+                    new TupleIterator(td, probe)));
+            List<List<Object>> rows = fields(new HashEquiJoin(p, new TupleIterator(td, build),
+                    new TupleIterator(td, probe)));
+            assertEquals(new HashSet<>(expected), new HashSet<>(rows));
+            assertEquals(expected.size(), rows.size());
+        }
+    }
+
+    /**
+     * The keys of the build side are pushed into the scan of the probe side,
+     * through a filter: probe tuples with other keys are dropped and counted,
+     * and pages out of the range of the keys are skipped.
+     */
+    @Test
+    public void keyFilter() throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            rows.add(Arrays.asList(i, -i));
+        }
+        File f = File.createTempFile("probe", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        HeapFile probe = Utility.openHeapFile(2, f);
+        TupleDesc td = Utility.getTupleDesc(2);
+
+        List<Tuple> build = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            build.add(Utility.getHeapTuple(new int[] { i * 100, i }));
+        }
+        SeqScan scan = new SeqScan(tid, probe.getId(), "b");
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, build),
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(0)), scan));
+        assertEquals(30, SystemTestUtil.collectTuples(join).size());
+        assertTrue(join.getRowsFiltered() >= 2950);
+        assertEquals(join.getRowsFiltered(), Query.getRowsFiltered(join));
+
+        // the batch path reads the same filtered scan
+        join.open();
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = join.nextBatch()) != null) {
+            n += batch.size();
+        }
+        join.close();
+        assertEquals(30, n);
+
+        build.clear();
+        for (int i = 0; i < 3; i++) {
+            build.add(Utility.getHeapTuple(new int[] { i + 5, i }));
+        }
+        scan = new SeqScan(tid, probe.getId(), "b");
+        join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, build), scan);
+        assertEquals(3, SystemTestUtil.collectTuples(join).size());
+        // the first page is read before the keys are known
+        assertEquals(probe.numPages() - 1, scan.getPagesSkipped());
+    }
+
+    private static List<List<Object>> fields(OpIterator op) throws Exception {
+        List<List<Object>> rows = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            List<Object> row = new ArrayList<>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                row.add(t.getField(i));
+            }
+            rows.add(row);
+        }
+        op.close();
+        return rows;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
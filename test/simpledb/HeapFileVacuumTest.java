@@ -0,0 +1,198 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileVacuumTest extends SimpleDbTestBase {
+
+    /**
+     * Deletes every tuple of the file whose first field is not a multiple of
+     * keepEvery, and returns the tuples left.
+     */
+    private List<List<Integer>> deleteMost(HeapFile hf, int keepEvery) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        List<Tuple> victims = new ArrayList<>();
+        List<List<Integer>> kept = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % keepEvery != 0) {
+                victims.add(t);
+            } else {
+                kept.add(SystemTestUtil.tupleToList(t));
+            }
+        }
+        it.close();
+        for (Tuple t : victims) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return kept;
+    }
+
+    private static List<List<Integer>> rows(int n) {
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            rows.add(Arrays.asList(i, -i));
+        }
+        return rows;
+    }
+
+    /**
+     * After most tuples are deleted, the vacuum packs the survivors into the
+     * first pages and cuts the rest off the file.
+     */
+    @Test
+    public void compactsAndTruncates() throws Exception {
+        File f = File.createTempFile("vacuum", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows(504 * 10), f, BufferPool.getPageSize(), 2);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        hf.getFreeSpaceMap().getSidecar().deleteOnExit();
+        assertEquals(10, hf.numPages());
+
+        List<List<Integer>> kept = deleteMost(hf, 6);
+        assertEquals(10, hf.numPages());
+
+        HeapFileVacuum vacuum = new HeapFileVacuum(hf, 100);
+        vacuum.run();
+        assertEquals(2, hf.numPages());
+        assertEquals(2L * BufferPool.getPageSize(), f.length());
+        assertEquals(8, vacuum.getPagesTruncated());
+        assertTrue(vacuum.getBatches() > 1);
+        assertEquals(0, vacuum.getAborts());
+        SystemTestUtil.matchTuples(hf, kept);
+
+        // nothing left to do
+        vacuum = new HeapFileVacuum(hf);
+        vacuum.run();
+        assertEquals(0, vacuum.getTuplesMoved());
+        assertEquals(2, hf.numPages());
+
+        // the file still takes inserts, into the free slots first
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, hf.numPages());
+    }
+
+    /**
+     * An insert that waits for the lock on a page the vacuum then cuts off
+     * the file goes to a page still in the file, rather than to the page
+     * past its end. The vacuum's steps are taken one at a time, as
+     * truncateEmptyTail takes them, so the insert is sure to wait.
+     */
+    @Test
+    public void insertDuringTruncate() throws Exception {
+        File f = File.createTempFile("vacuum", ".dat");
+        f.deleteOnExit();
+        List<List<Integer>> kept = rows(504);
+        HeapFileEncoder.convert(kept, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        hf.getFreeSpaceMap().getSidecar().deleteOnExit();
+        // a full page followed by two empty ones
+        hf.allocatePages(2);
+        assertEquals(3, hf.numPages());
+
+        BufferPool bufferPool = Database.getBufferPool();
+        TransactionId vacuum = new TransactionId();
+        for (int i = 2; i >= 1; i--) {
+            bufferPool.getPage(vacuum, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread inserter = new Thread(() -> {
+            try {
+                TransactionId tid = new TransactionId();
+                Tuple t = Utility.getHeapTuple(new int[] { 9999, 9999 });
+                bufferPool.insertTuple(tid, hf.getId(), t);
+                assertTrue(t.getRecordId().getPageId().getPageNumber() < hf.numPages());
+                bufferPool.transactionComplete(tid);
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        inserter.start();
+        while (inserter.isAlive() && inserter.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+
+        for (int i = 1; i < 3; i++) {
+            bufferPool.discardPage(new HeapPageId(hf.getId(), i));
+        }
+        assertTrue(hf.truncate(3, 1));
+        bufferPool.transactionComplete(vacuum);
+        inserter.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        kept = new ArrayList<>(kept);
+        kept.add(Arrays.asList(9999, 9999));
+        assertEquals(2, hf.numPages());
+        assertEquals(2L * BufferPool.getPageSize(), f.length());
+        assertEquals(1, hf.getFreeSpaceMap().nextFreePage(0, hf.numPages()));
+        SystemTestUtil.matchTuples(hf, kept);
+    }
+
+    /**
+     * A full file is left alone.
+     */
+    @Test
+    public void fullFile() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        hf.getFreeSpaceMap().getSidecar().deleteOnExit();
+        HeapFileVacuum vacuum = new HeapFileVacuum(hf);
+        vacuum.run();
+        assertEquals(0, vacuum.getTuplesMoved());
+        assertEquals(0, vacuum.getPagesTruncated());
+        assertEquals(3, hf.numPages());
+    }
+
+    /**
+     * Compressed files shrink too.
+     */
+    @Test
+    public void compressedFile() throws Exception {
+        File f = File.createTempFile("vacuum", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows(504 * 6), f, BufferPool.getPageSize(), 2);
+        CompressedHeapFile hf = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        hf.getFreeSpaceMap().getSidecar().deleteOnExit();
+        hf.getPageOffsetMap().getSidecar().deleteOnExit();
+
+        List<List<Integer>> kept = deleteMost(hf, 3);
+        new HeapFileVacuum(hf).run();
+        assertEquals(2, hf.numPages());
+        SystemTestUtil.matchTuples(hf, kept);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(2, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, kept);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileVacuumTest.class);
+    }
+}
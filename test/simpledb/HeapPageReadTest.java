@@ -102,6 +102,21 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getField(), which decodes single fields
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) page.getField(row, 1)).getValue());
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) page.getField(row, 0)).getValue());
+        }
+        assertEquals(null, page.getField(EXAMPLE_VALUES.length, 0));
+
+        // undecoded slots are written back unchanged
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
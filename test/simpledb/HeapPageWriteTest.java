@@ -49,6 +49,27 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         assertFalse(dirtier != null);
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage(): the
+     * before image is taken on first modification and reset on commit.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.insertTuple(Utility.getHeapTuple(8, 2));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        page.insertTuple(Utility.getHeapTuple(9, 2));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length + 2,
+                504 - page.getBeforeImage().getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapPage.addTuple()
      */
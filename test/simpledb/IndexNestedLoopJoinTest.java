@@ -0,0 +1,164 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.CostCard;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private HeapFile outer;
+    private BTreeFile inner;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: an outer heap file, and
+     * an inner B+ tree keyed on its first field, with duplicate keys and
+     * outer keys the inner does not have.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        outer = SystemTestUtil.createRandomHeapFile(2, 60, 120, null, new ArrayList<>());
+        inner = BTreeUtility.createRandomBTreeFile(2, 500, 100, null, new ArrayList<>(), 0);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private List<List<Integer>> join(JoinPredicate p, OpIterator innerPlan) throws Exception {
+        return SystemTestUtil.collectTuples(new Join(p, new SeqScan(tid, outer.getId(), "a"), innerPlan));
+    }
+
+    /**
+     * For = and range predicates, the join returns the rows Join does.
+     */
+    @Test
+    public void matchesJoin() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "a"),
+                    new SeqScan(tid, inner.getId(), "b"));
+            SystemTestUtil.matchTuples(join, join(p, new SeqScan(tid, inner.getId(), "b")));
+        }
+    }
+
+    /**
+     * The predicates of Filters over the inner scan apply to the tuples
+     * found in the index.
+     */
+    @Test
+    public void innerFilter() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1 << 15));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "a"),
+                new Filter(filter, new SeqScan(tid, inner.getId(), "b")));
+        SystemTestUtil.matchTuples(join, join(p, new Filter(filter, new SeqScan(tid, inner.getId(), "b"))));
+    }
+
+    /**
+     * Repeated outer keys are looked up once while their matches are
+     * cached, and every time without a cache.
+     */
+    @Test
+    public void cachesKeys() throws Exception {
+        HeapFile repeated = SystemTestUtil.createRandomHeapFile(2, 60, 10, null, new ArrayList<>());
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p, new SeqScan(tid, repeated.getId(), "a"),
+                new SeqScan(tid, inner.getId(), "b"));
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+        }
+        assertTrue(join.getIndexProbes() <= 10);
+        assertEquals(60, join.getIndexProbes() + join.getCacheHits());
+        join.close();
+
+        join = new IndexNestedLoopJoin(p, new SeqScan(tid, repeated.getId(), "a"),
+                new SeqScan(tid, inner.getId(), "b"), 0);
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+        }
+        assertEquals(60, join.getIndexProbes());
+        join.close();
+    }
+
+    /**
+     * Only scans of a B+ tree keyed on the join field can be probed.
+     */
+    @Test
+    public void canProbe() throws Exception {
+        assertTrue(IndexNestedLoopJoin.canProbe(new SeqScan(tid, inner.getId(), "b"), 0));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, inner.getId(), "b"), 1));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, outer.getId(), "b"), 0));
+        try {
+            new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    new SeqScan(tid, outer.getId(), "a"), new SeqScan(tid, inner.getId(), "b"));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // the tree is keyed on field 0
+        }
+    }
+
+    /**
+     * The optimizer probes the index of the inner when the estimated
+     * cardinality of the outer is small enough for that to cost less than
+     * hashing, and hashes when it is large or unknown.
+     */
+    @Test
+    public void instantiateJoin() throws Exception {
+        HeapFile named = SystemTestUtil.createRandomHeapFile(2, 60, 120, null, new ArrayList<>(), "c");
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 20000, 100, null, new ArrayList<>(), 0);
+        tree = BTreeUtility.openBTreeFile(2, "c", tree.getFile(), 0);
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS);
+        CostCard est2 = estimate(20000, tree.numPages() * 1000);
+
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, named.getId(), "a"),
+                new SeqScan(tid, tree.getId(), "b"), estimate(2, 1000), est2);
+        assertTrue(j instanceof IndexNestedLoopJoin);
+
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, named.getId(), "a"),
+                new SeqScan(tid, tree.getId(), "b"), estimate(100000, 1000), est2);
+        assertFalse(j instanceof IndexNestedLoopJoin);
+
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, named.getId(), "a"),
+                new SeqScan(tid, tree.getId(), "b"));
+        assertFalse(j instanceof IndexNestedLoopJoin);
+    }
+
+    private static CostCard estimate(int card, double cost) {
+        CostCard cc = new CostCard();
+        cc.card = card;
+        cc.cost = cost;
+        cc.plan = new ArrayList<>();
+        return cc;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
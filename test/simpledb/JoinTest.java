@@ -2,6 +2,7 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -69,6 +70,8 @@ public class JoinTest extends SimpleDbTestBase {
     TupleDesc expected = Utility.getTupleDesc(width1 + width2);
     TupleDesc actual = op.getTupleDesc();
     assertEquals(expected, actual);
+    // the schema is bound once, not rebuilt per call
+    assertSame(actual, op.getTupleDesc());
   }
 
   /**
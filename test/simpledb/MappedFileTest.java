@@ -0,0 +1,117 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class MappedFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages read through the mapping should be identical to pages read
+     * through the RandomAccessFile path.
+     */
+    @Test
+    public void readPageMatchesUnmapped() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        assertTrue(hf.numPages() > 1);
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), i);
+            byte[] expected = hf.readPage(pid).getPageData();
+            hf.setMemoryMapped(true);
+            assertArrayEquals(expected, hf.readPage(pid).getPageData());
+            hf.setMemoryMapped(false);
+        }
+    }
+
+    /**
+     * A scan over a mapped file returns every tuple.
+     */
+    @Test
+    public void scan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        hf.setMemoryMapped(true);
+        assertTrue(hf.isMemoryMapped());
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+    }
+
+    /**
+     * Pages appended after the mapping was taken are remapped on first read.
+     */
+    @Test
+    public void remapOnGrowth() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        hf.setMemoryMapped(true);
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(simpledb.common.Utility.getHeapTuple(42, 2));
+        hf.writePage(page);
+
+        HeapPage mapped = (HeapPage) hf.readPage(pid);
+        Iterator<Tuple> it = mapped.iterator();
+        assertTrue(it.hasNext());
+        assertEquals(42, ((IntField) it.next().getField(0)).getValue());
+    }
+
+    /**
+     * A page the mapping does not cover reads the same as without a
+     * mapping, including a page past the end of the file.
+     */
+    @Test
+    public void readPastEnd() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), hf.numPages());
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(true);
+        assertArrayEquals(expected, hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * A scan over a mapped BTreeFile returns every tuple.
+     */
+    @Test
+    public void btreeScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, tuples, 0);
+        bf.setMemoryMapped(true);
+        assertTrue(bf.isMemoryMapped());
+        SystemTestUtil.matchTuples(bf, tid, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private List<List<Integer>> rows;
+
+    /**
+     * Set up initial resources for each unit test: a table of random values
+     * with duplicate keys.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        rows = new ArrayList<>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, rows);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A sort with a small budget spills runs, merges them in several passes,
+     * and returns the tuples in order, keeping the scan order of tuples with
+     * equal keys.
+     */
+    @Test
+    public void spills() throws Exception {
+        int budget = 200 * Utility.getTupleDesc(2).getSize();
+        for (boolean asc : new boolean[] { true, false }) {
+            List<List<Integer>> expected = new ArrayList<>(rows);
+            Comparator<List<Integer>> byKey = Comparator.comparing(r -> r.get(0));
+            expected.sort(asc ? byKey : byKey.reversed());
+
+            OrderBy orderBy = new OrderBy(0, asc, new SeqScan(tid, hf.getId(), "a"), budget);
+            orderBy.open();
+            assertEquals(expected, SystemTestUtil.readTuples(orderBy));
+            // the last 200 tuples are spilled too, before the final merge
+            assertEquals(15, orderBy.numSpilledRuns());
+            // runs take a RecordId of two ints, a slot and two bytes, and two
+            // ints a tuple, and merge passes write them again
+            assertEquals(0, orderBy.getBytesSpilled() % 22);
+            assertTrue(orderBy.getBytesSpilled() > 3000 * 22);
+            assertTrue(orderBy.getPeakMemoryBytes() <= budget);
+            orderBy.rewind();
+            assertEquals(expected, SystemTestUtil.readTuples(orderBy));
+            orderBy.close();
+        }
+    }
+
+    /**
+     * Spilled tuples come back with the RecordIds they were scanned with.
+     */
+    @Test
+    public void recordIds() throws Exception {
+        Map<RecordId, List<Integer>> scanned = new HashMap<>();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "a");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            scanned.put(t.getRecordId(), SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+
+        OrderBy orderBy = new OrderBy(1, false, new SeqScan(tid, hf.getId(), "a"),
+                100 * Utility.getTupleDesc(2).getSize());
+        orderBy.open();
+        int n = 0;
+        while (orderBy.hasNext()) {
+            Tuple t = orderBy.next();
+            assertEquals(scanned.get(t.getRecordId()), SystemTestUtil.tupleToList(t));
+            n++;
+        }
+        assertTrue(orderBy.numSpilledRuns() > 0);
+        orderBy.close();
+        assertEquals(3000, n);
+    }
+
+    /**
+     * A sort that fits in memory writes nothing to disk.
+     */
+    @Test
+    public void inMemory() throws Exception {
+        OrderBy orderBy = new OrderBy(1, true, new SeqScan(tid, hf.getId(), "a"));
+        orderBy.open();
+        List<List<Integer>> sorted = SystemTestUtil.readTuples(orderBy);
+        orderBy.close();
+        assertEquals(3000, sorted.size());
+        for (int i = 1; i < sorted.size(); i++) {
+            assertTrue(sorted.get(i - 1).get(1) <= sorted.get(i).get(1));
+        }
+        assertEquals(0, orderBy.numSpilledRuns());
+        assertEquals(0, orderBy.getBytesSpilled());
+        assertEquals(3000L * Utility.getTupleDesc(2).getSize(), orderBy.getPeakMemoryBytes());
+    }
+
+    /**
+     * Rewinding a sort that is not open does nothing.
+     */
+    @Test
+    public void rewindClosed() throws Exception {
+        OrderBy orderBy = new OrderBy(0, true, new SeqScan(tid, hf.getId(), "a"));
+        orderBy.rewind();
+        orderBy.open();
+        orderBy.close();
+        orderBy.rewind();
+    }
+
+    /**
+     * Spilled strings take their length and characters, not the padded size
+     * of a page, and come back unchanged.
+     */
+    @Test
+    public void stringRows() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(String.format("k%03d", i * 37 % 500), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        OrderBy orderBy = new OrderBy(0, true, new TupleIterator(td, tuples), 50 * td.getSize());
+        orderBy.open();
+        String last = null;
+        int n = 0;
+        while (orderBy.hasNext()) {
+            Tuple t = orderBy.next();
+            String key = ((StringField) t.getField(0)).getValue();
+            assertEquals(String.format("k%03d", t.getInt(1) * 37 % 500), key);
+            if (last != null) {
+                assertTrue(last.compareTo(key) <= 0);
+            }
+            last = key;
+            n++;
+        }
+        orderBy.close();
+        assertEquals(500, n);
+        assertEquals(10, orderBy.numSpilledRuns());
+        // a spilled tuple takes 1 byte for its missing RecordId, 2 + 4 for
+        // its key and 4 for its int
+        assertEquals(0, orderBy.getBytesSpilled() % 11);
+        assertTrue(orderBy.getBytesSpilled() < 500L * td.getSize());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,230 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.CostCard;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+    private HeapFile hf1;
+    private HeapFile hf2;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: two tables of random
+     * values with duplicate keys.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        hf1 = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, new ArrayList<>());
+        hf2 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, new ArrayList<>());
+        tid = new TransactionId();
+    }
+
+    private List<List<Integer>> expected(JoinPredicate p) throws Exception {
+        return SystemTestUtil.collectTuples(
+                new Join(p, new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b")));
+    }
+
+    /**
+     * On one thread or several, the join returns the rows Join does.
+     */
+    @Test
+    public void matchesJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<List<Integer>> expected = expected(p);
+        for (int parallelism : new int[] { 1, 4 }) {
+            ParallelHashJoin join = new ParallelHashJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                    new SeqScan(tid, hf2.getId(), "b"), parallelism);
+            SystemTestUtil.matchTuples(join, expected);
+            join.open();
+            assertTrue(join.numPartitions() >= parallelism * 4);
+            join.close();
+        }
+    }
+
+    /**
+     * A rewind, at the end of the join or in the middle of it, starts the
+     * probe over with the same tables.
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        int expected = expected(p).size();
+        ParallelHashJoin join = new ParallelHashJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                new SeqScan(tid, hf2.getId(), "b"), 3);
+        join.open();
+        assertEquals(expected, SystemTestUtil.readTuples(join).size());
+        join.rewind();
+        for (int i = 0; i < 10 && join.hasNext(); i++) {
+            join.next();
+        }
+        join.rewind();
+        assertEquals(expected, SystemTestUtil.readTuples(join).size());
+        join.close();
+    }
+
+    /**
+     * A join closed before its end stops its workers.
+     */
+    @Test
+    public void closeEarly() throws Exception {
+        ParallelHashJoin join = new ParallelHashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b"), 2);
+        join.open();
+        assertTrue(join.hasNext());
+        join.next();
+        join.close();
+    }
+
+    /**
+     * Joins on string fields match what Join returns.
+     */
+    @Test
+    public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> build = new ArrayList<>();
+        List<Tuple> probe = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("k" + (i % 37), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            build.add(t);
+            if (i % 3 == 0) {
+                probe.add(t);
+            }
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Join join = new Join(p, new TupleIterator(td, build), new TupleIterator(td, probe));
+        join.open();
+        int expected = 0;
+        while (join.hasNext()) {
+            join.next();
+            expected++;
+        }
+        join.close();
+        ParallelHashJoin parallel = new ParallelHashJoin(p, new TupleIterator(td, build),
+                new TupleIterator(td, probe), 4);
+        parallel.open();
+        int n = 0;
+        while (parallel.hasNext()) {
+            Tuple t = parallel.next();
+            assertEquals(t.getField(0), t.getField(2));
+            n++;
+        }
+        parallel.close();
+        assertEquals(expected, n);
+    }
+
+    /**
+     * Keys with a large share of child1 are found heavy and dealt to several
+     * partitions, so no partition holds all of a key, and the join still
+     * returns the rows Join does.
+     */
+    @Test
+    public void skewedKeys() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        Random rand = new Random(7);
+        List<Tuple> build = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int key = i % 5 < 2 ? 7 : i % 5 == 2 ? 9 : 100 + rand.nextInt(1000);
+            build.add(Utility.getHeapTuple(new int[] { key, i }));
+        }
+        List<Tuple> probe = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int key = i % 4 == 0 ? 7 : i % 4 == 1 ? 9 : 100 + rand.nextInt(1000);
+            probe.add(Utility.getHeapTuple(new int[] { key, i }));
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Join join = new Join(p, new TupleIterator(td, build), new TupleIterator(td, probe));
+        join.open();
+        Map<List<Integer>, Integer> expected = counts(join);
+        join.close();
+
+        ParallelHashJoin parallel = new ParallelHashJoin(p, new TupleIterator(td, build),
+                new TupleIterator(td, probe), 4);
+        parallel.open();
+        assertEquals(2, parallel.numHeavyKeys());
+        assertTrue(parallel.maxPartitionTuples() < 400);
+        assertEquals(expected, counts(parallel));
+        parallel.close();
+    }
+
+    private static Map<List<Integer>, Integer> counts(OpIterator op) throws Exception {
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> row : SystemTestUtil.readTuples(op)) {
+            counts.merge(row, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * The optimizer joins big inputs in parallel, when there is more than
+     * one processor and the outer is estimated to fit in memory, and small
+     * inputs, outers too big for memory and outers of unknown size on one
+     * thread.
+     */
+    @Test
+    public void instantiateJoin() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 40000, 500, null, new ArrayList<>(), "c");
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 500, null, new ArrayList<>(), "c");
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.c0", "b.c1", Predicate.Op.EQUALS);
+        OpIterator j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, small.getId(), "a"), new SeqScan(tid, big.getId(), "b"),
+                estimate(100), estimate(40000));
+        if (ParallelHashJoin.DEFAULT_PARALLELISM > 1) {
+            assertTrue(j instanceof ParallelHashJoin);
+        } else {
+            assertTrue(j instanceof HashEquiJoin);
+        }
+        int memoryTuples = HashEquiJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize()
+                / small.getTupleDesc().getSize();
+        j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, small.getId(), "a"), new SeqScan(tid, big.getId(), "b"),
+                estimate(memoryTuples + 1), estimate(40000));
+        assertTrue(j instanceof HashEquiJoin);
+        j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, small.getId(), "a"), new SeqScan(tid, big.getId(), "b"));
+        assertTrue(j instanceof HashEquiJoin);
+        j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, small.getId(), "a"), new SeqScan(tid, small.getId(), "b"),
+                estimate(100), estimate(100));
+        assertTrue(j instanceof HashEquiJoin);
+    }
+
+    private static CostCard estimate(int card) {
+        CostCard cc = new CostCard();
+        cc.card = card;
+        cc.cost = card;
+        cc.plan = new ArrayList<>();
+        return cc;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelHashJoinTest.class);
+    }
+}
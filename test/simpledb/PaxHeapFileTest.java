@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapFileTest extends SimpleDbTestBase {
+    /** tuples of three ints per page */
+    private static final int PER_PAGE = (BufferPool.getPageSize() * 8) / (12 * 8 + 1);
+
+    private File f;
+    private PaxHeapFile pf;
+    private List<List<Integer>> rows;
+
+    /**
+     * Set up initial resources for each unit test: five pages of tuples
+     * (i, -i, i % 10), written by HeapFileEncoder and converted to PAX.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        rows = new ArrayList<>();
+        for (int i = 0; i < PER_PAGE * 5; i++) {
+            rows.add(Arrays.asList(i, -i, i % 10));
+        }
+        f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 3);
+        PaxHeapFile.convert(f, f, Utility.getTupleDesc(3));
+        pf = new PaxHeapFile(f, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        pf.getFreeSpaceMap().getSidecar().deleteOnExit();
+        pf.getZoneMap().getSidecar().deleteOnExit();
+    }
+
+    /**
+     * The values of each field are stored together, and read back as the
+     * tuples they came from.
+     */
+    @Test
+    public void layout() throws Exception {
+        ByteBuffer page = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+        int headerSize = (PER_PAGE + 7) / 8;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, page.getInt(headerSize + 4 * i));
+            assertEquals(-i, page.getInt(headerSize + 4 * PER_PAGE + 4 * i));
+            assertEquals(i % 10, page.getInt(headerSize + 8 * PER_PAGE + 4 * i));
+        }
+        SystemTestUtil.matchTuples(pf, rows);
+    }
+
+    /**
+     * A scan of some fields returns those fields, and a page filter pushed
+     * through it is applied to the right field of the table.
+     */
+    @Test
+    public void projectedScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, pf.getId(), "p", new int[] { 2, 0 });
+        assertEquals(2, scan.getTupleDesc().numFields());
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(PER_PAGE * 4)), scan);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = PER_PAGE * 4; i < PER_PAGE * 5; i++) {
+            expected.add(Arrays.asList(i % 10, i));
+        }
+        SystemTestUtil.matchTuples(filter, expected);
+        assertEquals(4, scan.getPagesSkipped());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes work on the PAX layout, and an abort restores the
+     * page it changed.
+     */
+    @Test
+    public void insertDeleteAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = pf.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().insertTuple(tid, pf.getId(), Utility.getHeapTuple(new int[] { 7, 8, 9 }));
+        Database.getBufferPool().transactionComplete(tid);
+        rows.remove(0);
+        rows.add(Arrays.asList(7, 8, 9));
+        SystemTestUtil.matchTuples(pf, rows);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, pf.getId(), Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(pf.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(page.getBeforeImage() instanceof PaxHeapPage);
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(pf, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapFileTest.class);
+    }
+}
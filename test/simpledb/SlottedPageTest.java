@@ -0,0 +1,168 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedHeapFile file;
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE },
+                new String[] { "id", "name" });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        file = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        pid = new HeapPageId(file.getId(), 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private List<String> names(SlottedPage page) {
+        List<String> names = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            names.add(((StringField) it.next().getField(1)).getValue());
+        }
+        return names;
+    }
+
+    /**
+     * Records take only the bytes their strings need and survive a round
+     * trip through getPageData.
+     */
+    @Test
+    public void insertAndRead() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        int free = page.getFreeSpace();
+
+        page.insertTuple(tuple(1, "ann"));
+        page.insertTuple(tuple(2, ""));
+        // 4 byte slot + 4 byte int + 2 byte length + 3 characters
+        assertEquals(free - 13 - 10, page.getFreeSpace());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(Arrays.asList("ann", ""), names(copy));
+        assertEquals(1, copy.getTuple(1).getRecordId().getTupleNumber());
+        assertEquals(2, ((IntField) copy.getTuple(1).getField(0)).getValue());
+    }
+
+    /**
+     * Deleted space is reclaimed by compaction, and slot numbers survive it.
+     */
+    @Test
+    public void deleteAndCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) sb.append('x');
+        int i = 0;
+        while (page.canHold(tuple(i, sb.toString()))) {
+            Tuple t = tuple(i++, sb.toString());
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        try {
+            page.insertTuple(tuple(i, sb.toString()));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // free every other record; the holes are not contiguous
+        for (int j = 0; j < inserted.size(); j += 2) {
+            page.deleteTuple(inserted.get(j));
+        }
+        Tuple survivor = inserted.get(1);
+        for (int j = 0; j < inserted.size() / 2; j++) {
+            page.insertTuple(tuple(1000 + j, sb.toString()));
+        }
+        Tuple stillThere = page.getTuple(survivor.getRecordId().getTupleNumber());
+        assertEquals(survivor.getField(0), stillThere.getField(0));
+
+        try {
+            page.deleteTuple(tuple(5, "nope"));
+            fail("tuple without a record id is not on the page");
+        } catch (DbException e) {
+            // expected
+        } catch (NullPointerException e) {
+            fail("should throw DbException");
+        }
+    }
+
+    /**
+     * A SlottedHeapFile holds short strings on far fewer pages than a
+     * HeapFile, and reads them back through the buffer pool.
+     */
+    @Test
+    public void fileInsertScanDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i, "name" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        // a HeapFile would need 2000 / 29 = 69 pages for this schema
+        assertTrue(file.numPages() < 15);
+
+        tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Set<Integer> seen = new HashSet<>();
+        List<Tuple> odd = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            seen.add(id);
+            if (id % 2 == 1) odd.add(t);
+        }
+        it.close();
+        assertEquals(rows, seen.size());
+
+        for (Tuple t : odd) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        int pages = file.numPages();
+        for (int i = 0; i < rows / 2; i++) {
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i, "again" + i));
+        }
+        // freed space is reused rather than appended
+        assertEquals(pages, file.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    private List<List<Integer>> rows1;
+    private List<List<Integer>> rows2;
+    private HeapFile hf1;
+    private HeapFile hf2;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: two tables of small
+     * random values, with many duplicate keys.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        rows1 = new ArrayList<>();
+        rows2 = new ArrayList<>();
+        hf1 = SystemTestUtil.createRandomHeapFile(2, 100, 30, null, rows1, "c");
+        hf2 = SystemTestUtil.createRandomHeapFile(2, 60, 30, null, rows2, "c");
+        tid = new TransactionId();
+    }
+
+    private List<List<Integer>> join(JoinPredicate p) throws Exception {
+        return SystemTestUtil.collectTuples(
+                new Join(p, new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b")));
+    }
+
+    /**
+     * Sorting in memory or spilling runs of a few tuples, the join returns
+     * the rows Join does.
+     */
+    @Test
+    public void matchesJoin() throws Exception {
+        int tupleSize = Utility.getTupleDesc(2).getSize();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        List<List<Integer>> expected = join(p);
+        for (int sortTuples : new int[] { 7, 1000 }) {
+            SortMergeJoin join = new SortMergeJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                    new SeqScan(tid, hf2.getId(), "b"), 0, false, false, sortTuples * tupleSize);
+            SystemTestUtil.matchTuples(join, expected);
+            // the sorts of both sides spill when they hold only a few tuples
+            assertEquals(sortTuples < 60, join.getBytesSpilled() > 0);
+            assertEquals(join.getBytesSpilled(), Query.getBytesSpilled(join));
+        }
+    }
+
+    /**
+     * Range joins, whose windows would hold most of the outer side, are
+     * rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeRejected() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+                new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b"));
+    }
+
+    /**
+     * Inputs that are sorted already are merged as they are.
+     */
+    @Test
+    public void sortedInputs() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        SortMergeJoin join = new SortMergeJoin(p, new OrderBy(1, true, new SeqScan(tid, hf1.getId(), "a")),
+                new OrderBy(0, true, new SeqScan(tid, hf2.getId(), "b")), 0, true, true, 1);
+        SystemTestUtil.matchTuples(join, join(p));
+    }
+
+    /**
+     * A band join matches keys within the band of each other.
+     */
+    @Test
+    public void band() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> r1 : rows1) {
+            for (List<Integer> r2 : rows2) {
+                if (Math.abs(r1.get(0) - r2.get(1)) <= 2) {
+                    List<Integer> row = new ArrayList<>(r1);
+                    row.addAll(r2);
+                    expected.add(row);
+                }
+            }
+        }
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b"), 2, false, false, 1 << 16);
+        SystemTestUtil.matchTuples(join, expected);
+    }
+
+    /**
+     * A sort with room for a few tuples spills runs and merges them back in
+     * order, keeping tuples with equal keys in the order they were added.
+     */
+    @Test
+    public void externalSort() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ExternalSort sort = new ExternalSort(td, Comparator.comparingInt(t -> t.getInt(0)), 5 * td.getSize());
+        for (int i = 0; i < 40; i++) {
+            sort.add(Utility.getHeapTuple(new int[] { (i * 7) % 10, i }));
+        }
+        assertEquals(7, sort.numRuns());
+        DbFileIterator it = sort.iterator();
+        it.open();
+        for (int pass = 0; pass < 2; pass++) {
+            Tuple last = null;
+            int n = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (last != null) {
+                    assertTrue(last.getInt(0) < t.getInt(0)
+                            || (last.getInt(0) == t.getInt(0) && last.getInt(1) < t.getInt(1)));
+                }
+                last = t;
+                n++;
+            }
+            assertEquals(40, n);
+            it.rewind();
+        }
+        it.close();
+        sort.close();
+    }
+
+    /**
+     * The optimizer merges equality joins of sorted inputs, and leaves range
+     * joins to a nested loop.
+     */
+    @Test
+    public void instantiateJoin() throws Exception {
+        OpIterator j = JoinOptimizer.instantiateJoin(
+                new LogicalJoinNode("a", "b", "a.c0", "b.c1", Predicate.Op.LESS_THAN),
+                new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b"));
+        assertTrue(j instanceof BlockNestedLoopJoin);
+
+        j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "a.c0", "b.c1", Predicate.Op.EQUALS),
+                new SeqScan(tid, hf1.getId(), "a"), new SeqScan(tid, hf2.getId(), "b"));
+        assertTrue(j instanceof HashEquiJoin);
+
+        j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "a.c0", "b.c1", Predicate.Op.EQUALS),
+                new OrderBy(0, true, new SeqScan(tid, hf1.getId(), "a")),
+                new OrderBy(1, true, new SeqScan(tid, hf2.getId(), "b")));
+        assertTrue(j instanceof SortMergeJoin);
+        SystemTestUtil.matchTuples(j, join(new JoinPredicate(0, Predicate.Op.EQUALS, 1)));
+    }
+
+    /**
+     * The cost of a range join is the cost of the BlockNestedLoopJoin the
+     * optimizer builds for it: a scan of the outer, a scan of the inner per
+     * block of outer tuples, and a comparison per pair.
+     */
+    @Test
+    public void costsChosenJoin() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf1.getId(), "a");
+        lp.addScan(hf2.getId(), "b");
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.LESS_THAN);
+        JoinOptimizer jo = new JoinOptimizer(lp, Collections.singletonList(lj));
+        int blockTuples = BlockNestedLoopJoin.blockTuples(hf1.getTupleDesc(),
+                BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES * BufferPool.getPageSize());
+        assertEquals(1 + (1 + 2.0 / blockTuples) * 1 + 2 * 2, jo.estimateJoinCost(lj, 2, 2, 1, 1), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
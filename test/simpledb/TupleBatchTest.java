@@ -0,0 +1,184 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+    private List<List<Integer>> rows1;
+    private List<List<Integer>> rows2;
+    private HeapFile hf1;
+    private HeapFile hf2;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test: two tables of a few
+     * pages of small random values.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        rows1 = new ArrayList<>();
+        rows2 = new ArrayList<>();
+        hf1 = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, rows1);
+        hf2 = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, rows2);
+        tid = new TransactionId();
+    }
+
+    private static List<List<Integer>> batches(OpIterator op) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        op.open();
+        TupleBatch batch;
+        while ((batch = op.nextBatch()) != null) {
+            assertTrue(batch.size() > 0);
+            for (int i = 0; i < batch.size(); i++) {
+                rows.add(SystemTestUtil.tupleToList(batch.getTuple(i)));
+            }
+        }
+        op.close();
+        return rows;
+    }
+
+    /**
+     * A scan returns the same rows, with the same RecordIds, in batches as
+     * tuple at a time.
+     */
+    @Test
+    public void scan() throws Exception {
+        SeqScan scan = new SeqScan(tid, hf1.getId(), "t");
+        assertEquals(rows1, batches(scan));
+
+        scan.open();
+        TupleBatch batch = scan.nextBatch();
+        assertEquals(scan.getTupleDesc(), batch.getTupleDesc());
+        Tuple t = batch.getTuple(batch.size() - 1);
+        scan.rewind();
+        for (int i = 0; i < batch.size() - 1; i++) {
+            scan.next();
+        }
+        assertEquals(scan.next().getRecordId(), t.getRecordId());
+        scan.close();
+    }
+
+    /**
+     * Filter and Project over batches return what they return tuple at a
+     * time.
+     */
+    @Test
+    public void filterProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(50));
+            Project project = new Project(Arrays.asList(2, 1), new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                    new Filter(p, new SeqScan(tid, hf1.getId(), "t")));
+            assertEquals(SystemTestUtil.collectTuples(project), batches(project));
+        }
+    }
+
+    /**
+     * A join over batches returns the rows the tuple at a time join does.
+     */
+    @Test
+    public void hashEquiJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, hf1.getId(), "a"),
+                new SeqScan(tid, hf2.getId(), "b"));
+        List<List<Integer>> expected = SystemTestUtil.collectTuples(join);
+        assertFalse(expected.isEmpty());
+        SystemTestUtil.matchTuples(new TupleIterator(join.getTupleDesc(), toTuples(join.getTupleDesc(), batches(join))),
+                expected);
+    }
+
+    private static List<Tuple> toTuples(TupleDesc td, List<List<Integer>> rows) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (List<Integer> row : rows) {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < row.size(); i++) {
+                t.setField(i, new IntField(row.get(i)));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /**
+     * An aggregate reads its child in batches.
+     */
+    @Test
+    public void aggregate() throws Exception {
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> row : rows1) {
+            if (row.get(1) < 50) {
+                sums.merge(row.get(0), row.get(2), Integer::sum);
+            }
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, hf1.getId(), "t"));
+        SystemTestUtil.matchTuples(new Aggregate(filter, 2, 0, Aggregator.Op.SUM), expected);
+    }
+
+    /**
+     * A tuple read by hasNext() is not lost by switching to batches.
+     */
+    @Test
+    public void hasNextThenBatch() throws Exception {
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                new SeqScan(tid, hf1.getId(), "t"));
+        filter.open();
+        assertTrue(filter.hasNext());
+        List<List<Integer>> rows = new ArrayList<>();
+        TupleBatch batch;
+        while ((batch = filter.nextBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                rows.add(SystemTestUtil.tupleToList(batch.getTuple(i)));
+            }
+        }
+        filter.close();
+        assertEquals(rows1, rows);
+    }
+
+    /**
+     * String fields are held as Strings and compared as StringFields.
+     */
+    @Test
+    public void strings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleBatch batch = new TupleBatch(td, 1);
+        String[] words = { "apple", "banana", "cherry" };
+        for (int i = 0; i < words.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(words[i], Type.STRING_LEN));
+            batch.addTuple(t);
+        }
+        assertEquals("banana", batch.getString(1, 1));
+        new Predicate(1, Predicate.Op.GREATER_THAN, new StringField("b", Type.STRING_LEN)).filter(batch);
+        assertEquals(2, batch.size());
+        assertEquals(new StringField("cherry", Type.STRING_LEN), batch.getTuple(1).getField(1));
+
+        TupleBatch projected = batch.project(new int[] { 1 }, new TupleDesc(new Type[] { Type.STRING_TYPE }));
+        assertEquals(2, projected.size());
+        assertEquals("banana", projected.getString(0, projected.row(0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -141,6 +141,25 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleDesc.getFieldOffset(), and for fieldNameToIndex()
+     * with a name used twice
+     */
+    @Test
+    public void fieldOffsets() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b", "a" });
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getFieldOffset(2));
+        assertEquals(0, td.fieldNameToIndex("a"));
+
+        TupleDesc merged = TupleDesc.merge(td, td);
+        assertEquals(td.getSize() + td.getFieldOffset(1), merged.getFieldOffset(4));
+        assertEquals(2 * td.getSize(), merged.getSize());
+        assertEquals(1, merged.fieldNameToIndex("b"));
+    }
+
     /**
      * Unit test for TupleDesc.numFields()
      */
@@ -1,6 +1,6 @@
 package simpledb;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -236,6 +236,37 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(50), tup.getField(fieldToGet2));
     }
 
+    /**
+     * Unit test for Tuple.getInt(), setInt() and copyFields(), across more
+     * fields than one bitmap word covers
+     */
+    @Test
+    public void intAccessors() {
+        int numFields = 40;
+        Tuple tup = new Tuple(Utility.getTupleDesc(numFields));
+        assertNull(tup.getField(35));
+        for (int i = 0; i < numFields; ++i) {
+            tup.setInt(i, i * 3);
+        }
+        tup.setField(33, new StringField("hello", Type.STRING_LEN));
+        assertFalse(tup.isInt(33));
+        assertTrue(tup.isInt(34));
+        assertEquals(new IntField(102), tup.getField(34));
+        assertEquals(105, tup.getInt(35));
+
+        Tuple merged = new Tuple(Utility.getTupleDesc(numFields + 2));
+        merged.setInt(0, 7);
+        merged.copyFields(tup, 2);
+        assertEquals(7, merged.getInt(0));
+        assertNull(merged.getField(1));
+        assertEquals(0, merged.getInt(2));
+        assertEquals(new StringField("hello", Type.STRING_LEN), merged.getField(35));
+        assertEquals(117, merged.getInt(41));
+
+        tup.setInt(33, 5);
+        assertEquals(new IntField(5), tup.getField(33));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,196 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.Query;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int PER_PAGE = 504;
+
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test: a table of ten pages
+     * whose first column counts up from 0 and second column counts down.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < PER_PAGE * 10; i++) {
+            rows.add(Arrays.asList(i, -i));
+        }
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, f);
+        hf.getZoneMap().getSidecar().deleteOnExit();
+        hf.getFreeSpaceMap().getSidecar().deleteOnExit();
+    }
+
+    private int count(TransactionId tid, SeqScan scan, Predicate p) throws Exception {
+        Filter filter = new Filter(p, scan);
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        return n;
+    }
+
+    /**
+     * A filter over a scan only reads the pages whose range overlaps the
+     * predicate, on either column.
+     */
+    @Test
+    public void skipsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        int n = count(tid, scan, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(PER_PAGE * 8)));
+        assertEquals(PER_PAGE * 2 - 1, n);
+        assertEquals(8, scan.getPagesSkipped());
+
+        scan = new SeqScan(tid, hf.getId(), "t");
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(-PER_PAGE * 3 - 5)), scan);
+        filter.open();
+        assertTrue(filter.hasNext());
+        assertEquals(PER_PAGE * 3 + 5, ((IntField) filter.next().getField(0)).getValue());
+        assertFalse(filter.hasNext());
+        assertEquals(9, Query.getPagesSkipped(filter));
+        filter.close();
+
+        // a predicate that matches everywhere skips nothing
+        scan = new SeqScan(tid, hf.getId(), "t");
+        assertEquals(PER_PAGE * 10 - 1, count(tid, scan, new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7))));
+        assertEquals(0, scan.getPagesSkipped());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The count of skipped pages starts over each time the scan is opened
+     * or rewound.
+     */
+    @Test
+    public void skippedPerScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(PER_PAGE * 8));
+        assertEquals(PER_PAGE * 2 - 1, count(tid, scan, p));
+        assertEquals(8, scan.getPagesSkipped());
+        assertEquals(PER_PAGE * 2 - 1, count(tid, scan, p));
+        assertEquals(8, scan.getPagesSkipped());
+
+        Filter filter = new Filter(p, scan);
+        filter.open();
+        while (filter.hasNext()) {
+            filter.next();
+        }
+        filter.rewind();
+        assertTrue(filter.hasNext());
+        assertEquals(8, scan.getPagesSkipped());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages skipped by the zone map are read locked all the same, so that
+     * no other transaction can add matching tuples to them before the
+     * scanning transaction completes.
+     */
+    @Test
+    public void skippedPagesLocked() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(PER_PAGE * 8));
+        count(tid, scan, p);
+        assertEquals(8, scan.getPagesSkipped());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+
+        TransactionId writer = new TransactionId();
+        TestUtil.LockGrabber grabber = new TestUtil.LockGrabber(writer,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        grabber.start();
+        Thread.sleep(100);
+        assertFalse(grabber.acquired());
+        Database.getBufferPool().transactionComplete(tid);
+        grabber.join(1000);
+        assertTrue(grabber.acquired());
+        Database.getBufferPool().transactionComplete(writer);
+    }
+
+    /**
+     * Inserts widen the range of their page before the page is written, so
+     * a transaction sees its own inserts.
+     */
+    @Test
+    public void insertWidens() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1000000, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        int pgNo = t.getRecordId().getPageId().getPageNumber();
+        assertEquals(1000000, hf.getZoneMap().getRange(pgNo, 0)[1]);
+
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        assertEquals(1, count(tid, scan, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000000))));
+        assertEquals(10, scan.getPagesSkipped());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deletes leave the range alone until the page is written, when it is
+     * recomputed and persisted; a reopened file reads the sidecar, and a
+     * missing sidecar is rebuilt.
+     */
+    @Test
+    public void deleteAndPersist() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple last = null;
+        for (int i = 0; i < PER_PAGE; i++) {
+            last = it.next();
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, last);
+        assertArrayEquals(new int[] { 0, PER_PAGE - 1 }, hf.getZoneMap().getRange(0, 0));
+        Database.getBufferPool().transactionComplete(tid);
+        assertArrayEquals(new int[] { 0, PER_PAGE - 2 }, hf.getZoneMap().getRange(0, 0));
+
+        HeapFile reopened = new HeapFile(f, hf.getTupleDesc());
+        assertArrayEquals(new int[] { 0, PER_PAGE - 2 }, reopened.getZoneMap().getRange(0, 0));
+        assertArrayEquals(new int[] { -PER_PAGE * 2 + 1, -PER_PAGE }, reopened.getZoneMap().getRange(1, 1));
+
+        assertTrue(reopened.getZoneMap().getSidecar().delete());
+        reopened = new HeapFile(f, hf.getTupleDesc());
+        assertArrayEquals(new int[] { 0, PER_PAGE - 2 }, reopened.getZoneMap().getRange(0, 0));
+        assertFalse(reopened.getZoneMap().mayMatch(0, 0, Predicate.Op.EQUALS, new IntField(PER_PAGE - 1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,396 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.ParallelHashJoin;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxHeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Timed comparisons of the faster paths added to SimpleDb against the paths
+ * they replace, on the same data. Each benchmark checks that both paths give
+ * the same result and prints the time each took. The times depend on the
+ * machine, so this is a program to run by hand ("ant benchmark"), not part
+ * of the system tests.
+ */
+public class Benchmark {
+
+    /** Timed runs of each path, after one untimed warm-up run */
+    private static final int RUNS = 5;
+
+    private interface Workload {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Runs a workload RUNS times, checking every result against expected.
+     *
+     * @return the time of the fastest run, in milliseconds
+     */
+    private static double time(Object expected, Workload w) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            Object result = w.run();
+            best = Math.min(best, System.nanoTime() - start);
+            check(expected, result);
+        }
+        return best / 1e6;
+    }
+
+    /**
+     * Times a path against the baseline path it replaces, after checking
+     * that they give the same result, and prints both times.
+     */
+    private static void compare(String what, Workload baseline, Workload path) throws Exception {
+        Object expected = baseline.run();
+        check(expected, path.run());
+        double before = time(expected, baseline);
+        double after = time(expected, path);
+        System.out.printf("%s: %.2f ms before, %.2f ms after (%.2fx)%n",
+                what, before, after, before / after);
+    }
+
+    private static void check(Object expected, Object result) {
+        if (!expected.equals(result)) {
+            throw new IllegalStateException("expected " + expected + " but got " + result);
+        }
+    }
+
+    /**
+     * Runs every benchmark, each on a freshly reset database.
+     */
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        mappedReads();
+        Database.reset();
+        lazyDecode();
+        Database.reset();
+        parallelScan();
+        Database.reset();
+        paxScan();
+        Database.reset();
+        batchFilter();
+        Database.reset();
+        hashJoins();
+        Database.reset();
+        skewedJoin();
+        Database.reset();
+        externalSort();
+    }
+
+    /**
+     * Reading every page of a file through its memory mapping, against
+     * opening and reading the file for each page.
+     */
+    private static void mappedReads() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 200000, null, null);
+        HeapFile mapped = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        mapped.setMemoryMapped(true);
+        compare("read " + hf.numPages() + " pages", () -> emptySlots(hf), () -> emptySlots(mapped));
+    }
+
+    private static long emptySlots(HeapFile hf) {
+        long empty = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            empty += ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i))).getNumEmptySlots();
+        }
+        return empty;
+    }
+
+    /**
+     * Reading one field of every tuple of a page decoded lazily, against
+     * decoding every tuple of the page first, as the page constructor used
+     * to. The page bytes are read up front, so only decoding is timed.
+     */
+    private static void lazyDecode() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(6, 100000, null, null);
+        byte[][] pages = new byte[hf.numPages()][];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = hf.readPage(new HeapPageId(hf.getId(), i)).getPageData();
+        }
+        int slots = BufferPool.getPageSize() * 8 / (hf.getTupleDesc().getSize() * 8 + 1);
+        compare("sum a field of " + pages.length + " pages", () -> {
+            long sum = 0;
+            for (int i = 0; i < pages.length; i++) {
+                Iterator<Tuple> it = new HeapPage(new HeapPageId(hf.getId(), i), pages[i]).iterator();
+                while (it.hasNext()) {
+                    sum += it.next().getInt(3);
+                }
+            }
+            return sum;
+        }, () -> {
+            long sum = 0;
+            for (int i = 0; i < pages.length; i++) {
+                HeapPage page = new HeapPage(new HeapPageId(hf.getId(), i), pages[i]);
+                for (int slot = 0; slot < slots; slot++) {
+                    if (page.isSlotUsed(slot)) {
+                        sum += page.getInt(slot, 3);
+                    }
+                }
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Scanning a table with a worker per processor, or at least two,
+     * against a SeqScan. On one processor this times the overhead of the
+     * workers.
+     */
+    private static void parallelScan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 200000, null, null);
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        compare("scan " + hf.numPages() + " pages on " + workers + " workers",
+                () -> sum(tid -> new SeqScan(tid, hf.getId()), 0),
+                () -> sum(tid -> new ParallelSeqScan(tid, hf.getId(), workers), 0));
+    }
+
+    /**
+     * Scanning one field of a table in the PAX layout, against scanning
+     * whole tuples of the same table in the row layout. The buffer pool
+     * holds both files, so only decoding is timed.
+     */
+    private static void paxScan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(6, 100000, null, null);
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxHeapFile.convert(hf.getFile(), f, hf.getTupleDesc());
+        PaxHeapFile pf = new PaxHeapFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        pf.getFreeSpaceMap().getSidecar().deleteOnExit();
+        pf.getZoneMap().getSidecar().deleteOnExit();
+        Database.resetBufferPool(2 * hf.numPages() + 10);
+        compare("scan a field of " + hf.numPages() + " pages",
+                () -> sum(tid -> new SeqScan(tid, hf.getId()), 3),
+                () -> sum(tid -> new SeqScan(tid, pf.getId(), "p", new int[] { 3 }), 0));
+    }
+
+    /**
+     * Filtering a table a batch at a time, against a tuple at a time.
+     */
+    private static void batchFilter() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 200000, 1000, null, null);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+        compare("filter " + hf.numPages() + " pages",
+                () -> sum(tid -> new Filter(p, new SeqScan(tid, hf.getId())), 1),
+                () -> {
+                    TransactionId tid = new TransactionId();
+                    OpIterator op = new Filter(p, new SeqScan(tid, hf.getId()));
+                    long sum = 0;
+                    op.open();
+                    TupleBatch batch;
+                    while ((batch = op.nextBatch()) != null) {
+                        int[] values = batch.intColumn(1);
+                        for (int i = 0; i < batch.size(); i++) {
+                            sum += values[batch.row(i)];
+                        }
+                    }
+                    op.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                    return sum;
+                });
+    }
+
+    /**
+     * Joining tables in memory with HashEquiJoin, whose JoinHashTable keeps
+     * int keys in arrays, against building and probing a HashMap from key
+     * to a list of tuples, as HashEquiJoin did before; the HashMap join is
+     * written out here. The tables have the shapes of the first two joins
+     * of QueryTest, which build on the emp tuples that pass its filter and
+     * then on hobbies, and of JoinTest, where every key is the same. The
+     * HashMap join reads the same children but skips the Operator calls of
+     * HashEquiJoin. The join gets the memory to hold its whole build side,
+     * as the HashMap does.
+     */
+    private static void hashJoins() throws Exception {
+        Random random = new Random(0);
+        List<Tuple> emp = tuples(random, 6, 1500, 1 << 16);
+        hashJoin("emp x dept", emp, tuples(random, 3, 1000, 1 << 16));
+        hashJoin("hobbies x emp", tuples(random, 2, 200000, 1 << 16), emp);
+        hashJoin("equal keys", tuples(random, 2, 1000, 1), tuples(random, 2, 1000, 1));
+    }
+
+    private static void hashJoin(String what, List<Tuple> build, List<Tuple> probe) throws Exception {
+        TupleDesc td1 = build.get(0).getTupleDesc();
+        TupleDesc td2 = probe.get(0).getTupleDesc();
+        TupleDesc td = TupleDesc.merge(td1, td2);
+        compare("join " + build.size() + " x " + probe.size() + " tuples, " + what, () -> {
+            Map<Field, List<Tuple>> map = new HashMap<>();
+            OpIterator child1 = new TupleIterator(td1, build);
+            OpIterator child2 = new TupleIterator(td2, probe);
+            child1.open();
+            while (child1.hasNext()) {
+                Tuple t1 = child1.next();
+                map.computeIfAbsent(t1.getField(0), k -> new ArrayList<>()).add(t1);
+            }
+            long sum = 0;
+            child2.open();
+            while (child2.hasNext()) {
+                Tuple t2 = child2.next();
+                List<Tuple> l = map.get(t2.getField(0));
+                if (l == null) {
+                    continue;
+                }
+                for (Tuple t1 : l) {
+                    Tuple t = new Tuple(td);
+                    t.copyFields(t1, 0);
+                    t.copyFields(t2, td1.numFields());
+                    sum += t.getInt(1) + t.getInt(td.numFields() - 1);
+                }
+            }
+            child2.close();
+            child1.close();
+            return sum;
+        }, () -> {
+            OpIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new TupleIterator(td1, build), new TupleIterator(td2, probe), build.size() * td1.getSize());
+            long sum = 0;
+            join.open();
+            while (join.hasNext()) {
+                Tuple t = join.next();
+                sum += t.getInt(1) + t.getInt(td.numFields() - 1);
+            }
+            join.close();
+            return sum;
+        });
+    }
+
+    /**
+     * Joining a build side where one key has 40% of the tuples with a
+     * ParallelHashJoin on four workers, which spreads that key over several
+     * partitions, against a HashEquiJoin. On one processor this times the
+     * overhead of the workers and of finding the heavy key.
+     */
+    private static void skewedJoin() throws Exception {
+        Random random = new Random(0);
+        List<Tuple> build = tuples(random, 2, 100000, 1 << 16);
+        for (int i = 0; i < build.size(); i += 5) {
+            build.get(i).setInt(0, 7);
+            build.get(i + 1).setInt(0, 7);
+        }
+        List<Tuple> probe = tuples(random, 2, 100000, 1 << 16);
+        TupleDesc td = build.get(0).getTupleDesc();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        compare("join " + build.size() + " x " + probe.size() + " tuples, 40% one key",
+                () -> sum(new HashEquiJoin(p, new TupleIterator(td, build), new TupleIterator(td, probe),
+                        build.size() * td.getSize()), 3),
+                () -> sum(new ParallelHashJoin(p, new TupleIterator(td, build), new TupleIterator(td, probe), 4), 3));
+    }
+
+    /**
+     * Sorting a table with OrderBy, which spills runs to disk past its
+     * memory budget, against sorting all of it in an ArrayList, as OrderBy
+     * did before: once with the default budget, which the table exceeds,
+     * and once with a budget that holds it.
+     */
+    private static void externalSort() throws Exception {
+        List<Tuple> tuples = tuples(new Random(0), 2, 200000, 1 << 16);
+        TupleDesc td = tuples.get(0).getTupleDesc();
+        Workload list = () -> {
+            List<Tuple> sorted = new ArrayList<>();
+            OpIterator child = new TupleIterator(td, tuples);
+            child.open();
+            while (child.hasNext()) {
+                sorted.add(child.next());
+            }
+            child.close();
+            sorted.sort((a, b) -> Integer.compare(a.getInt(0), b.getInt(0)));
+            return checksum(new TupleIterator(td, sorted));
+        };
+        compare("sort " + tuples.size() + " tuples, spilling", list,
+                () -> checksum(new OrderBy(0, true, new TupleIterator(td, tuples))));
+        compare("sort " + tuples.size() + " tuples, in memory", list,
+                () -> checksum(new OrderBy(0, true, new TupleIterator(td, tuples), tuples.size() * td.getSize())));
+    }
+
+    /**
+     * @return a hash of field 1 of the tuples of op, in order
+     */
+    private static long checksum(OpIterator op) throws Exception {
+        long h = 0;
+        op.open();
+        while (op.hasNext()) {
+            h = h * 31 + op.next().getInt(1);
+        }
+        op.close();
+        return h;
+    }
+
+    /**
+     * @return the sum of field f of the tuples of op
+     */
+    private static long sum(OpIterator op, int f) throws Exception {
+        long sum = 0;
+        op.open();
+        while (op.hasNext()) {
+            sum += op.next().getInt(f);
+        }
+        op.close();
+        return sum;
+    }
+
+    /**
+     * @return tuples of the given number of random int fields below maxValue
+     */
+    private static List<Tuple> tuples(Random random, int columns, int rows, int maxValue) {
+        TupleDesc td = Utility.getTupleDesc(columns);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            for (int c = 0; c < columns; c++) {
+                t.setInt(c, random.nextInt(maxValue));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private interface Plan {
+        OpIterator make(TransactionId tid) throws Exception;
+    }
+
+    /**
+     * Runs a plan in a transaction of its own.
+     *
+     * @return the sum of field f of its tuples
+     */
+    private static long sum(Plan plan, int f) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator op = plan.make(tid);
+        long sum = 0;
+        op.open();
+        while (op.hasNext()) {
+            sum += op.next().getInt(f);
+        }
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+}
@@ -19,6 +19,11 @@ import simpledb.transaction.TransactionId;
 public class InsertTest extends SimpleDbTestBase {
     private void validateInsert(int columns, int sourceRows, int destinationRows)
                 throws DbException, IOException, TransactionAbortedException {
+        validateInsert(columns, sourceRows, destinationRows, false);
+    }
+
+    private void validateInsert(int columns, int sourceRows, int destinationRows, boolean bulk)
+                throws DbException, IOException, TransactionAbortedException {
         // Create the two tables
         List<List<Integer>> sourceTuples = new ArrayList<>();
         HeapFile source = SystemTestUtil.createRandomHeapFile(
@@ -32,7 +37,7 @@ public class InsertTest extends SimpleDbTestBase {
         // Insert source into destination
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, source.getId(), "");
-        Insert insOp = new Insert(tid, ss, destination.getId());
+        Insert insOp = new Insert(tid, ss, destination.getId(), bulk);
 
 //        Query q = new Query(insOp, tid);
         insOp.open();
@@ -83,6 +88,15 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(3, 3, 0);
         validateInsert(3, 0, 2);
     }
+    @Test public void testBulk()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(3, 0, 0, true);
+        validateInsert(3, 1, 0, true);
+        validateInsert(3, 3, 2, true);
+        // spans several pages and more than one batch
+        validateInsert(2, 10000, 700, true);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);
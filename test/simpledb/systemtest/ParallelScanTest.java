@@ -0,0 +1,88 @@
+package simpledb.systemtest;
+
+import simpledb.common.Database;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    /** Splitting a file's partition gives disjoint ranges covering every page. */
+    @Test public void testSplit() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 254 * 9 + 1, null, null);
+        FilePartition rest = f.partition(new TransactionId());
+        assertEquals(10, rest.estimatePages());
+
+        List<FilePartition> parts = new ArrayList<>();
+        FilePartition prefix;
+        while ((prefix = rest.trySplit()) != null) {
+            parts.add(prefix);
+        }
+        parts.add(rest);
+        // halving leaves ranges of 5, 2, 1, 1 and 1 pages
+        assertEquals(5, parts.size());
+        assertEquals(1, rest.estimatePages());
+        int pages = 0;
+        for (FilePartition p : parts) {
+            assertTrue(p.estimatePages() > 0);
+            pages += p.estimatePages();
+        }
+        assertEquals(10, pages);
+    }
+
+    /** A parallel scan returns every tuple exactly once, and can be rewound. */
+    @Test public void testScan() throws Exception {
+        for (int parallelism : new int[] { 1, 2, 4 }) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(4, 6000, null, tuples);
+            TransactionId tid = new TransactionId();
+            ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", parallelism);
+            SystemTestUtil.matchTuples(scan, tuples);
+
+            // the scan took read locks for its transaction on every page
+            for (int i = 0; i < f.numPages(); i++) {
+                assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(f.getId(), i)));
+            }
+
+            scan.open();
+            int count = 0;
+            while (scan.hasNext() && count < 1000) {
+                scan.next();
+                count++;
+            }
+            scan.rewind();
+            count = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+            scan.close();
+            assertEquals(6000, count);
+            Database.getBufferPool().transactionComplete(tid);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        }
+    }
+
+    /** Empty tables and tables with fewer pages than threads scan correctly. */
+    @Test public void testSmall() throws Exception {
+        for (int rows : new int[] { 0, 1, 300 }) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, tuples);
+            TransactionId tid = new TransactionId();
+            SystemTestUtil.matchTuples(new ParallelSeqScan(tid, f.getId(), 8), tuples);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
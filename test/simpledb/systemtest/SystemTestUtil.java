@@ -99,6 +99,29 @@ public class SystemTestUtil {
         return list;
     }
 
+    /**
+     * @return the remaining tuples of an open iterator, as lists of ints
+     */
+    public static List<List<Integer>> readTuples(OpIterator op)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> rows = new ArrayList<>();
+        while (op.hasNext()) {
+            rows.add(tupleToList(op.next()));
+        }
+        return rows;
+    }
+
+    /**
+     * Opens op, reads all of its tuples as lists of ints, and closes it.
+     */
+    public static List<List<Integer>> collectTuples(OpIterator op)
+            throws DbException, TransactionAbortedException {
+        op.open();
+        List<List<Integer>> rows = readTuples(op);
+        op.close();
+        return rows;
+    }
+
     public static void matchTuples(DbFile f, List<List<Integer>> tuples)
             throws DbException, TransactionAbortedException {
         TransactionId tid = new TransactionId();